@@ -1,5 +1,9 @@
 package com.rem.vendingmachine.controller;
 
+import com.rem.vendingmachine.mqtt.MqttLogRingBuffer;
+import com.rem.vendingmachine.mqtt.MqttMessageDispatcher;
+import com.rem.vendingmachine.mqtt.MqttOrderCommitter;
+import com.rem.vendingmachine.mqtt.MqttOutboxRelay;
 import com.rem.vendingmachine.mqtt.MqttSubscriberService.MqttLog;
 import com.rem.vendingmachine.mqtt.MqttSubscriberService;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -15,6 +19,15 @@ public class MqttController {
     @Autowired
     private MqttSubscriberService mqttSubscriberService;
 
+    @Autowired
+    private MqttMessageDispatcher mqttMessageDispatcher;
+
+    @Autowired
+    private MqttOrderCommitter mqttOrderCommitter;
+
+    @Autowired
+    private MqttOutboxRelay mqttOutboxRelay;
+
     // 获取 MQTT 消息记录
     @GetMapping("/data")
     public List<MqttLog> getLogs(@RequestParam String type) {
@@ -25,6 +38,14 @@ public class MqttController {
     }
 
 
+    // 按游标增量获取 MQTT 消息记录，只返回 cursor 之后的新消息
+    @GetMapping("/logs")
+    public MqttLogRingBuffer.MqttLogPage getLogsSince(@RequestParam String type,
+                                                      @RequestParam(defaultValue = "0") long cursor,
+                                                      @RequestParam(defaultValue = "200") int limit) {
+        return mqttSubscriberService.getLogsSince(type, cursor, Math.min(Math.max(1, limit), 1000));
+    }
+
     // --- 获取所有设备快照 ---
     @GetMapping("/devices")
     public Collection<MqttSubscriberService.DeviceSnapshot> getDeviceSnapshots() {
@@ -37,5 +58,29 @@ public class MqttController {
         return mqttSubscriberService.getProcessedOrders();
     }
 
+    // 获取 MQTT 消息处理通道的队列深度和利用率
+    @GetMapping("/dispatcher")
+    public List<MqttMessageDispatcher.LaneStats> getDispatcherStats() {
+        return mqttMessageDispatcher.getStats();
+    }
+
+    // 按消息类别查看削减情况：收到、被合并、被丢弃、被挤出的消息数
+    @GetMapping("/dispatcher/shedding")
+    public List<MqttMessageDispatcher.SheddingStats> getSheddingStats() {
+        return mqttMessageDispatcher.getSheddingStats();
+    }
+
+    // MQTT 订单组提交统计：批量、吞吐量和 p50/p99 订单延迟
+    @GetMapping("/order-committer")
+    public MqttOrderCommitter.CommitterStats getOrderCommitterStats() {
+        return mqttOrderCommitter.getStats();
+    }
+
+    // MQTT 发件箱统计：积压条数、最早一条的等待时间、发布失败次数和投递延迟
+    @GetMapping("/outbox")
+    public MqttOutboxRelay.OutboxStats getOutboxStats() {
+        return mqttOutboxRelay.getStats();
+    }
+
 
 }
\ No newline at end of file
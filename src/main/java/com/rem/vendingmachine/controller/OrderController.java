@@ -2,13 +2,29 @@ package com.rem.vendingmachine.controller;
 
 import com.rem.vendingmachine.model.CheckoutRequest;
 import com.rem.vendingmachine.model.CreateOrderRequest;
+import com.rem.vendingmachine.model.HeavyHitterReport;
+import com.rem.vendingmachine.model.MachineSales;
 import com.rem.vendingmachine.model.Order;
+import com.rem.vendingmachine.model.OrderPage;
+import com.rem.vendingmachine.model.SalesRollup;
+import com.rem.vendingmachine.service.OrderExportService;
 import com.rem.vendingmachine.service.OrderService;
+import com.rem.vendingmachine.service.ProductHeavyHitters;
+import com.rem.vendingmachine.service.SalesRollupService;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -20,6 +36,15 @@ public class OrderController {
     @Autowired
     private OrderService orderService;
 
+    @Autowired
+    private OrderExportService orderExportService;
+
+    @Autowired
+    private SalesRollupService salesRollupService;
+
+    @Autowired
+    private ProductHeavyHitters productHeavyHitters;
+
     /**
      * 创建订单接口
      * @param request 订单请求体，把创建订单封装成一个专门的类
@@ -62,18 +87,24 @@ public class OrderController {
      * @return 订单详情
      */
     @GetMapping("/details/{orderId}")
-    public Order getOrderWithDetailsById(@PathVariable int orderId) {
+    public Order getOrderWithDetailsById(@PathVariable long orderId) {
         return orderService.getOrderWithDetailsById(orderId);
     }
 
     /**
-     * 查询某用户历史订单接口
+     * 查询某用户历史订单接口，按下单时间倒序分页
      * @param userId 用户 ID
-     * @return 订单列表
+     * @param cursor 上一页返回的 nextCursor，不传则从最新的订单开始
+     * @param limit 每页条数，不传用默认值，超过上限按上限截断
+     * @param summary 为 true 时只返回订单主信息，不加载商品清单
+     * @return 一页订单和下一页游标
      */
     @GetMapping("/user/{userId}")
-    public List<Order> getOrderHistoryByUserId(@PathVariable int userId) {
-        return orderService.getOrderHistoryByUserId(userId);
+    public OrderPage getOrderHistoryByUserId(@PathVariable int userId,
+                                             @RequestParam(required = false) String cursor,
+                                             @RequestParam(required = false) Integer limit,
+                                             @RequestParam(defaultValue = "false") boolean summary) {
+        return orderService.getOrderPage(userId, cursor, limit, summary);
     }
 
     /**
@@ -82,7 +113,7 @@ public class OrderController {
      * @return 支付完成提示
      */
     @PutMapping("/pay/{orderId}")
-    public String payOrder(@PathVariable int orderId) {
+    public String payOrder(@PathVariable long orderId) {
         try {
             orderService.markOrderAsPaid(orderId);
             return "订单支付成功！";
@@ -97,7 +128,7 @@ public class OrderController {
      * @return 订单完成提示
      */
     @PutMapping("/complete/{orderId}")
-    public String completeOrder(@PathVariable int orderId) {
+    public String completeOrder(@PathVariable long orderId) {
         try {
             orderService.markOrderAsCompleted(orderId);
             return "订单已完成!";
@@ -112,7 +143,7 @@ public class OrderController {
      * @return 订单信息
      */
     @GetMapping("/{orderId}")
-    public Order getOrderById(@PathVariable int orderId) {
+    public Order getOrderById(@PathVariable long orderId) {
         Order order = orderService.getOrderById(orderId);
         if (order == null) {
             throw new RuntimeException("订单未找到: " + orderId);
@@ -122,9 +153,34 @@ public class OrderController {
         return order;
     }
 
+    /**
+     * 查询全部订单，按下单时间倒序分页，参数同用户历史订单接口
+     */
     @GetMapping("/all")
-    public List<Order> getAllOrders(){
-        return orderService.getAllOrders();
+    public OrderPage getAllOrders(@RequestParam(required = false) String cursor,
+                                  @RequestParam(required = false) Integer limit,
+                                  @RequestParam(defaultValue = "false") boolean summary) {
+        return orderService.getOrderPage(null, cursor, limit, summary);
+    }
+
+    /**
+     * 流式导出订单，边从数据库读取边写给客户端，占用内存与导出行数无关
+     * @param format ndjson（每行一个订单，含商品清单）或 csv（每行一个订单项）
+     * @param from 下单时间下限（包含），如 2025-01-01T00:00:00
+     * @param to 下单时间上限（不包含）
+     * @param machineId 售货机 ID
+     */
+    @GetMapping("/export")
+    public void exportOrders(@RequestParam(defaultValue = "ndjson") String format,
+                             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+                             @RequestParam(required = false) Integer machineId,
+                             HttpServletResponse response) throws IOException {
+        OrderExportService.Format exportFormat = OrderExportService.Format.parse(format);
+        response.setContentType(exportFormat.getContentType());
+        response.setHeader("Content-Disposition", "attachment; filename=orders." + exportFormat.getFileExtension());
+        Writer writer = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8), 64 * 1024);
+        orderExportService.export(exportFormat, from, to, machineId, writer);
     }
 
     @GetMapping("/query")
@@ -135,6 +191,99 @@ public class OrderController {
         return orderService.queryOrders(userId, status, machineId);
     }
 
+    /**
+     * 查询某台售货机在时间范围内的销售额、订单数和销量
+     * @param machineId 售货机 ID
+     * @param from 下单时间下限（包含），不传则不限
+     * @param to 下单时间上限（不包含），不传则不限
+     */
+    @GetMapping("/sales/machine/{machineId}")
+    public MachineSales getMachineSales(@PathVariable int machineId,
+                                        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                        @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        return orderService.getMachineSales(machineId, from, to);
+    }
+
+    /**
+     * 查询时间范围内每台售货机的销售汇总，按销售额从高到低
+     */
+    @GetMapping("/sales/machines")
+    public List<MachineSales> getSalesByMachine(@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                                @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        return orderService.getSalesByMachine(from, to);
+    }
+
+    /**
+     * 最近 hours 小时的近似热销商品，每个商品给出估计销量和误差（真实销量在 [lowerBound, estimate] 之间）
+     * @param scope fleet（全部售货机）、machine（id 为售货机 ID）或 region（id 为售货机位置信息）
+     */
+    @GetMapping("/sales/top")
+    public HeavyHitterReport getTopSellers(@RequestParam(defaultValue = "fleet") String scope,
+                                           @RequestParam(required = false) String id,
+                                           @RequestParam(defaultValue = "24") int hours,
+                                           @RequestParam(defaultValue = "10") int limit) {
+        return productHeavyHitters.top(scope, id, hours, limit);
+    }
+
+    /**
+     * 某个商品在时间范围内每个时间桶的销量和销售额（读汇总表）
+     * @param granularity hour（小时桶）或 day（天桶）
+     * @param from 时间桶起点下限（包含），不传则为 7 天前
+     * @param to 时间桶起点上限（不包含），不传则为当前时间
+     */
+    @GetMapping("/rollup/product/{productId}")
+    public List<SalesRollup> getProductRollup(@PathVariable int productId,
+                                              @RequestParam(defaultValue = "day") String granularity,
+                                              @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                              @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        LocalDateTime end = to != null ? to : LocalDateTime.now();
+        return salesRollupService.getProductSeries(productId, from != null ? from : end.minusDays(7), end, isDaily(granularity));
+    }
+
+    /**
+     * 某台售货机在时间范围内每个时间桶的销量和销售额（读汇总表），参数同上
+     */
+    @GetMapping("/rollup/machine/{machineId}")
+    public List<SalesRollup> getMachineRollup(@PathVariable int machineId,
+                                              @RequestParam(defaultValue = "day") String granularity,
+                                              @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                              @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        LocalDateTime end = to != null ? to : LocalDateTime.now();
+        return salesRollupService.getMachineSeries(machineId, from != null ? from : end.minusDays(7), end, isDaily(granularity));
+    }
+
+    /**
+     * 时间范围内每个商品的销量和销售额，按销售额从高到低（读汇总表），可只统计某台售货机
+     */
+    @GetMapping("/rollup/products")
+    public List<SalesRollup> getProductRollupTotals(@RequestParam(required = false) Integer machineId,
+                                                    @RequestParam(defaultValue = "day") String granularity,
+                                                    @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+                                                    @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        LocalDateTime end = to != null ? to : LocalDateTime.now();
+        return salesRollupService.getProductTotals(machineId, from != null ? from : end.minusDays(7), end, isDaily(granularity));
+    }
+
+    /**
+     * 按订单明细重建 [from, to) 中每一天的汇总（首次部署回填历史数据，或手动修复）
+     */
+    @PostMapping("/rollup/rebuild")
+    public String rebuildRollup(@RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+                                @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+        int rebuilt = salesRollupService.reconcile(from, to);
+        return "销售汇总重建完成，重建桶数: " + rebuilt;
+    }
+
+    private boolean isDaily(String granularity) {
+        if ("day".equalsIgnoreCase(granularity)) {
+            return true;
+        }
+        if ("hour".equalsIgnoreCase(granularity)) {
+            return false;
+        }
+        throw new RuntimeException("不支持的时间粒度: " + granularity + "，可选 hour 或 day");
+    }
+
     @PostMapping("/checkout")
     public ResponseEntity<?> checkout(@RequestBody CheckoutRequest request) {
         try {
@@ -2,6 +2,7 @@ package com.rem.vendingmachine.controller;
 
 import com.rem.vendingmachine.model.Product;
 import com.rem.vendingmachine.service.OrderService;
+import com.rem.vendingmachine.service.ProductCooccurrenceIndex;
 import com.rem.vendingmachine.service.ProductService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
@@ -19,6 +20,9 @@ public class ProductController {
     @Autowired
     private OrderService orderService;
 
+    @Autowired
+    private ProductCooccurrenceIndex productCooccurrenceIndex;
+
     /**
      * 创建商品接口
      * @param product
@@ -121,4 +125,26 @@ public class ProductController {
     public List<Product> recommendProductsForUser(@PathVariable int userId) {
         return productService.getRecommendedProducts(userId);
     }
+
+    /**
+     * 经常和购物车中的商品一起购买的商品接口
+     * @param cart 购物车中的商品id，如 cart=1,2,3
+     * @param limit 最多返回的商品数
+     * @return 互补商品，最常一起购买的在前
+     */
+    @GetMapping("/complements")
+    public List<Product> getComplementaryProducts(@RequestParam List<Integer> cart,
+                                                  @RequestParam(defaultValue = "5") int limit) {
+        return productService.getComplementaryProducts(cart, limit);
+    }
+
+    /**
+     * 从全部订单重新构建商品共现索引接口（首次部署或快照丢失之后手动执行）
+     * @return 重建结果
+     */
+    @PostMapping("/complements/rebuild")
+    public String rebuildComplements() {
+        long orders = productCooccurrenceIndex.rebuild();
+        return "商品共现索引重建完成，订单数: " + orders;
+    }
 }
@@ -2,6 +2,7 @@ package com.rem.vendingmachine.controller;
 
 import com.rem.vendingmachine.model.Product;
 import com.rem.vendingmachine.model.User;
+import com.rem.vendingmachine.model.WalletLedgerEntry;
 import com.rem.vendingmachine.service.UserService;
 import org.apache.ibatis.annotations.Delete;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -119,9 +120,8 @@ public class UserController {
                 return "用户不存在";
             }
 
-            // 更新用户余额
-            currentUser.setBalance(BigDecimal.valueOf(balance));
-            if (userService.updateUser(currentUser)) {
+            // 更新用户余额（按差值追加调整流水，不会覆盖并发的下单扣款）
+            if (userService.updateUserBalance(userId, BigDecimal.valueOf(balance))) {
                 return "用户余额更新成功";
             } else {
                 return "用户余额更新失败";
@@ -130,4 +130,33 @@ public class UserController {
             return "更新用户余额失败: " + e.getMessage();
         }
     }
+
+    /**
+     * 充值接口
+     * @param userId 用户ID
+     * @param amount 充值金额
+     * @return 充值结果
+     */
+    @PostMapping("/top-up/{userId}")
+    public String topUp(@PathVariable int userId, @RequestParam BigDecimal amount) {
+        try {
+            if (amount.signum() <= 0) {
+                return "充值金额必须大于 0";
+            }
+            return "充值成功，当前余额: " + userService.topUp(userId, amount);
+        } catch (Exception e) {
+            return "充值失败: " + e.getMessage();
+        }
+    }
+
+    /**
+     * 查询钱包流水接口
+     * @param userId 用户ID
+     * @param limit 最多返回条数
+     * @return 最近的流水，按时间倒序
+     */
+    @GetMapping("/wallet/{userId}/ledger")
+    public List<WalletLedgerEntry> getWalletLedger(@PathVariable int userId, @RequestParam(defaultValue = "50") int limit) {
+        return userService.getWalletLedger(userId, Math.min(Math.max(1, limit), 500));
+    }
 }
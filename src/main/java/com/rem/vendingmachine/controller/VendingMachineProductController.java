@@ -1,8 +1,10 @@
 package com.rem.vendingmachine.controller;
 
 import com.rem.vendingmachine.model.Product;
+import com.rem.vendingmachine.model.StockDepletionForecast;
 import com.rem.vendingmachine.model.VendingMachineProduct;
 import com.rem.vendingmachine.service.ProductService;
+import com.rem.vendingmachine.service.StockDepletionForecaster;
 import com.rem.vendingmachine.service.VendingMachineProductService;
 import com.rem.vendingmachine.service.VendingMachineProductServiceImpl;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -21,6 +23,9 @@ public class VendingMachineProductController {
     @Autowired
     private ProductService productService;
 
+    @Autowired
+    private StockDepletionForecaster stockDepletionForecaster;
+
     /**
      * 获取某台售货机中的商品列表及其库存
      */
@@ -30,8 +35,15 @@ public class VendingMachineProductController {
     }
 
     /**
-     * 添加商品到售货机
+     * 按最近的销售速度预计在 withinHours 小时内售空的货道（包括已售空的），最快售空的在前，供补货排班使用
+     * @param machineId 只看某台售货机，不传则为所有售货机
      */
+    @GetMapping("/depletion")
+    public List<StockDepletionForecast> getDepletionForecast(@RequestParam(defaultValue = "24") double withinHours,
+                                                             @RequestParam(required = false) Integer machineId) {
+        return stockDepletionForecaster.forecast(withinHours, machineId);
+    }
+
     /**
      * 添加商品到售货机
      */
@@ -0,0 +1,20 @@
+package com.rem.vendingmachine.dao;
+
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+@Mapper
+public interface IdSequenceMapper {
+
+    // 序列不存在时以 initialValue 创建，已存在则不变
+    int initSequence(@Param("name") String name, @Param("initialValue") long initialValue);
+
+    // 序列前进 count 个值，新的 next_value 通过 LAST_INSERT_ID() 带回，返回 0 表示序列不存在
+    int advance(@Param("name") String name, @Param("count") int count);
+
+    // 读取本连接上一次 advance 后的 next_value，必须和 advance 在同一个事务（同一个连接）中调用
+    long selectLastInsertId();
+
+    // 订单表当前最大 ID，用于初始化订单 ID 序列
+    long selectMaxOrderId();
+}
@@ -0,0 +1,33 @@
+package com.rem.vendingmachine.dao;
+
+import com.rem.vendingmachine.model.MqttOrderClaim;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+@Mapper
+public interface MqttOrderClaimMapper {
+
+    // 认领一条 MQTT 订单消息，返回 1 表示认领成功，0 表示已被其他节点或之前的投递认领
+    int claim(@Param("machineId") int machineId, @Param("originalOrderId") String originalOrderId,
+              @Param("owner") String owner);
+
+    // 接管认领超过 leaseSeconds 秒仍未完成的订单（认领节点宕机或卡住），返回 1 表示接管成功
+    int takeOver(@Param("machineId") int machineId, @Param("originalOrderId") String originalOrderId,
+                 @Param("owner") String owner, @Param("leaseSeconds") int leaseSeconds);
+
+    // 订单创建成功后记录真实订单 ID
+    int updateRealOrderId(@Param("machineId") int machineId, @Param("originalOrderId") String originalOrderId,
+                          @Param("realOrderId") long realOrderId);
+
+    // 批量提交订单后，一条 UPDATE 记录所有订单的真实订单 ID；认领已被其他节点接管的订单不更新，返回值小于订单数
+    int batchUpdateRealOrderId(@Param("claims") List<MqttOrderClaim> claims);
+
+    // 查询已处理完成的订单对应的真实订单 ID，未认领或尚未处理完成时返回 null
+    Long selectRealOrderId(@Param("machineId") int machineId, @Param("originalOrderId") String originalOrderId);
+
+    // 订单处理失败时释放本节点持有的认领，返回 0 表示认领已被其他节点接管
+    int release(@Param("machineId") int machineId, @Param("originalOrderId") String originalOrderId,
+                @Param("owner") String owner);
+}
@@ -0,0 +1,28 @@
+package com.rem.vendingmachine.dao;
+
+import com.rem.vendingmachine.model.MqttOutboxMessage;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+import java.util.Map;
+
+@Mapper
+public interface MqttOutboxMapper {
+
+    // 一条 INSERT 写入多条待发布消息
+    int batchInsert(@Param("messages") List<MqttOutboxMessage> messages);
+
+    // 取出已到发布时间的消息并加行锁，其他节点正在发布的消息直接跳过（FOR UPDATE SKIP LOCKED）
+    List<MqttOutboxMessage> selectDueForUpdate(@Param("limit") int limit);
+
+    // 删除已发布成功的消息
+    int deleteByIds(@Param("ids") List<Long> ids);
+
+    // 发布失败：失败次数加一，按指数退避推迟下一次发布
+    int rescheduleByIds(@Param("ids") List<Long> ids, @Param("backoffBaseMs") long backoffBaseMs,
+                        @Param("backoffMaxMs") long backoffMaxMs);
+
+    // 积压情况：pending 待发布条数，oldestAgeMs 最早一条已等待的毫秒数
+    Map<String, Object> selectBacklog();
+}
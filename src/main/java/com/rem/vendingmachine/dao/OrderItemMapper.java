@@ -10,8 +10,11 @@ import java.util.Map;
 @Mapper
 public interface OrderItemMapper {
     int insertOrderItem(OrderItem orderItem); // 插入子订单
-    List<OrderItem> selectOrderItemsByOrderId(@Param("orderId") int orderId); // 查询订单的商品清单
-    List<Integer> getTopPurchasedProductsByUser(@Param("userId")int userId); //查询用户购买数量最多的商品的id
+    int batchInsertOrderItems(@Param("items") List<OrderItem> items); // 一条 INSERT 插入多个子订单
+    List<OrderItem> selectOrderItemsByOrderId(@Param("orderId") long orderId); // 查询订单的商品清单
+    List<OrderItem> selectOrderItemsByOrderIds(@Param("orderIds") List<Long> orderIds); // 一次查询多个订单的商品清单（带商品名称）
+    List<Map<String, Object>> selectUserPurchaseProfile(@Param("userId") int userId); // 查询用户每个商品的累计购买数量（productId、quantity）
+    List<Map<String, Object>> selectUserPurchaseProfiles(@Param("userIds") List<Integer> userIds); // 一次查询多个用户的购买画像（userId、productId、quantity）
     List<Integer> getTopSellingProducts(); //查询系统热销商品的id
 
     List<Map<String, Object>> getTopSellingProductsWithQuantities();
@@ -1,26 +1,48 @@
 package com.rem.vendingmachine.dao;
 
+import com.rem.vendingmachine.model.MachineSales;
 import com.rem.vendingmachine.model.Order;
+import com.rem.vendingmachine.model.OrderExportRow;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.cursor.Cursor;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 @Mapper
 public interface OrderMapper {
-    int insertOrder(Order order); // 插入订单主信息
+    int insertOrder(Order order); // 插入订单主信息，订单 ID 已预先分配
 
-    Order selectOrderById(int id); // 查询订单详情
+    int batchInsertOrders(@Param("orders") List<Order> orders); // 一条 INSERT 插入多个订单，订单 ID 已预先分配
 
-    List<Order> selectOrdersByUserId(@Param("userId") int userId); // 查询用户的订单记录
+    Order selectOrderById(long id); // 查询订单详情
 
-    int updatePaymentStatus(@Param("orderId") int orderId);
+    // 按 (create_time, id) 倒序分页查询订单，不含商品清单；userId 为 null 时查询全部订单，cursorTime 为 null 时从第一页开始
+    List<Order> selectOrderPage(@Param("userId") Integer userId, @Param("cursorTime") LocalDateTime cursorTime,
+                                @Param("cursorId") long cursorId, @Param("limit") int limit);
 
-    int updateCompletionStatus(@Param("orderId") int orderId);
+    int updatePaymentStatus(@Param("orderId") long orderId);
 
-    List<Order> selectAllOrders();
+    int updateCompletionStatus(@Param("orderId") long orderId);
 
-    List<Order> queryOrders(@Param("userId") int userId, @Param("status") int status, @Param("machineId") int machineId);
+    // 按时间范围（左闭右开）和售货机流式读取订单及订单项，必须在事务中遍历
+    Cursor<OrderExportRow> selectOrdersForExport(@Param("from") LocalDateTime from, @Param("to") LocalDateTime to,
+                                                 @Param("machineId") Integer machineId);
+
+    // 按用户、状态、售货机组合筛选订单（参数为 null 时不筛选），最新的在前，最多返回 limit 条
+    List<Order> queryOrders(@Param("userId") Integer userId, @Param("status") Integer status,
+                            @Param("machineId") Integer machineId, @Param("limit") int limit);
+
+    // 某台售货机在时间范围（左闭右开，为 null 时不限）内的销售额、订单数和销量
+    MachineSales selectMachineSales(@Param("machineId") int machineId, @Param("from") LocalDateTime from,
+                                    @Param("to") LocalDateTime to);
+
+    // 时间范围内每台售货机的销售额、订单数和销量
+    List<MachineSales> selectSalesByMachine(@Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
 
     int countOrdersByUserId(@Param("userId") int userId);
+
+    // since 之后下过单的用户 ID（去重）
+    List<Integer> selectUserIdsWithOrdersSince(@Param("since") LocalDateTime since);
 }
\ No newline at end of file
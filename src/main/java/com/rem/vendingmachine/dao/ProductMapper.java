@@ -19,6 +19,8 @@ public interface ProductMapper {
 
     Product selectProductById(@Param("id") int id);
 
+    List<Product> selectProductsByIds(@Param("ids") List<Integer> ids); // 一次查询多个商品
+
     String selectProductNameById(int orderId);
 
     List<Product> selectLowStockProduct();
@@ -0,0 +1,44 @@
+package com.rem.vendingmachine.dao;
+
+import com.rem.vendingmachine.model.SalesRollup;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 销售汇总表（sales_rollup_hourly / sales_rollup_daily），daily 为 true 时操作天表；
+ * 时间范围都是左闭右开
+ */
+@Mapper
+public interface SalesRollupMapper {
+
+    // 一条 INSERT ... ON DUPLICATE KEY UPDATE 累加多个桶的增量
+    int batchAddRollups(@Param("daily") boolean daily, @Param("rollups") List<SalesRollup> rollups);
+
+    // 某个商品每个时间桶的销量和销售额（所有售货机合计）
+    List<SalesRollup> selectProductSeries(@Param("daily") boolean daily, @Param("productId") int productId,
+                                          @Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
+
+    // 某台售货机每个时间桶的销量和销售额（所有商品合计）
+    List<SalesRollup> selectMachineSeries(@Param("daily") boolean daily, @Param("machineId") int machineId,
+                                          @Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
+
+    // 时间范围内每个商品的销量和销售额，machineId 不为 null 时只统计该售货机，按销售额从高到低
+    List<SalesRollup> selectProductTotals(@Param("daily") boolean daily, @Param("machineId") Integer machineId,
+                                          @Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
+
+    // 从订单明细按小时重新汇总（对账用）
+    List<SalesRollup> selectHourlyFromOrders(@Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
+
+    // 汇总表中的原始行（对账用）
+    List<SalesRollup> selectRollups(@Param("daily") boolean daily, @Param("from") LocalDateTime from,
+                                    @Param("to") LocalDateTime to);
+
+    // 删除时间范围内的汇总行
+    int deleteRollups(@Param("daily") boolean daily, @Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
+
+    // 用小时表重新生成时间范围内的天表
+    int insertDailyFromHourly(@Param("from") LocalDateTime from, @Param("to") LocalDateTime to);
+}
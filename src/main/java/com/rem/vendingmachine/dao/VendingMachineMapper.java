@@ -24,4 +24,10 @@ public interface VendingMachineMapper {
 
     // 更新售货机的心跳时间（lastUpdateTime）
     int updateLastUpdateTime(@Param("id") int id, @Param("lastUpdateTime") LocalDateTime lastUpdateTime);
+
+    // 批量更新多台售货机的心跳时间（只用到 id 和 updateTime）
+    int batchUpdateLastUpdateTime(@Param("machines") List<VendingMachine> machines);
+
+    // 批量更新多台售货机的状态和温度（只用到 id、status 和 temperature）
+    int batchUpdateStatusAndTemperature(@Param("machines") List<VendingMachine> machines);
 }
\ No newline at end of file
@@ -28,6 +28,15 @@ public interface VendingMachineProductMapper {
     // 查询某台售货机中是否存在某商品
     VendingMachineProduct selectVendingMachineProduct(@Param("vendingMachineId") int vendingMachineId, @Param("productId") int productId);
 
+    // 查询所有售货机的所有货道（定时刷新货道库存副本）
+    List<VendingMachineProduct> selectAllVendingMachineProducts();
+
+    // 锁住并查询多个货道（SELECT ... FOR UPDATE），必须在事务中调用；slots 只用到售货机 ID 和商品 ID
+    List<VendingMachineProduct> selectSlotsForUpdate(@Param("slots") List<VendingMachineProduct> slots);
+
+    // 批量累加多个货道的库存（stock 字段为变化量，可正可负）
+    int batchAddStock(@Param("slots") List<VendingMachineProduct> slots);
+
     int setVendingMachineProductStock(@Param("vendingMachineId") int vendingMachineId,
                                       @Param("productId") int productId,
                                       @Param("newStock") int newStock);
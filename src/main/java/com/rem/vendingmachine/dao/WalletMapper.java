@@ -0,0 +1,39 @@
+package com.rem.vendingmachine.dao;
+
+import com.rem.vendingmachine.model.WalletLedgerEntry;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+@Mapper
+public interface WalletMapper {
+
+    // 查询用户余额，还没有余额行时返回 null
+    BigDecimal selectBalance(@Param("userId") int userId);
+
+    // 查询并锁住用户的余额行（SELECT ... FOR UPDATE），必须在事务中调用
+    BigDecimal selectBalanceForUpdate(@Param("userId") int userId);
+
+    // 按 user_id 顺序锁住多个用户的余额行，返回已有余额行的用户 ID，必须在事务中调用
+    List<Integer> lockBalances(@Param("userIds") List<Integer> userIds);
+
+    // 条件扣款，余额不足或没有余额行时返回 0
+    int debit(@Param("userId") int userId, @Param("amount") BigDecimal amount);
+
+    // 入账，没有余额行时返回 0
+    int credit(@Param("userId") int userId, @Param("amount") BigDecimal amount);
+
+    // 按流水之和补建用户的余额行，返回 0 表示已存在或用户不存在
+    int initBalance(@Param("userId") int userId);
+
+    // 追加一条流水
+    int insertLedgerEntry(WalletLedgerEntry entry);
+
+    // 一条 INSERT 追加多条流水
+    int batchInsertLedgerEntries(@Param("entries") List<WalletLedgerEntry> entries);
+
+    // 查询用户最近的流水，按时间倒序
+    List<WalletLedgerEntry> selectLedgerByUserId(@Param("userId") int userId, @Param("limit") int limit);
+}
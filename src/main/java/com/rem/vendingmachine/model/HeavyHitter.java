@@ -0,0 +1,18 @@
+package com.rem.vendingmachine.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 近似热销商品：真实销量在 [lowerBound, estimate] 之间
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class HeavyHitter {
+    private int productId;     // 商品 ID
+    private long estimate;     // 估计销量（件），不会低于真实销量
+    private long error;        // 最大高估量
+    private long lowerBound;   // 真实销量下限 = estimate - error
+}
@@ -0,0 +1,24 @@
+package com.rem.vendingmachine.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 某个范围（售货机、区域或全部售货机）在时间窗口内的近似热销商品
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class HeavyHitterReport {
+    private String scope;               // machine、region 或 fleet
+    private String id;                  // 售货机 ID 或区域名称，fleet 为 null
+    private LocalDateTime windowStart;  // 窗口起点（包含）
+    private LocalDateTime windowEnd;    // 窗口终点（不包含）
+    private long totalUnits;            // 窗口内的总销量（件）
+    private long errorBound;            // 任何商品估计值的高估量上界 = 误差率 × 总销量
+    private List<HeavyHitter> items;    // 估计销量从高到低
+}
@@ -0,0 +1,20 @@
+package com.rem.vendingmachine.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+
+/**
+ * 一台售货机在一段时间内的销售汇总
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class MachineSales {
+    private int machineId;      // 售货机 ID
+    private long orderCount;    // 订单数
+    private long units;         // 售出商品件数
+    private BigDecimal revenue; // 销售额
+}
@@ -0,0 +1,16 @@
+package com.rem.vendingmachine.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 设备库存请求消息（vendingmachine/inventory/request/{machineId}）的载荷
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class MqttInventoryRequestPayload {
+    private String machineId;  // 售货机 ID
+    private long timestamp;    // 设备端请求时间
+}
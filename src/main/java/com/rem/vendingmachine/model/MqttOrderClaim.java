@@ -0,0 +1,18 @@
+package com.rem.vendingmachine.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * MQTT 订单认领记录（mqtt_order_claim 表）
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class MqttOrderClaim {
+    private int machineId;          // 售货机 ID
+    private String originalOrderId; // 售货机端生成的订单号
+    private Long realOrderId;       // 数据库中的真实订单 ID，处理完成前为空
+    private String owner;           // 认领节点（服务端 MQTT 客户端 ID）
+}
@@ -0,0 +1,29 @@
+package com.rem.vendingmachine.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 设备上报订单消息（vendingmachine/order/{orderId}）的载荷
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class MqttOrderPayload {
+    private String orderId;     // 设备端生成的原始订单号
+    private int userId;         // 用户 ID
+    private String machineId;   // 售货机 ID
+    private double totalPrice;  // 设备端计算的总价
+    private List<Item> items;   // 商品明细，可能为空
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Item {
+        private int productId;  // 商品 ID
+        private int quantity;   // 购买数量
+    }
+}
@@ -0,0 +1,29 @@
+package com.rem.vendingmachine.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * MQTT 发件箱中等待发布的消息（mqtt_outbox 表）
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class MqttOutboxMessage {
+    private long id;
+    private String topic;
+    private String payload;
+    private int qos;
+    private int attempts;             // 已失败的发布次数
+    private LocalDateTime createTime;
+    private long ageMs;               // 取出时已在发件箱中等待的毫秒数（按数据库时钟计算）
+
+    public MqttOutboxMessage(String topic, String payload, int qos) {
+        this.topic = topic;
+        this.payload = payload;
+        this.qos = qos;
+    }
+}
@@ -0,0 +1,18 @@
+package com.rem.vendingmachine.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 设备状态上报消息（vendingmachine/state/{machineId}）的载荷
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class MqttStatePayload {
+    private String machineId;    // 售货机 ID
+    private double temperature;  // 当前温度
+    private int status;          // 状态：1-在线，0-离线，2-需要维护
+    private String alerts = "无"; // 告警信息
+}
@@ -12,13 +12,19 @@ import java.util.List;
 @AllArgsConstructor
 @NoArgsConstructor
 public class Order {
-    private int id; // 订单主键
+    public static final int STATUS_NEW = 0;       // 已下单
+    public static final int STATUS_PAID = 1;      // 已支付
+    public static final int STATUS_COMPLETED = 2; // 已完成
+
+    private long id; // 订单主键，由 OrderIdGenerator 在写入前分配
     private int userId; // 用户ID
     private BigDecimal totalPrice; // 总金额
     private LocalDateTime createTime; // 下单时间
     private List<OrderItem> orderItems; // 商品清单
     private LocalDateTime paymentTime; // 支付时间
     private LocalDateTime completionTime; // 订单完成时间
+    private Integer machineId; // 售货机ID，订单中的商品来自多台售货机时为空
+    private int status; // 订单状态，见 STATUS_ 常量
 
     public boolean isPaid() {
         return paymentTime != null;
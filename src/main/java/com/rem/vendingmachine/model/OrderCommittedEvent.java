@@ -0,0 +1,14 @@
+package com.rem.vendingmachine.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 订单已写入事件：在下单事务中发布，由 @TransactionalEventListener 在事务提交后处理，回滚的订单不会被处理
+ * 销量排行、推荐、统计等派生数据都通过它增量更新，不再回头扫描订单表
+ */
+@Data
+@AllArgsConstructor
+public class OrderCommittedEvent {
+    private Order order; // 已写入的订单，包含 userId、machineId、createTime 和 orderItems
+}
@@ -0,0 +1,32 @@
+package com.rem.vendingmachine.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * 订单导出的一行：订单主信息 + 一个订单项（订单没有订单项时订单项字段为 null）
+ * 同一个订单的多行在游标中是连续的
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class OrderExportRow {
+    private long orderId;               // 订单 ID
+    private int userId;                 // 用户 ID
+    private Integer machineId;          // 售货机 ID
+    private int status;                 // 订单状态
+    private BigDecimal totalPrice;      // 订单总金额
+    private LocalDateTime createTime;   // 下单时间
+    private LocalDateTime paymentTime;  // 支付时间
+    private LocalDateTime completionTime; // 完成时间
+    private Integer itemId;             // 订单项 ID
+    private Integer productId;          // 商品 ID
+    private String productName;         // 商品名称
+    private Integer quantity;           // 数量
+    private BigDecimal price;           // 单价
+    private BigDecimal subtotal;        // 小计
+}
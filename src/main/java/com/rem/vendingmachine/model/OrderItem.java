@@ -11,7 +11,7 @@ import java.math.BigDecimal;
 @NoArgsConstructor
 public class OrderItem {
     private int id; // 主键
-    private int orderId; // 订单ID
+    private long orderId; // 订单ID
     private int productId; // 商品ID
     private int quantity; // 商品数量
     private BigDecimal price; // 商品单价
@@ -0,0 +1,18 @@
+package com.rem.vendingmachine.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 下单时的一行商品：哪台售货机的哪个商品、买几件
+ * REST 下单、购物车结算和 MQTT 订单都转换成它再交给下单引擎
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class OrderLine {
+    private int vendingMachineId; // 售货机 ID
+    private int productId;        // 商品 ID
+    private int quantity;         // 购买数量
+}
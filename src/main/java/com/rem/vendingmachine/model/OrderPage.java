@@ -0,0 +1,55 @@
+package com.rem.vendingmachine.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * 订单分页结果，按 (create_time, id) 倒序的游标分页
+ * nextCursor 是本页最后一个订单的 (下单时间, 订单 ID)，原样传回即可取下一页；没有更多数据时为 null
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class OrderPage {
+    private List<Order> orders; // 本页订单
+    private String nextCursor; // 下一页游标
+    private boolean hasMore; // 是否还有下一页
+
+    /**
+     * 把订单的 (下单时间, 订单 ID) 编码成游标
+     */
+    public static String encodeCursor(Order order) {
+        String raw = order.getCreateTime() + "|" + order.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 解析游标，格式不正确时抛出异常
+     */
+    public static Cursor decodeCursor(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = raw.lastIndexOf('|');
+            return new Cursor(LocalDateTime.parse(raw.substring(0, separator)), Long.parseLong(raw.substring(separator + 1)));
+        } catch (RuntimeException e) {
+            throw new RuntimeException("无效的分页游标: " + cursor);
+        }
+    }
+
+    /**
+     * 解析后的游标：上一页最后一个订单的下单时间和订单 ID
+     */
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Cursor {
+        private LocalDateTime createTime;
+        private long id;
+    }
+}
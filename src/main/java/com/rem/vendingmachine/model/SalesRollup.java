@@ -0,0 +1,23 @@
+package com.rem.vendingmachine.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * 销售汇总：一个时间桶内某个商品在某台售货机上的销量和销售额；
+ * 按商品或售货机汇总查询时，没有参与分组的字段为 null
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class SalesRollup {
+    private LocalDateTime bucketStart; // 时间桶起点（小时或天）
+    private Integer productId;         // 商品 ID
+    private Integer machineId;         // 售货机 ID，0 表示未记录
+    private long units;                // 售出件数
+    private BigDecimal revenue;        // 销售额
+}
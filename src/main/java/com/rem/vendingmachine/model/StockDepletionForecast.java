@@ -0,0 +1,20 @@
+package com.rem.vendingmachine.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 货道售空预测
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class StockDepletionForecast {
+    private int vendingMachineId;    // 售货机 ID
+    private int productId;           // 商品 ID
+    private String productName;      // 商品名称
+    private int availableStock;      // 当前库存（内存中的货道副本）
+    private double salesPerHour;     // 指数加权的销售速度（件/小时）
+    private double hoursToEmpty;     // 按当前速度预计多少小时后售空，已售空为 0
+}
@@ -0,0 +1,36 @@
+package com.rem.vendingmachine.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * 钱包流水，只追加不修改
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class WalletLedgerEntry {
+    public static final String OPENING = "OPENING"; // 期初余额
+    public static final String TOPUP = "TOPUP";     // 充值
+    public static final String ADJUST = "ADJUST";   // 管理员调整
+    public static final String ORDER = "ORDER";     // 下单扣款
+    public static final String PAYMENT = "PAYMENT"; // 支付账单扣款
+
+    private long id;
+    private int userId;
+    private BigDecimal amount; // 入账为正，扣款为负
+    private String entryType;
+    private Long orderId;
+    private LocalDateTime createTime;
+
+    public WalletLedgerEntry(int userId, BigDecimal amount, String entryType, Long orderId) {
+        this.userId = userId;
+        this.amount = amount;
+        this.entryType = entryType;
+        this.orderId = orderId;
+    }
+}
@@ -0,0 +1,122 @@
+package com.rem.vendingmachine.monitor;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * 虚拟线程钉住（pinning）监控
+ * 通过 JFR 的 jdk.VirtualThreadPinned 事件发现虚拟线程在 synchronized 块或本地方法中阻塞、
+ * 占住载体线程的情况（例如 synchronized 里做 JDBC 调用），按代码位置统计并打印堆栈。
+ * 只在虚拟线程模式下启用，统计结果通过 GET /actuator/pinning 查看。
+ */
+@Component
+@Endpoint(id = "pinning")
+@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadPinningMonitor {
+
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+
+    // 本项目的包名，用于定位钉住发生在哪段业务代码
+    private static final String APP_PACKAGE = "com.rem.vendingmachine";
+
+    // 钉住时长超过该阈值才记录
+    @Value("${vendingmachine.pinning.threshold-ms:20}")
+    private long thresholdMs;
+
+    private RecordingStream recordingStream;
+
+    private final AtomicLong totalPinned = new AtomicLong();
+    private final AtomicLong totalPinnedNanos = new AtomicLong();
+
+    // 代码位置 -> 钉住次数
+    private final Map<String, AtomicLong> pinnedBySite = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void start() {
+        recordingStream = new RecordingStream();
+        recordingStream.enable(PINNED_EVENT)
+                .withThreshold(Duration.ofMillis(thresholdMs))
+                .withStackTrace();
+        recordingStream.onEvent(PINNED_EVENT, this::onPinned);
+        recordingStream.startAsync();
+        System.out.println("虚拟线程钉住监控已启动，阈值: " + thresholdMs + "ms");
+    }
+
+    private void onPinned(RecordedEvent event) {
+        totalPinned.incrementAndGet();
+        totalPinnedNanos.addAndGet(event.getDuration().toNanos());
+
+        // 优先记到第一个业务代码帧上，没有的话记到栈顶
+        String site = "未知位置";
+        String appSite = null;
+        StringBuilder stack = new StringBuilder();
+        RecordedStackTrace stackTrace = event.getStackTrace();
+        if (stackTrace != null) {
+            List<RecordedFrame> frames = stackTrace.getFrames();
+            for (int i = 0; i < frames.size(); i++) {
+                String frame = describe(frames.get(i));
+                if (i == 0) {
+                    site = frame;
+                }
+                if (appSite == null && frame.startsWith(APP_PACKAGE)) {
+                    appSite = frame;
+                }
+                if (i < 15) {
+                    stack.append("\n    at ").append(frame);
+                }
+            }
+        }
+        if (appSite != null) {
+            site = appSite;
+        }
+        pinnedBySite.computeIfAbsent(site, k -> new AtomicLong()).incrementAndGet();
+        System.err.println("【虚拟线程被钉住】时长: " + event.getDuration().toMillis() + "ms, 位置: " + site + stack);
+    }
+
+    private String describe(RecordedFrame frame) {
+        if (frame.getMethod() == null) {
+            return "未知方法";
+        }
+        return frame.getMethod().getType().getName() + "." + frame.getMethod().getName()
+                + "(line " + frame.getLineNumber() + ")";
+    }
+
+    /**
+     * 钉住统计：总次数、总时长和按代码位置的次数（从多到少）
+     */
+    @ReadOperation
+    public Map<String, Object> pinning() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("thresholdMs", thresholdMs);
+        result.put("totalPinned", totalPinned.get());
+        result.put("totalPinnedMs", Duration.ofNanos(totalPinnedNanos.get()).toMillis());
+        result.put("sites", pinnedBySite.entrySet().stream()
+                .sorted((a, b) -> Long.compare(b.getValue().get(), a.getValue().get()))
+                .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().get(), (a, b) -> a, LinkedHashMap::new)));
+        return result;
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (recordingStream != null) {
+            recordingStream.close();
+        }
+    }
+}
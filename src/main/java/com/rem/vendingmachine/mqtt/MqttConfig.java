@@ -1,21 +1,39 @@
 package com.rem.vendingmachine.mqtt;
 
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
 import org.eclipse.paho.client.mqttv3.MqttClient;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.UUID;
+
 @Configuration
 public class MqttConfig {
 
-    // MQTT Broker 地址
-    private static final String BROKER_URL = "tcp://8.148.64.50:1883";
-
     // 默认客户端 ID 前缀（确保唯一）
     private static final String CLIENT_ID_PREFIX = "VendingMachineApp_";
 
+    // MQTT Broker 地址
+    @Value("${mqtt.broker-url:tcp://8.148.64.50:1883}")
+    private String brokerUrl;
+
+    // 集群模式：多个后端节点各自使用唯一的客户端 ID，通过共享订阅分摊消息
+    @Value("${mqtt.cluster.enabled:false}")
+    private boolean clusterEnabled;
+
+    // 集群模式下的节点标识，留空时启动时随机生成
+    @Value("${mqtt.cluster.node-id:}")
+    private String nodeId;
+
+    // 最大在途消息数（Paho 默认 10，高并发发布时需要调大）
+    @Value("${mqtt.max-inflight:10}")
+    private int maxInflight;
+
     // 连接选项配置
     @Bean
     public MqttConnectOptions mqttConnectOptions() {
@@ -24,15 +42,16 @@ public class MqttConfig {
         options.setConnectionTimeout(10); // 连接超时时间
         options.setKeepAliveInterval(60); // 心跳包发送间隔（秒）
         options.setAutomaticReconnect(true); // 自动重连
+        options.setMaxInflight(maxInflight); // 最大在途消息数
         return options;
     }
 
     // 服务端 MQTT 客户端（用于发布和订阅消息）
     @Bean
     public MqttClient mqttServerClient(MqttConnectOptions options) throws MqttException {
-        String clientId = CLIENT_ID_PREFIX + "Server";
-        System.out.println("正在连接MQTT Broker: " + BROKER_URL + ", ClientID: " + clientId);
-        MqttClient client = new MqttClient(BROKER_URL, clientId, new MemoryPersistence());
+        String clientId = clientId("Server");
+        System.out.println("正在连接MQTT Broker: " + brokerUrl + ", ClientID: " + clientId);
+        MqttClient client = new MqttClient(brokerUrl, clientId, new MemoryPersistence());
         try {
             client.connect(options);
             System.out.println("服务端 MQTT 客户端连接成功，ClientID: " + clientId);
@@ -43,4 +62,33 @@ public class MqttConfig {
         }
         return client;
     }
+
+    // 服务端异步发布客户端：发布不阻塞调用线程，只在开启异步发布时创建（虚拟线程模式下默认开启）
+    @Bean(destroyMethod = "disconnect")
+    @ConditionalOnProperty(name = "mqtt.publisher.async", havingValue = "true")
+    public MqttAsyncClient mqttPublishClient(MqttConnectOptions options) throws MqttException {
+        String clientId = clientId("Publisher");
+        System.out.println("正在连接MQTT Broker: " + brokerUrl + ", ClientID: " + clientId);
+        MqttAsyncClient client = new MqttAsyncClient(brokerUrl, clientId, new MemoryPersistence());
+        try {
+            client.connect(options).waitForCompletion();
+            System.out.println("服务端异步发布客户端连接成功，ClientID: " + clientId);
+        } catch (MqttException e) {
+            System.err.println("服务端异步发布客户端连接失败，ClientID: " + clientId);
+            e.printStackTrace();
+            throw e;
+        }
+        return client;
+    }
+
+    // 单机模式沿用固定的客户端 ID；集群模式追加节点标识，避免多个节点互相把对方踢下线
+    private synchronized String clientId(String role) {
+        if (!clusterEnabled) {
+            return CLIENT_ID_PREFIX + role;
+        }
+        if (nodeId == null || nodeId.isBlank()) {
+            nodeId = UUID.randomUUID().toString().substring(0, 8);
+        }
+        return CLIENT_ID_PREFIX + role + "_" + nodeId;
+    }
 }
@@ -0,0 +1,112 @@
+package com.rem.vendingmachine.mqtt;
+
+import com.rem.vendingmachine.mqtt.MqttSubscriberService.MqttLog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 固定容量的 MQTT 日志环形缓冲区
+ * 写入无锁：先原子地领取一个递增序号，再写入对应槽位；写满后新日志覆盖最旧的日志。
+ * 读取按序号游标进行，只返回比游标更新的日志，不需要复制和排序整个列表。
+ */
+public class MqttLogRingBuffer {
+
+    private final AtomicReferenceArray<MqttLog> slots;
+    private final int mask;
+
+    // 下一个待分配的序号，序号从 0 开始
+    private final AtomicLong nextSequence = new AtomicLong();
+
+    public MqttLogRingBuffer(int capacity) {
+        // 容量向上取整为 2 的幂，用位运算定位槽位
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * 追加一条日志
+     *
+     * @return 这条日志的序号
+     */
+    public long append(MqttLog log) {
+        long sequence = nextSequence.getAndIncrement();
+        log.setSequence(sequence);
+        slots.set((int) (sequence & mask), log);
+        return sequence;
+    }
+
+    /**
+     * 读取序号不小于 cursor 的日志（按序号从旧到新）
+     *
+     * @param cursor 上一次返回的 nextCursor，首次读取传 0；大于当前序号时（服务重启后序号从 0 重新开始）从头读取
+     * @param limit  最多返回的条数
+     */
+    public MqttLogPage readSince(long cursor, int limit) {
+        long end = nextSequence.get();
+        if (cursor > end) {
+            // 客户端的游标来自重启之前，按首次读取处理，返回的 nextCursor 让客户端重新同步
+            cursor = 0;
+        }
+        long start = Math.max(Math.max(0, cursor), end - slots.length());
+        List<MqttLog> logs = new ArrayList<>((int) Math.min(Math.max(0, end - start), Math.max(0, limit)));
+
+        long sequence = start;
+        while (sequence < end && logs.size() < limit) {
+            MqttLog log = slots.get((int) (sequence & mask));
+            if (log == null || log.getSequence() < sequence) {
+                // 序号已领取但写入还没完成，停在这里，下次从这里继续读
+                break;
+            }
+            if (log.getSequence() == sequence) {
+                logs.add(log);
+            }
+            // 序号更大说明该槽位已被覆盖，这条日志已经丢失，直接跳过
+            sequence++;
+        }
+        // 游标落后于缓冲区最旧的日志时，中间被覆盖的条数
+        long missed = Math.max(0, start - Math.max(0, cursor));
+        return new MqttLogPage(logs, sequence, missed);
+    }
+
+    /**
+     * 当前缓冲区中保留的全部日志（按序号从旧到新）
+     */
+    public List<MqttLog> snapshot() {
+        return readSince(0, slots.length()).getLogs();
+    }
+
+    public int capacity() {
+        return slots.length();
+    }
+
+    /**
+     * 游标读取的结果
+     */
+    public static class MqttLogPage {
+        private final List<MqttLog> logs;
+        private final long nextCursor;
+        private final long missed;
+
+        public MqttLogPage(List<MqttLog> logs, long nextCursor, long missed) {
+            this.logs = logs;
+            this.nextCursor = nextCursor;
+            this.missed = missed;
+        }
+
+        public List<MqttLog> getLogs() {
+            return logs;
+        }
+
+        public long getNextCursor() {
+            return nextCursor;
+        }
+
+        public long getMissed() {
+            return missed;
+        }
+    }
+}
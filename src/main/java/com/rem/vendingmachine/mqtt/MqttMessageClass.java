@@ -0,0 +1,43 @@
+package com.rem.vendingmachine.mqtt;
+
+/**
+ * MQTT 消息类别，按处理优先级从高到低排列
+ * 订单和库存请求优先处理且永不丢弃；状态上报次之；心跳最低。
+ * 状态和心跳是可削减的：队列积压时，同一台售货机排队中的旧消息会被新消息合并，必要时直接丢弃。
+ */
+public enum MqttMessageClass {
+    ORDER(false),
+    INVENTORY_REQUEST(false),
+    PROCESSED_ORDER(false),
+    STATE(true),
+    HEARTBEAT(true);
+
+    private final boolean sheddable;
+
+    MqttMessageClass(boolean sheddable) {
+        this.sheddable = sheddable;
+    }
+
+    public boolean isSheddable() {
+        return sheddable;
+    }
+
+    /**
+     * 根据主题判断消息类别
+     */
+    public static MqttMessageClass of(String topic) {
+        if (topic.startsWith("vendingmachine/heartbeat")) {
+            return HEARTBEAT;
+        } else if (topic.startsWith("vendingmachine/state")) {
+            return STATE;
+        } else if (topic.startsWith("vendingmachine/order/processed/") || topic.startsWith("vendingmachine/order/failed/")) {
+            return PROCESSED_ORDER;
+        } else if (topic.startsWith("vendingmachine/order/")) {
+            return ORDER;
+        } else if (topic.startsWith("vendingmachine/inventory/request/")) {
+            return INVENTORY_REQUEST;
+        }
+        // 未知主题按已处理订单的优先级对待，不丢弃
+        return PROCESSED_ORDER;
+    }
+}
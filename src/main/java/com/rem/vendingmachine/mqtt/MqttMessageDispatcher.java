@@ -0,0 +1,399 @@
+package com.rem.vendingmachine.mqtt;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * MQTT 消息分发器
+ * 把 Paho 回调线程收到的消息按售货机 ID 哈希到固定数量的工作通道（lane）上处理：
+ * 同一台售货机的同类消息始终落在同一个通道，按顺序处理；不同售货机的消息在不同通道上并行处理。
+ * <p>
+ * 每个通道按消息类别（{@link MqttMessageClass}）分队列，先处理订单和库存请求，其次状态，最后心跳。
+ * 通道队列有界，积压超过水位线后开始削减遥测消息：同一台售货机排队中的旧心跳/旧状态直接被新消息覆盖；
+ * 队列满时挤出或丢弃低优先级的遥测消息。订单永不丢弃，没有可挤出的消息时回调线程阻塞等待，把压力反馈给 Broker。
+ */
+@Component
+public class MqttMessageDispatcher {
+
+    private static final MqttMessageClass[] CLASSES = MqttMessageClass.values();
+
+    // 工作通道数量
+    @Value("${mqtt.dispatcher.lanes:8}")
+    private int laneCount;
+
+    // 每个通道的队列容量
+    @Value("${mqtt.dispatcher.queue-capacity:1000}")
+    private int queueCapacity;
+
+    // 削减水位线（占队列容量的比例），积压超过后开始合并遥测消息
+    @Value("${mqtt.dispatcher.shed-watermark:0.7}")
+    private double shedWatermark;
+
+    // 虚拟线程模式下通道跑在虚拟线程上（需要 Java 21）
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    private Lane[] lanes;
+
+    private volatile boolean running;
+
+    // 按消息类别统计（下标为类别的 ordinal）：收到、被合并、被丢弃、被挤出
+    private final AtomicLongArray received = new AtomicLongArray(CLASSES.length);
+    private final AtomicLongArray collapsed = new AtomicLongArray(CLASSES.length);
+    private final AtomicLongArray dropped = new AtomicLongArray(CLASSES.length);
+    private final AtomicLongArray evicted = new AtomicLongArray(CLASSES.length);
+
+    @PostConstruct
+    public void start() {
+        lanes = new Lane[Math.max(1, laneCount)];
+        running = true;
+        int capacity = Math.max(1, queueCapacity);
+        int watermark = Math.max(1, (int) (capacity * shedWatermark));
+        ThreadFactory threadFactory = laneThreadFactory();
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane(i, capacity, watermark, threadFactory);
+            lanes[i].thread.start();
+        }
+        System.out.println("MQTT 消息分发器已启动，通道数: " + lanes.length + ", 每通道队列容量: " + capacity
+                + ", 削减水位线: " + watermark + (virtualThreads ? "，使用虚拟线程" : ""));
+    }
+
+    /**
+     * 按 key（通常是售货机 ID）把任务投递到对应的通道
+     *
+     * @param laneKey      通道选择键，相同 key 的同类消息保证按投递顺序执行
+     * @param messageClass 消息类别，决定处理优先级以及积压时能否被合并/丢弃
+     * @param task         待执行的处理逻辑
+     */
+    public void dispatch(String laneKey, MqttMessageClass messageClass, Runnable task) {
+        if (!running) {
+            System.err.println("MQTT 消息分发器已关闭，丢弃消息，key: " + laneKey);
+            return;
+        }
+        received.incrementAndGet(messageClass.ordinal());
+        try {
+            lanes[laneIndex(laneKey)].offer(new Task(laneKey, messageClass, task));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("投递 MQTT 消息时被中断，key: " + laneKey);
+        }
+    }
+
+    private ThreadFactory laneThreadFactory() {
+        if (virtualThreads) {
+            return new VirtualThreadTaskExecutor("mqtt-lane-").getVirtualThreadFactory();
+        }
+        return runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private int laneIndex(String laneKey) {
+        if (laneKey == null) {
+            return 0;
+        }
+        // 扰动一下 hashCode，避免连续的数字 ID 都落在相邻通道上
+        int h = laneKey.hashCode();
+        h ^= (h >>> 16);
+        return Math.floorMod(h, lanes.length);
+    }
+
+    /**
+     * 获取各通道的队列深度和利用率
+     * 利用率按两次调用之间的时间窗口计算（首次调用为启动至今）
+     */
+    public synchronized List<LaneStats> getStats() {
+        List<LaneStats> stats = new ArrayList<>(lanes.length);
+        long now = System.nanoTime();
+        for (Lane lane : lanes) {
+            long busy = lane.busyNanos.get();
+            if (lane.currentTaskStart > 0) {
+                // 正在处理的任务也计入忙碌时间
+                busy += now - lane.currentTaskStart;
+            }
+            long window = now - lane.lastSampleTime;
+            double utilisation = window > 0 ? (double) (busy - lane.lastSampleBusy) / window : 0.0;
+            lane.lastSampleTime = now;
+            lane.lastSampleBusy = busy;
+
+            stats.add(new LaneStats(
+                    lane.index,
+                    lane.depth(),
+                    lane.capacity,
+                    Math.min(1.0, Math.max(0.0, utilisation)),
+                    lane.submitted.get(),
+                    lane.processed.get(),
+                    lane.failed.get(),
+                    lane.blockedOffers.get()));
+        }
+        return stats;
+    }
+
+    /**
+     * 获取按消息类别统计的削减情况
+     */
+    public List<SheddingStats> getSheddingStats() {
+        List<SheddingStats> stats = new ArrayList<>(CLASSES.length);
+        for (MqttMessageClass messageClass : CLASSES) {
+            int i = messageClass.ordinal();
+            stats.add(new SheddingStats(messageClass.name(), messageClass.isSheddable(),
+                    received.get(i), collapsed.get(i), dropped.get(i), evicted.get(i)));
+        }
+        return stats;
+    }
+
+    /**
+     * 关闭分发器：不再接收新消息，等待各通道处理完已排队的消息
+     */
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        for (Lane lane : lanes) {
+            try {
+                lane.thread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        System.out.println("MQTT 消息分发器已关闭");
+    }
+
+    /**
+     * 排队中的一条消息；合并时只替换 runnable，保留原来的排队位置
+     */
+    private static class Task {
+        private final String key;
+        private final MqttMessageClass messageClass;
+        private Runnable runnable; // 只在通道锁内读写
+
+        Task(String key, MqttMessageClass messageClass, Runnable runnable) {
+            this.key = key;
+            this.messageClass = messageClass;
+            this.runnable = runnable;
+        }
+    }
+
+    /**
+     * 单个工作通道：一个线程（平台线程或虚拟线程） + 按消息类别划分的有界队列
+     */
+    private class Lane implements Runnable {
+        private final int index;
+        private final int capacity;
+        private final int watermark;
+        private final Thread thread;
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private final Condition notFull = lock.newCondition();
+
+        // 每个消息类别一个队列，下标为类别的 ordinal，ordinal 越小越先处理
+        private final ArrayDeque<Task>[] queues;
+        // 可削减的类别：售货机 -> 该售货机排队中的那条消息，用于合并
+        private final Map<MqttMessageClass, Map<String, Task>> pendingByKey = new EnumMap<>(MqttMessageClass.class);
+        private int size;
+
+        private final AtomicLong submitted = new AtomicLong();
+        private final AtomicLong processed = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong blockedOffers = new AtomicLong();
+        private final AtomicLong busyNanos = new AtomicLong();
+        private volatile long currentTaskStart;
+
+        // 利用率采样状态，只在 getStats 中读写
+        private long lastSampleTime = System.nanoTime();
+        private long lastSampleBusy;
+
+        @SuppressWarnings("unchecked")
+        Lane(int index, int capacity, int watermark, ThreadFactory threadFactory) {
+            this.index = index;
+            this.capacity = capacity;
+            this.watermark = watermark;
+            this.queues = new ArrayDeque[CLASSES.length];
+            for (MqttMessageClass messageClass : CLASSES) {
+                queues[messageClass.ordinal()] = new ArrayDeque<>();
+                if (messageClass.isSheddable()) {
+                    pendingByKey.put(messageClass, new HashMap<>());
+                }
+            }
+            this.thread = threadFactory.newThread(this);
+            this.thread.setName("mqtt-lane-" + index);
+        }
+
+        void offer(Task task) throws InterruptedException {
+            MqttMessageClass messageClass = task.messageClass;
+            lock.lock();
+            try {
+                // 超过水位线：同一台售货机已有排队中的同类遥测消息，只保留最新的一条
+                if (messageClass.isSheddable() && size >= watermark) {
+                    Task pending = pendingByKey.get(messageClass).get(task.key);
+                    if (pending != null) {
+                        pending.runnable = task.runnable;
+                        collapsed.incrementAndGet(messageClass.ordinal());
+                        return;
+                    }
+                }
+                while (size >= capacity) {
+                    // 队列已满：先尝试挤出一条优先级更低的遥测消息
+                    if (evictBelow(messageClass)) {
+                        break;
+                    }
+                    if (messageClass.isSheddable()) {
+                        dropped.incrementAndGet(messageClass.ordinal());
+                        return;
+                    }
+                    // 订单等关键消息不丢弃：阻塞回调线程，形成背压
+                    blockedOffers.incrementAndGet();
+                    notFull.await();
+                }
+                queues[messageClass.ordinal()].addLast(task);
+                if (messageClass.isSheddable()) {
+                    pendingByKey.get(messageClass).put(task.key, task);
+                }
+                size++;
+                submitted.incrementAndGet();
+                notEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // 从优先级最低的非空可削减队列里挤出最旧的一条，调用方需持有锁
+        private boolean evictBelow(MqttMessageClass messageClass) {
+            for (int i = CLASSES.length - 1; i > messageClass.ordinal(); i--) {
+                if (!CLASSES[i].isSheddable() || queues[i].isEmpty()) {
+                    continue;
+                }
+                Task victim = queues[i].pollFirst();
+                pendingByKey.get(CLASSES[i]).remove(victim.key, victim);
+                size--;
+                evicted.incrementAndGet(i);
+                return true;
+            }
+            return false;
+        }
+
+        // 按优先级取出下一条消息，超时返回 null
+        private Runnable poll(long timeoutMillis) throws InterruptedException {
+            lock.lock();
+            try {
+                long nanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+                while (size == 0) {
+                    if (nanos <= 0) {
+                        return null;
+                    }
+                    nanos = notEmpty.awaitNanos(nanos);
+                }
+                for (int i = 0; i < queues.length; i++) {
+                    Task task = queues[i].pollFirst();
+                    if (task == null) {
+                        continue;
+                    }
+                    if (CLASSES[i].isSheddable()) {
+                        pendingByKey.get(CLASSES[i]).remove(task.key, task);
+                    }
+                    size--;
+                    notFull.signal();
+                    return task.runnable;
+                }
+                return null;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int depth() {
+            lock.lock();
+            try {
+                return size;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void run() {
+            // 关闭后继续把队列中剩余的消息处理完再退出
+            while (true) {
+                Runnable task;
+                try {
+                    task = poll(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (task == null) {
+                    if (!running) {
+                        return;
+                    }
+                    continue;
+                }
+                long start = System.nanoTime();
+                currentTaskStart = start;
+                try {
+                    task.run();
+                    processed.incrementAndGet();
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    System.err.println("MQTT 通道 " + index + " 处理消息失败：" + e.getMessage());
+                } finally {
+                    currentTaskStart = 0;
+                    busyNanos.addAndGet(System.nanoTime() - start);
+                }
+            }
+        }
+    }
+
+    /**
+     * 通道统计信息
+     */
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class LaneStats {
+        private int lane;
+        private int queueDepth;
+        private int queueCapacity;
+        private double utilisation;
+        private long submitted;
+        private long processed;
+        private long failed;
+        private long blockedOffers;
+    }
+
+    /**
+     * 按消息类别的削减统计
+     */
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class SheddingStats {
+        private String messageClass;
+        private boolean sheddable;
+        private long received;
+        private long collapsed; // 被同一台售货机的新消息合并
+        private long dropped;   // 队列满时直接丢弃
+        private long evicted;   // 被更高优先级的消息挤出队列
+    }
+}
@@ -0,0 +1,396 @@
+package com.rem.vendingmachine.mqtt;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rem.vendingmachine.dao.MqttOrderClaimMapper;
+import com.rem.vendingmachine.model.MqttOrderClaim;
+import com.rem.vendingmachine.model.MqttOrderPayload;
+import com.rem.vendingmachine.model.MqttOutboxMessage;
+import com.rem.vendingmachine.model.Order;
+import com.rem.vendingmachine.model.OrderLine;
+import com.rem.vendingmachine.service.OrderIdGenerator;
+import com.rem.vendingmachine.service.OrderPlacementEngine;
+import com.rem.vendingmachine.service.SlotStockService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MQTT 订单组提交器
+ * 把短时间内到达的订单攒成一批，在同一个数据库事务里提交：
+ * 先按顺序一次锁住整批涉及的所有货道和余额行（和 REST 下单的加锁顺序一致，不会交叉死锁），再逐个校验库存、扣减余额，
+ * 库存或余额不足的订单没有任何写入，直接从本批中剔除，不需要保存点；
+ * SQL 执行出错（死锁、锁等待超时等）或有订单的认领已被其他节点接管时整批回滚，然后逐个订单单独提交，只有出问题的订单失败；
+ * 成功的订单用一条 INSERT 写入 order_table、一条 INSERT 写入 order_item，一次性记录认领表中的真实订单 ID，
+ * 并把给售货机的处理结果消息写进发件箱，由 {@link MqttOutboxRelay} 在提交后发布。
+ * 攒批窗口由最大等待时间和最大批量共同决定，先到者为准。
+ */
+@Component
+public class MqttOrderCommitter {
+
+    // 最近多少个订单参与延迟分位数统计
+    private static final int LATENCY_SAMPLES = 4096;
+
+    @Autowired
+    private OrderPlacementEngine orderPlacementEngine;
+
+    @Autowired
+    private MqttOrderClaimMapper mqttOrderClaimMapper;
+
+    @Autowired
+    private OrderIdGenerator orderIdGenerator;
+
+    @Autowired
+    private MqttOutboxRelay outboxRelay;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    // 第一个订单到达后最多再等多久凑批
+    @Value("${mqtt.order.batch.max-wait-ms:10}")
+    private long maxWaitMs;
+
+    // 单批最多包含的订单数
+    @Value("${mqtt.order.batch.max-size:50}")
+    private int maxBatchSize;
+
+    // 等待提交的订单队列容量，满了会阻塞处理通道
+    @Value("${mqtt.order.batch.queue-capacity:10000}")
+    private int queueCapacity;
+
+    private BlockingQueue<PendingOrder> queue;
+    private TransactionTemplate batchTransaction;
+    private Thread committerThread;
+    private volatile boolean running;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong committed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    // 延迟采样（环形）和吞吐量窗口，只在 synchronized 方法中读写
+    private final long[] latencyNanos = new long[LATENCY_SAMPLES];
+    private long latencyCount;
+    private long lastSampleTime = System.nanoTime();
+    private long lastSampleCommitted;
+
+    @PostConstruct
+    public void start() {
+        queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        batchTransaction = new TransactionTemplate(transactionManager);
+
+        running = true;
+        committerThread = new Thread(this::run, "mqtt-order-committer");
+        committerThread.setDaemon(true);
+        committerThread.start();
+        System.out.println("MQTT 订单组提交器已启动，最大等待: " + maxWaitMs + "ms, 最大批量: " + maxBatchSize);
+    }
+
+    /**
+     * 提交一个已认领的 MQTT 订单，订单 ID 在入队前就已分配；future 在所在批次提交（或该订单失败）后完成
+     *
+     * @param machineId  售货机 ID
+     * @param claimOwner 认领该订单的节点，提交时只有认领仍属于它才写入订单
+     * @param payload    售货机上报的订单消息（原始订单号、用户 ID 等）
+     * @param lines      购买的商品
+     */
+    public CompletableFuture<Order> submit(int machineId, String claimOwner, MqttOrderPayload payload, List<OrderLine> lines) {
+        Order order = new Order();
+        order.setId(orderIdGenerator.nextId());
+        order.setUserId(payload.getUserId());
+        order.setMachineId(machineId);
+        PendingOrder pending = new PendingOrder(machineId, claimOwner, payload, order, lines, System.nanoTime());
+        if (!running) {
+            pending.future.completeExceptionally(new RuntimeException("订单组提交器已关闭"));
+            return pending.future;
+        }
+        try {
+            queue.put(pending);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pending.future.completeExceptionally(e);
+        }
+        return pending.future;
+    }
+
+    private void run() {
+        // 关闭后继续把队列中剩余的订单提交完再退出
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingOrder first = queue.poll(200, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                List<PendingOrder> batch = new ArrayList<>();
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingOrder next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                commitBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                System.err.println("MQTT 订单组提交器异常：" + e.getMessage());
+            }
+        }
+    }
+
+    private void commitBatch(List<PendingOrder> batch) {
+        List<PendingOrder> succeeded = new ArrayList<>(batch.size());
+        try {
+            succeeded.addAll(commitInTransaction(batch));
+        } catch (RuntimeException e) {
+            if (batch.size() == 1) {
+                System.err.println("MQTT 订单提交失败，错误: " + e.getMessage());
+                batch.get(0).error = e;
+            } else {
+                // 死锁、锁等待超时、连接断开或个别订单的认领已被接管：整批已回滚，逐个订单单独提交，只让出问题的订单失败
+                System.err.println("MQTT 订单批量提交失败，逐个重试，批量: " + batch.size() + ", 错误: " + e.getMessage());
+                for (PendingOrder pending : batch) {
+                    try {
+                        succeeded.addAll(commitInTransaction(List.of(pending)));
+                    } catch (RuntimeException single) {
+                        System.err.println("MQTT 订单提交失败 - 原始订单ID: " + pending.payload.getOrderId() + ", 错误: " + single.getMessage());
+                        pending.error = single;
+                    }
+                }
+            }
+        }
+
+        batches.incrementAndGet();
+        committed.addAndGet(succeeded.size());
+        failed.addAndGet(batch.size() - succeeded.size());
+        long now = System.nanoTime();
+        recordLatencies(batch, now);
+
+        for (PendingOrder pending : batch) {
+            if (pending.error == null) {
+                pending.future.complete(pending.order);
+            } else {
+                pending.future.completeExceptionally(pending.error);
+            }
+        }
+    }
+
+    /**
+     * 在一个事务中提交一批订单，返回成功的订单。先一次锁住整批涉及的货道和余额行，再逐个校验；
+     * 库存或余额不足的订单记下原因后剔除（没有任何写入），SQL 出错或有认领已被接管时抛出异常，整批回滚。
+     */
+    private List<PendingOrder> commitInTransaction(List<PendingOrder> batch) {
+        List<PendingOrder> succeeded = new ArrayList<>(batch.size());
+        batchTransaction.executeWithoutResult(status -> {
+            succeeded.clear();
+            List<Integer> userIds = new ArrayList<>(batch.size());
+            List<OrderLine> lines = new ArrayList<>();
+            for (PendingOrder pending : batch) {
+                pending.error = null;
+                userIds.add(pending.order.getUserId());
+                lines.addAll(pending.lines);
+            }
+            SlotStockService.LockedSlots slots = orderPlacementEngine.lockBatch(userIds, lines);
+
+            for (PendingOrder pending : batch) {
+                try {
+                    orderPlacementEngine.applyOrder(pending.order, pending.lines, slots);
+                    succeeded.add(pending);
+                } catch (DataAccessException e) {
+                    throw e;
+                } catch (RuntimeException e) {
+                    pending.error = e;
+                }
+            }
+            if (succeeded.isEmpty()) {
+                return;
+            }
+            orderPlacementEngine.writeStock(slots);
+            List<Order> orders = new ArrayList<>(succeeded.size());
+            for (PendingOrder pending : succeeded) {
+                orders.add(pending.order);
+            }
+            orderPlacementEngine.insertOrders(orders);
+
+            List<MqttOrderClaim> claims = new ArrayList<>(succeeded.size());
+            for (PendingOrder pending : succeeded) {
+                claims.add(new MqttOrderClaim(pending.machineId, pending.payload.getOrderId(), pending.order.getId(), pending.claimOwner));
+            }
+            // 认领租约过期后被其他节点接管的订单会由接管方创建，这里整批回滚（之后逐个重试时只有被接管的订单失败），避免同一订单创建两次
+            int updated = mqttOrderClaimMapper.batchUpdateRealOrderId(claims);
+            if (updated != claims.size()) {
+                throw new RuntimeException("部分订单的认领已被其他节点接管，预期 " + claims.size() + " 条，实际 " + updated + " 条");
+            }
+
+            // 处理结果消息和订单在同一个事务中写入发件箱，提交后才会发布
+            List<MqttOutboxMessage> messages = new ArrayList<>(succeeded.size());
+            for (PendingOrder pending : succeeded) {
+                messages.add(processedOrderMessage(pending.payload, pending.order.getId()));
+            }
+            outboxRelay.enqueue(messages);
+        });
+        return succeeded;
+    }
+
+    /**
+     * 构造包含真实ID的订单消息，发布到 vendingmachine/order/processed/{realOrderId}
+     */
+    public MqttOutboxMessage processedOrderMessage(MqttOrderPayload order, long realOrderId) {
+        Map<String, Object> newPayload = new HashMap<>();
+        newPayload.put("orderId", String.valueOf(realOrderId)); // 使用真实ID
+        newPayload.put("userId", order.getUserId());
+        newPayload.put("machineId", order.getMachineId());
+        newPayload.put("totalPrice", order.getTotalPrice());
+        newPayload.put("items", order.getItems() != null ? order.getItems() : new ArrayList<>());
+        newPayload.put("realOrderId", realOrderId);
+        newPayload.put("originalOrderId", order.getOrderId());
+        newPayload.put("timestamp", System.currentTimeMillis());
+
+        String topic = "vendingmachine/order/processed/" + realOrderId;
+        try {
+            return new MqttOutboxMessage(topic, objectMapper.writeValueAsString(newPayload), 1);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("构造处理后的订单消息失败 - 主题: " + topic, e);
+        }
+    }
+
+    /**
+     * 构造订单处理失败的消息，发布到 vendingmachine/order/failed/{originalOrderId}，告诉售货机该订单没有创建
+     */
+    public MqttOutboxMessage failedOrderMessage(MqttOrderPayload order, String reason) {
+        Map<String, Object> newPayload = new HashMap<>();
+        newPayload.put("originalOrderId", order.getOrderId());
+        newPayload.put("userId", order.getUserId());
+        newPayload.put("machineId", order.getMachineId());
+        newPayload.put("reason", reason);
+        newPayload.put("timestamp", System.currentTimeMillis());
+
+        String topic = "vendingmachine/order/failed/" + order.getOrderId();
+        try {
+            return new MqttOutboxMessage(topic, objectMapper.writeValueAsString(newPayload), 1);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("构造订单失败消息失败 - 主题: " + topic, e);
+        }
+    }
+
+    private synchronized void recordLatencies(List<PendingOrder> batch, long now) {
+        for (PendingOrder pending : batch) {
+            latencyNanos[(int) (latencyCount++ % LATENCY_SAMPLES)] = now - pending.enqueuedAt;
+        }
+    }
+
+    /**
+     * 获取组提交统计：批次数、成功/失败订单数、平均批量、吞吐量和最近订单的延迟分位数
+     * 吞吐量按两次调用之间的时间窗口计算（首次调用为启动至今）
+     */
+    public synchronized CommitterStats getStats() {
+        long now = System.nanoTime();
+        long committedNow = committed.get();
+        long window = now - lastSampleTime;
+        double throughput = window > 0 ? (committedNow - lastSampleCommitted) * 1_000_000_000.0 / window : 0.0;
+        lastSampleTime = now;
+        lastSampleCommitted = committedNow;
+
+        int samples = (int) Math.min(latencyCount, LATENCY_SAMPLES);
+        long[] sorted = Arrays.copyOf(latencyNanos, samples);
+        Arrays.sort(sorted);
+        long batchCount = batches.get();
+
+        return new CommitterStats(
+                maxWaitMs,
+                maxBatchSize,
+                queue.size(),
+                batchCount,
+                committedNow,
+                failed.get(),
+                batchCount > 0 ? (double) (committedNow + failed.get()) / batchCount : 0.0,
+                throughput,
+                percentileMillis(sorted, 0.50),
+                percentileMillis(sorted, 0.99));
+    }
+
+    private double percentileMillis(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0.0;
+        }
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / 1_000_000.0;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        try {
+            committerThread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.out.println("MQTT 订单组提交器已关闭");
+    }
+
+    /**
+     * 等待提交的订单
+     */
+    private static class PendingOrder {
+        private final int machineId;
+        private final String claimOwner;
+        private final MqttOrderPayload payload;
+        private final Order order;
+        private final List<OrderLine> lines;
+        private final long enqueuedAt;
+        private final CompletableFuture<Order> future = new CompletableFuture<>();
+        private RuntimeException error; // 只在提交线程中读写
+
+        PendingOrder(int machineId, String claimOwner, MqttOrderPayload payload, Order order, List<OrderLine> lines, long enqueuedAt) {
+            this.machineId = machineId;
+            this.claimOwner = claimOwner;
+            this.payload = payload;
+            this.order = order;
+            this.lines = lines;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    /**
+     * 组提交统计信息
+     */
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class CommitterStats {
+        private long maxWaitMs;
+        private int maxBatchSize;
+        private int queueDepth;
+        private long batches;
+        private long committed;
+        private long failed;
+        private double averageBatchSize;
+        private double throughputPerSecond;
+        private double p50LatencyMs;
+        private double p99LatencyMs;
+    }
+}
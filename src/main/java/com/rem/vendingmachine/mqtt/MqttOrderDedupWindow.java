@@ -0,0 +1,68 @@
+package com.rem.vendingmachine.mqtt;
+
+import com.rem.vendingmachine.dao.MqttOrderClaimMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * MQTT 订单去重窗口
+ * 以 售货机 ID + 售货机端原始订单号 为键，记录已经处理完成的订单对应的真实订单 ID。
+ * 内存中只保留最近的若干条（LRU），重投的消息绝大多数都能直接命中；
+ * 窗口外的订单再查 mqtt_order_claim 表，表上的唯一键保证无论窗口多大都不会重复下单。
+ */
+@Component
+public class MqttOrderDedupWindow {
+
+    @Autowired
+    private MqttOrderClaimMapper mqttOrderClaimMapper;
+
+    private final Map<String, Long> window;
+
+    public MqttOrderDedupWindow(@Value("${mqtt.order.dedup-window:10000}") int capacity) {
+        int maxSize = Math.max(1, capacity);
+        this.window = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * 只查内存窗口，未命中返回 null
+     */
+    public synchronized Long peek(int machineId, String originalOrderId) {
+        return window.get(key(machineId, originalOrderId));
+    }
+
+    /**
+     * 先查内存窗口，未命中再查数据库；订单尚未处理完成（或不存在）时返回 null
+     */
+    public Long find(int machineId, String originalOrderId) {
+        Long realOrderId = peek(machineId, originalOrderId);
+        if (realOrderId != null) {
+            return realOrderId;
+        }
+        realOrderId = mqttOrderClaimMapper.selectRealOrderId(machineId, originalOrderId);
+        if (realOrderId != null) {
+            remember(machineId, originalOrderId, realOrderId);
+        }
+        return realOrderId;
+    }
+
+    public synchronized void remember(int machineId, String originalOrderId, long realOrderId) {
+        window.put(key(machineId, originalOrderId), realOrderId);
+    }
+
+    public synchronized int size() {
+        return window.size();
+    }
+
+    private String key(int machineId, String originalOrderId) {
+        return machineId + ":" + originalOrderId;
+    }
+}
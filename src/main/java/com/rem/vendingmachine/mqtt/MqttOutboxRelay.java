@@ -0,0 +1,246 @@
+package com.rem.vendingmachine.mqtt;
+
+import com.rem.vendingmachine.dao.MqttOutboxMapper;
+import com.rem.vendingmachine.model.MqttOutboxMessage;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MQTT 发件箱中继
+ * 业务代码在自己的事务里把要发布的消息写进 mqtt_outbox（{@link #enqueue}），事务提交后唤醒中继线程；
+ * 中继线程按批取出到期的消息（FOR UPDATE SKIP LOCKED，多个节点可以同时中继），通过 MqttPublisherService 并发发布，
+ * Broker 确认后删除，失败的按指数退避稍后重试。消息至少发布一次，订单处理不再等待 Broker。
+ */
+@Component
+public class MqttOutboxRelay {
+
+    @Autowired
+    private MqttOutboxMapper mqttOutboxMapper;
+
+    @Autowired
+    private MqttPublisherService mqttPublisherService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    // 每批最多发布的消息数
+    @Value("${mqtt.outbox.batch-size:100}")
+    private int batchSize;
+
+    // 没有消息时的轮询间隔（有新消息提交时会被立即唤醒）
+    @Value("${mqtt.outbox.poll-interval-ms:1000}")
+    private long pollIntervalMs;
+
+    // 等待一批消息被 Broker 确认的最长时间，超时的按失败处理
+    @Value("${mqtt.outbox.publish-timeout-ms:5000}")
+    private long publishTimeoutMs;
+
+    // 第一次失败后的退避时间，之后每次翻倍
+    @Value("${mqtt.outbox.backoff-base-ms:500}")
+    private long backoffBaseMs;
+
+    // 退避时间上限
+    @Value("${mqtt.outbox.backoff-max-ms:60000}")
+    private long backoffMaxMs;
+
+    private TransactionTemplate relayTransaction;
+    private Thread relayThread;
+    private volatile boolean running;
+
+    // 唤醒信号，只在 synchronized (signal) 中读写
+    private final Object signal = new Object();
+    private boolean wakeRequested;
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong failedAttempts = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong totalDeliveryLagMs = new AtomicLong();
+    private final AtomicLong maxDeliveryLagMs = new AtomicLong();
+    private volatile long lastDeliveryLagMs;
+
+    @PostConstruct
+    public void start() {
+        relayTransaction = new TransactionTemplate(transactionManager);
+        running = true;
+        relayThread = new Thread(this::run, "mqtt-outbox-relay");
+        relayThread.setDaemon(true);
+        relayThread.start();
+        System.out.println("MQTT 发件箱中继已启动，批量: " + batchSize + ", 轮询间隔: " + pollIntervalMs + "ms");
+    }
+
+    /**
+     * 写入待发布的消息，和调用方的事务一起提交；提交后（不在事务中时为立即）唤醒中继线程
+     */
+    public void enqueue(List<MqttOutboxMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        mqttOutboxMapper.batchInsert(messages);
+        enqueued.addAndGet(messages.size());
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    wakeUp();
+                }
+            });
+        } else {
+            wakeUp();
+        }
+    }
+
+    private void wakeUp() {
+        synchronized (signal) {
+            wakeRequested = true;
+            signal.notifyAll();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            int relayed;
+            try {
+                relayed = relayBatch();
+            } catch (Exception e) {
+                System.err.println("MQTT 发件箱中继异常：" + e.getMessage());
+                relayed = 0;
+            }
+            // 一批取满说明还有积压，立即继续；否则等待唤醒或轮询间隔
+            if (relayed < batchSize) {
+                try {
+                    synchronized (signal) {
+                        if (!wakeRequested && running) {
+                            signal.wait(pollIntervalMs);
+                        }
+                        wakeRequested = false;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 发布一批到期的消息，返回取出的条数
+     */
+    private int relayBatch() {
+        Integer relayed = relayTransaction.execute(status -> {
+            List<MqttOutboxMessage> due = mqttOutboxMapper.selectDueForUpdate(Math.max(1, batchSize));
+            if (due.isEmpty()) {
+                return 0;
+            }
+
+            // 整批并发发布，再统一等待确认
+            long startNanos = System.nanoTime();
+            List<CompletableFuture<Void>> futures = new ArrayList<>(due.size());
+            for (MqttOutboxMessage message : due) {
+                futures.add(mqttPublisherService.publishAsync(message.getTopic(), message.getPayload(), message.getQos()));
+            }
+
+            List<Long> sent = new ArrayList<>(due.size());
+            List<Long> failed = new ArrayList<>();
+            long deadline = startNanos + TimeUnit.MILLISECONDS.toNanos(publishTimeoutMs);
+            for (int i = 0; i < due.size(); i++) {
+                MqttOutboxMessage message = due.get(i);
+                try {
+                    futures.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    sent.add(message.getId());
+                    recordDeliveryLag(message.getAgeMs() + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failed.add(message.getId());
+                } catch (Exception e) {
+                    System.err.println("发件箱消息发布失败 - 主题: " + message.getTopic()
+                            + ", 第 " + (message.getAttempts() + 1) + " 次, 错误: " + e.getMessage());
+                    failed.add(message.getId());
+                }
+            }
+
+            if (!sent.isEmpty()) {
+                mqttOutboxMapper.deleteByIds(sent);
+            }
+            if (!failed.isEmpty()) {
+                mqttOutboxMapper.rescheduleByIds(failed, backoffBaseMs, backoffMaxMs);
+            }
+            batches.incrementAndGet();
+            published.addAndGet(sent.size());
+            failedAttempts.addAndGet(failed.size());
+            return due.size();
+        });
+        return relayed != null ? relayed : 0;
+    }
+
+    private void recordDeliveryLag(long lagMs) {
+        lastDeliveryLagMs = lagMs;
+        totalDeliveryLagMs.addAndGet(lagMs);
+        maxDeliveryLagMs.accumulateAndGet(lagMs, Math::max);
+    }
+
+    /**
+     * 获取发件箱统计：写入、发布成功、发布失败次数，当前积压和最早一条的等待时间，以及从写入到 Broker 确认的延迟
+     */
+    public OutboxStats getStats() {
+        Map<String, Object> backlog = mqttOutboxMapper.selectBacklog();
+        long publishedCount = published.get();
+        return new OutboxStats(
+                enqueued.get(),
+                publishedCount,
+                failedAttempts.get(),
+                batches.get(),
+                ((Number) backlog.get("pending")).longValue(),
+                ((Number) backlog.get("oldestAgeMs")).longValue(),
+                lastDeliveryLagMs,
+                publishedCount > 0 ? (double) totalDeliveryLagMs.get() / publishedCount : 0.0,
+                maxDeliveryLagMs.get());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        wakeUp();
+        try {
+            relayThread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        System.out.println("MQTT 发件箱中继已关闭");
+    }
+
+    /**
+     * 发件箱统计信息
+     */
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class OutboxStats {
+        private long enqueued;              // 本节点写入的消息数
+        private long published;             // 本节点发布成功的消息数
+        private long failedAttempts;        // 本节点发布失败（将重试）的次数
+        private long batches;               // 本节点中继的批次数
+        private long pending;               // 发件箱中待发布的消息数（所有节点）
+        private long oldestPendingAgeMs;    // 最早一条待发布消息已等待的毫秒数
+        private long lastDeliveryLagMs;     // 最近一条消息从写入到 Broker 确认的毫秒数
+        private double averageDeliveryLagMs;
+        private long maxDeliveryLagMs;
+    }
+}
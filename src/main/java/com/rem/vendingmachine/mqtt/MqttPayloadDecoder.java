@@ -0,0 +1,92 @@
+package com.rem.vendingmachine.mqtt;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.rem.vendingmachine.model.MqttInventoryRequestPayload;
+import com.rem.vendingmachine.model.MqttOrderPayload;
+import com.rem.vendingmachine.model.MqttStatePayload;
+
+import java.io.IOException;
+
+/**
+ * MQTT 载荷解码器
+ * 直接从 byte[] 解码为类型化对象，不先转成 String，也不构建 JsonNode 树。
+ * 订单、库存请求用可复用的 ObjectReader；高频的状态上报用流式解析器逐字段读取。
+ * ObjectReader 和 JsonFactory 都是线程安全的，可以被多个处理通道共用。
+ */
+public class MqttPayloadDecoder {
+
+    private final JsonFactory jsonFactory;
+    private final ObjectReader orderReader;
+    private final ObjectReader inventoryRequestReader;
+
+    public MqttPayloadDecoder(ObjectMapper objectMapper) {
+        this.jsonFactory = objectMapper.getFactory();
+        this.orderReader = objectMapper.readerFor(MqttOrderPayload.class)
+                .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        this.inventoryRequestReader = objectMapper.readerFor(MqttInventoryRequestPayload.class)
+                .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    }
+
+    public MqttOrderPayload decodeOrder(byte[] payload) throws IOException {
+        MqttOrderPayload order = orderReader.readValue(payload);
+        if (order.getOrderId() == null || order.getMachineId() == null) {
+            throw new IOException("订单消息缺少 orderId 或 machineId");
+        }
+        return order;
+    }
+
+    public MqttInventoryRequestPayload decodeInventoryRequest(byte[] payload) throws IOException {
+        MqttInventoryRequestPayload request = inventoryRequestReader.readValue(payload);
+        if (request.getMachineId() == null) {
+            throw new IOException("库存请求消息缺少 machineId");
+        }
+        return request;
+    }
+
+    /**
+     * 流式解析状态上报，只读取需要的四个字段
+     */
+    public MqttStatePayload decodeState(byte[] payload) throws IOException {
+        MqttStatePayload state = new MqttStatePayload();
+        boolean hasTemperature = false;
+        boolean hasStatus = false;
+        try (JsonParser parser = jsonFactory.createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("状态消息不是 JSON 对象");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "machineId":
+                        state.setMachineId(parser.getValueAsString());
+                        break;
+                    case "temperature":
+                        state.setTemperature(parser.getValueAsDouble());
+                        hasTemperature = true;
+                        break;
+                    case "status":
+                        state.setStatus(parser.getValueAsInt());
+                        hasStatus = true;
+                        break;
+                    case "alerts":
+                        if (value != JsonToken.VALUE_NULL) {
+                            state.setAlerts(parser.getValueAsString());
+                        }
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+        }
+        if (state.getMachineId() == null || !hasTemperature || !hasStatus) {
+            throw new IOException("状态消息缺少 machineId、temperature 或 status");
+        }
+        return state;
+    }
+}
@@ -1,17 +1,26 @@
 package com.rem.vendingmachine.mqtt;
 
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
 import org.eclipse.paho.client.mqttv3.MqttClient;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
 @Service
 public class MqttPublisherService {
 
     @Autowired
     private MqttClient mqttClient; // 注入配置的服务端 MQTT 客户端
 
+    @Autowired(required = false)
+    private MqttAsyncClient mqttPublishClient; // 异步发布客户端，开启 mqtt.publisher.async 时才存在
+
     /**
      * 基于指定主题发布消息（自定义 QoS）
      *
@@ -24,6 +33,18 @@ public class MqttPublisherService {
         System.out.println("开始发布MQTT消息 - 内容: " + payload);
         System.out.println("开始发布MQTT消息 - QoS: " + qos);
 
+        if (mqttPublishClient != null) {
+            // 异步客户端发布后用 CompletableFuture 等待，虚拟线程在这里挂起而不会钉住载体线程
+            try {
+                publishAsync(topic, payload, qos).join();
+                System.out.println("消息发布成功 - 主题: " + topic + ", 内容: " + payload);
+            } catch (CompletionException e) {
+                System.err.println("消息发布失败 - 主题: " + topic + ", 错误: " + e.getCause().getMessage());
+                throw new RuntimeException("MQTT 消息发布失败", e.getCause());
+            }
+            return;
+        }
+
         try {
             // 将消息内容封装为 MQTT 消息对象
             MqttMessage message = new MqttMessage(payload.getBytes());
@@ -52,4 +73,44 @@ public class MqttPublisherService {
     public void publish(String topic, String payload) {
         publish(topic, payload, 1); // 调用主方法，默认 QoS 为 1（至少一次传送）
     }
+
+    /**
+     * 非阻塞发布消息，Broker 确认后 future 完成
+     * 开启异步发布客户端时直接走 MqttAsyncClient；否则在调用线程上同步发布，返回已完成的 future
+     * （不放到公共 ForkJoinPool 上执行，避免发件箱中继一次发布一批消息时占满公共线程池）
+     *
+     * @param topic   发布的主题
+     * @param payload 消息内容
+     * @param qos     服务质量等级（0, 1, 2）
+     */
+    public CompletableFuture<Void> publishAsync(String topic, String payload, int qos) {
+        if (mqttPublishClient == null) {
+            try {
+                publish(topic, payload, qos);
+                return CompletableFuture.completedFuture(null);
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            MqttMessage message = new MqttMessage(payload.getBytes());
+            message.setQos(qos);
+            mqttPublishClient.publish(topic, message, null, new IMqttActionListener() {
+                @Override
+                public void onSuccess(IMqttToken asyncActionToken) {
+                    future.complete(null);
+                }
+
+                @Override
+                public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+                    future.completeExceptionally(exception);
+                }
+            });
+        } catch (MqttException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
 }
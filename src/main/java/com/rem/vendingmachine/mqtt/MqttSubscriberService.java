@@ -1,13 +1,12 @@
 package com.rem.vendingmachine.mqtt;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.rem.vendingmachine.dao.OrderItemMapper;
-import com.rem.vendingmachine.dao.OrderMapper;
-import com.rem.vendingmachine.dao.UserMapper;
-import com.rem.vendingmachine.dao.VendingMachineProductMapper;
-import com.rem.vendingmachine.model.Order;
-import com.rem.vendingmachine.model.OrderItem;
+import com.rem.vendingmachine.dao.MqttOrderClaimMapper;
+import com.rem.vendingmachine.model.MqttOrderPayload;
+import com.rem.vendingmachine.model.MqttStatePayload;
+import com.rem.vendingmachine.model.OrderLine;
 import com.rem.vendingmachine.model.VendingMachine;
 import com.rem.vendingmachine.model.VendingMachineProduct;
 import com.rem.vendingmachine.service.OrderService;
@@ -16,15 +15,22 @@ import com.rem.vendingmachine.service.VendingMachineService;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
 import org.eclipse.paho.client.mqttv3.MqttClient;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.stream.Collectors;
 
 @Service
@@ -46,22 +52,40 @@ public class MqttSubscriberService {
     private  MqttPublisherService mqttPublisherService;
 
     @Autowired
-    private UserMapper userMapper;
+    private MqttMessageDispatcher mqttMessageDispatcher;
 
     @Autowired
-    private VendingMachineProductMapper vendingMachineProductMapper;
+    private MqttOrderCommitter orderCommitter; // 订单组提交器
 
     @Autowired
-    private OrderMapper orderMapper;
+    private MqttOrderClaimMapper mqttOrderClaimMapper;
 
     @Autowired
-    private OrderItemMapper orderItemMapper;
+    private MqttOrderDedupWindow orderDedupWindow; // 售货机 ID + 原始订单号 -> 真实订单 ID
+
+    @Autowired
+    private MqttOutboxRelay outboxRelay; // 处理结果消息经发件箱发布
+
+    // 集群模式：以共享订阅的方式订阅主题，同一条消息只投递给组内的一个节点
+    @Value("${mqtt.cluster.enabled:false}")
+    private boolean clusterEnabled;
+
+    @Value("${mqtt.cluster.group:vending-backend}")
+    private String shareGroup;
+
+    // 订单认领租约：认领后超过该秒数仍未完成（节点宕机或卡住）时，重投的订单可以被其他节点接管
+    @Value("${mqtt.order.claim-lease-seconds:120}")
+    private int claimLeaseSeconds;
+
+    // 已订阅的主题过滤器，断线重连后重新订阅
+    private final Set<String> subscribedFilters = new CopyOnWriteArraySet<>();
 
     private ObjectMapper objectMapper = new ObjectMapper();
 
+    private final MqttPayloadDecoder payloadDecoder = new MqttPayloadDecoder(objectMapper);
+
     private final Map<String, DeviceSnapshot> deviceSnapshots = new ConcurrentHashMap<>();
 
-    private final Map<String, Integer> mqttToDbOrderMapping = new ConcurrentHashMap<>();
 
     // 内部类，用于存储设备快照数据
     @Data
@@ -88,15 +112,62 @@ public class MqttSubscriberService {
         }
     }
 
-    // 内存中的 MQTT 消息存储
-    private final Map<String, List<MqttLog>> messageLogs = new ConcurrentHashMap<>();
+    // 各类消息日志的保留条数
+    @Value("${mqtt.log.capacity.heartbeat:1024}")
+    private int heartbeatLogCapacity;
 
-    // 构造函数初始化存储结构
-    public MqttSubscriberService() {
-        messageLogs.put("heartbeat", new ArrayList<>());
-        messageLogs.put("state", new ArrayList<>());
-        messageLogs.put("order", new ArrayList<>());
-        messageLogs.put("processed_order", new ArrayList<>()); // 添加处理后的订单主题
+    @Value("${mqtt.log.capacity.state:1024}")
+    private int stateLogCapacity;
+
+    @Value("${mqtt.log.capacity.order:4096}")
+    private int orderLogCapacity;
+
+    @Value("${mqtt.log.capacity.processed-order:4096}")
+    private int processedOrderLogCapacity;
+
+    // 内存中的 MQTT 消息存储：每类消息一个固定容量的环形缓冲区
+    private final Map<String, MqttLogRingBuffer> messageLogs = new ConcurrentHashMap<>();
+
+    // 初始化存储结构和客户端回调
+    @PostConstruct
+    public void init() {
+        messageLogs.put("heartbeat", new MqttLogRingBuffer(heartbeatLogCapacity));
+        messageLogs.put("state", new MqttLogRingBuffer(stateLogCapacity));
+        messageLogs.put("order", new MqttLogRingBuffer(orderLogCapacity));
+        messageLogs.put("processed_order", new MqttLogRingBuffer(processedOrderLogCapacity)); // 添加处理后的订单主题
+        registerCallback();
+    }
+
+    /**
+     * 所有订阅的消息都走客户端的全局回调：
+     * 共享订阅的过滤器（$share/组名/主题）无法与实际主题做通配匹配，按主题注册的监听器收不到消息
+     */
+    private void registerCallback() {
+        mqttClient.setCallback(new MqttCallbackExtended() {
+            @Override
+            public void connectComplete(boolean reconnect, String serverURI) {
+                if (reconnect) {
+                    // cleanSession 为 true，重连后 Broker 上的订阅已经丢失；不在回调线程里阻塞等待订阅结果
+                    CompletableFuture.runAsync(MqttSubscriberService.this::resubscribe);
+                }
+            }
+
+            @Override
+            public void connectionLost(Throwable cause) {
+                System.err.println("MQTT 连接断开：" + cause.getMessage());
+            }
+
+            @Override
+            public void messageArrived(String topic, MqttMessage message) {
+                // 回调线程只负责投递，实际处理放到按售货机划分的工作通道上执行
+                mqttMessageDispatcher.dispatch(resolveLaneKey(topic, message),
+                        MqttMessageClass.of(topic), () -> handleMessage(topic, message));
+            }
+
+            @Override
+            public void deliveryComplete(IMqttDeliveryToken token) {
+            }
+        });
     }
 
 
@@ -106,14 +177,71 @@ public class MqttSubscriberService {
      * @param topic 待订阅的主题
      */
     public void subscribe(String topic) {
+        String filter = clusterEnabled ? "$share/" + shareGroup + "/" + topic : topic;
         try {
-            mqttClient.subscribe(topic, (receivedTopic, message) -> handleMessage(receivedTopic, message));
-            System.out.println("成功订阅主题：" + topic);
+            mqttClient.subscribe(filter, 1);
+            subscribedFilters.add(filter);
+            System.out.println("成功订阅主题：" + filter);
         } catch (Exception e) {
-            System.err.println("订阅主题失败：" + topic + "，错误：" + e.getMessage());
+            System.err.println("订阅主题失败：" + filter + "，错误：" + e.getMessage());
+        }
+    }
+
+    // 断线重连后重新订阅之前的所有主题
+    private void resubscribe() {
+        for (String filter : subscribedFilters) {
+            try {
+                mqttClient.subscribe(filter, 1);
+                System.out.println("重连后重新订阅主题：" + filter);
+            } catch (Exception e) {
+                System.err.println("重连后重新订阅主题失败：" + filter + "，错误：" + e.getMessage());
+            }
         }
     }
 
+    /**
+     * 计算消息所属的通道键（售货机 ID），同一台售货机的消息会按顺序处理
+     * 心跳、状态、库存请求的主题中带有售货机 ID；原始订单主题中是订单号，需要从 payload 中取 machineId；
+     * 处理后的订单和订单失败消息只写日志，不需要按售货机排序，按主题中的订单号分散到各个通道，避免全部挤在一个通道上
+     */
+    private String resolveLaneKey(String topic, MqttMessage message) {
+        String[] topicParts = topic.split("/");
+        if (topic.startsWith("vendingmachine/order/processed/") || topic.startsWith("vendingmachine/order/failed/")) {
+            return topicParts.length > 3 ? "order:" + topicParts[3] : topic;
+        }
+        if (topic.startsWith("vendingmachine/order/")) {
+            String machineId = scanMachineId(message.getPayload());
+            return machineId != null ? machineId : topic;
+        }
+        if (topic.startsWith("vendingmachine/inventory/request/") && topicParts.length > 3) {
+            return topicParts[3];
+        }
+        return topicParts.length > 2 ? topicParts[2] : topic;
+    }
+
+    /**
+     * 只扫描顶层的 machineId 字段，不构建整棵 JSON 树，避免在回调线程上做重活
+     */
+    private String scanMachineId(byte[] payload) {
+        try (JsonParser parser = objectMapper.getFactory().createParser(payload)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            JsonToken token;
+            while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                if ("machineId".equals(field)) {
+                    return parser.getValueAsString();
+                }
+                parser.skipChildren();
+            }
+        } catch (Exception e) {
+            System.err.println("解析订单消息的 machineId 失败：" + e.getMessage());
+        }
+        return null;
+    }
+
     /**
      * 处理收到的 MQTT 消息，根据主题分类存储并更新后端状态
      *
@@ -122,10 +250,10 @@ public class MqttSubscriberService {
      */
     private void handleMessage(String topic, MqttMessage message) {
         try {
-            String payload = new String(message.getPayload()); // 解码消息内容
-            System.out.println("收到消息 - 主题: " + topic + ", 内容: " + payload);
+            byte[] payload = message.getPayload(); // 直接使用原始字节，需要时再转字符串
+            System.out.println("收到消息 - 主题: " + topic + ", 长度: " + payload.length);
 
-            // 创建日志对象
+            // 创建日志对象（内容字符串在真正读取日志时才构建）
             MqttLog log = new MqttLog(topic, payload, System.currentTimeMillis());
 
             // 根据主题分类处理
@@ -133,8 +261,8 @@ public class MqttSubscriberService {
                 handleHeartbeat(topic, log);
             } else if (topic.startsWith("vendingmachine/state")) {
                 handleState(topic, payload, log);
-            } else if (topic.startsWith("vendingmachine/order/processed/")) {
-                // 处理包含真实ID的订单消息
+            } else if (topic.startsWith("vendingmachine/order/processed/") || topic.startsWith("vendingmachine/order/failed/")) {
+                // 处理包含真实ID的订单消息（或订单失败消息）
                 handleProcessedOrder(topic, payload, log);
             } else if (topic.startsWith("vendingmachine/order/")) {
                 // 原始订单消息
@@ -152,12 +280,10 @@ public class MqttSubscriberService {
     /**
      * 处理包含真实ID的订单消息
      */
-    private void handleProcessedOrder(String topic, String payload, MqttLog log) {
+    private void handleProcessedOrder(String topic, byte[] payload, MqttLog log) {
         try {
             // 将处理后的订单消息存储到专门的日志中
-            synchronized (messageLogs) {
-                messageLogs.get("processed_order").add(log);
-            }
+            messageLogs.get("processed_order").append(log);
             System.out.println("处理后的订单消息已存储 - 主题: " + topic);
         } catch (Exception e) {
             System.err.println("处理处理后的订单消息失败：" + e.getMessage());
@@ -165,10 +291,9 @@ public class MqttSubscriberService {
     }
 
     // --- 处理库存请求 ---
-    private void handleInventoryRequest(String topic, String payload, MqttLog log) {
+    private void handleInventoryRequest(String topic, byte[] payload, MqttLog log) {
         try {
-            JsonNode rootNode = objectMapper.readTree(payload);
-            String machineId = rootNode.path("machineId").asText();
+            String machineId = payloadDecoder.decodeInventoryRequest(payload).getMachineId();
             System.out.println("收到设备 " + machineId + " 的库存请求。");
 
             // 查询数据库获取该设备的商品和库存
@@ -200,12 +325,17 @@ public class MqttSubscriberService {
             }
             // --- 新增/修改结束 ---
 
-            // 使用 MqttPublisherService 发送响应
-            mqttPublisherService.publish(responseTopic, responsePayload);
-            System.out.println("已向设备 " + machineId + " 发送库存响应。");
+            // 使用 MqttPublisherService 异步发送响应，不占用处理通道等待 Broker 确认
+            mqttPublisherService.publishAsync(responseTopic, responsePayload, 1).whenComplete((ok, error) -> {
+                if (error != null) {
+                    System.err.println("向设备 " + machineId + " 发送库存响应失败: " + error.getMessage());
+                } else {
+                    System.out.println("已向设备 " + machineId + " 发送库存响应。");
+                }
+            });
 
         } catch (Exception e) {
-            System.err.println("处理库存请求失败: " + e.getMessage() + ", Payload: " + payload);
+            System.err.println("处理库存请求失败: " + e.getMessage() + ", Payload: " + log.getPayload());
         }
     }
 
@@ -230,9 +360,7 @@ public class MqttSubscriberService {
             System.out.println("心跳已更新 - 设备ID: " + machineId);
 
             // 存储日志
-            synchronized (messageLogs) {
-                messageLogs.get("heartbeat").add(log);
-            }
+            messageLogs.get("heartbeat").append(log);
         } catch (Exception e) {
             System.err.println("处理心跳消息失败：" + e.getMessage());
         }
@@ -241,13 +369,13 @@ public class MqttSubscriberService {
     /**
      * 处理状态消息
      */
-    private void handleState(String topic, String payload, MqttLog log) {
+    private void handleState(String topic, byte[] payload, MqttLog log) {
         try {
-            JsonNode root = objectMapper.readTree(payload);
-            String machineId = root.get("machineId").asText(); // 从 payload 获取 ID 更安全
-            double temperature = root.get("temperature").asDouble();
-            int status = root.get("status").asInt();
-            String alerts = root.has("alerts") ? root.get("alerts").asText() : "无"; // 获取告警
+            MqttStatePayload state = payloadDecoder.decodeState(payload);
+            String machineId = state.getMachineId(); // 从 payload 获取 ID 更安全
+            double temperature = state.getTemperature();
+            int status = state.getStatus();
+            String alerts = state.getAlerts(); // 获取告警
 
             if (!"无".equals(alerts)) {
                 System.out.println("[后端收到状态] 设备 " + machineId + " 上报告警: " + alerts);
@@ -268,166 +396,131 @@ public class MqttSubscriberService {
             vendingMachineService.updateVendingMachineStatus(Integer.parseInt(machineId), temperature, status);
             System.out.println("状态已更新 - 设备ID: " + machineId + ", 温度: " + temperature + ", 状态: " + status + ", 告警: " + alerts);
 
-            synchronized (messageLogs) {
-                messageLogs.get("state").add(log);
-            }
+            messageLogs.get("state").append(log);
         } catch (Exception e) {
-            System.err.println("处理状态消息失败：" + e.getMessage() + ", Payload: " + payload);
+            System.err.println("处理状态消息失败：" + e.getMessage() + ", Payload: " + log.getPayload());
         }
     }
 
     /**
      * 处理订单消息
      */
-    private void handleOrder(String topic, String payload, MqttLog log) {
+    private void handleOrder(String topic, byte[] payload, MqttLog log) {
         try {
             System.out.println("=== 处理MQTT订单 ===");
             System.out.println("收到订单消息 - 主题: " + topic);
-            System.out.println("收到订单消息 - payload: " + payload);
 
             // 解析 JSON 消息
-            JsonNode root = objectMapper.readTree(payload);
-
-            String originalOrderId = root.get("orderId").asText();
-            int userId = root.get("userId").asInt();
-            String vendingMachineIdStr = root.get("machineId").asText();
-            double totalPrice = root.get("totalPrice").asDouble();
-
-            // 解析商品项目
-            List<Map<String, Object>> items = new ArrayList<>();
-            if (root.has("items") && root.get("items").isArray()) {
-                for (JsonNode itemNode : root.get("items")) {
-                    Map<String, Object> item = new HashMap<>();
-                    item.put("productId", itemNode.get("productId").asInt());
-                    item.put("quantity", itemNode.get("quantity").asInt());
-                    items.add(item);
-                }
-            }
+            MqttOrderPayload order = payloadDecoder.decodeOrder(payload);
+
+            String originalOrderId = order.getOrderId();
+            int userId = order.getUserId();
+            String vendingMachineIdStr = order.getMachineId();
+            double totalPrice = order.getTotalPrice();
+
+            // 商品项目
+            List<MqttOrderPayload.Item> items = order.getItems() != null ? order.getItems() : new ArrayList<>();
 
             int vendingMachineId = Integer.parseInt(vendingMachineIdStr);
 
             System.out.println("解析订单信息 - 原始订单ID: " + originalOrderId + ", 用户ID: " + userId +
                     ", 售货机ID: " + vendingMachineId + ", 总价: " + totalPrice);
 
-            // 处理订单并获取真实ID
-            int realOrderId = processOrderAndGetRealId(userId, vendingMachineId, totalPrice, items);
-
-            if (realOrderId > 0) {
-                // 构造包含真实ID的新消息并重新发布
-                Map<String, Object> newPayload = new HashMap<>();
-                newPayload.put("orderId", String.valueOf(realOrderId)); // 使用真实ID
-                newPayload.put("userId", userId);
-                newPayload.put("machineId", vendingMachineIdStr);
-                newPayload.put("totalPrice", totalPrice);
-                newPayload.put("items", items);
-                newPayload.put("realOrderId", realOrderId);
-                newPayload.put("originalOrderId", originalOrderId);
-                newPayload.put("timestamp", System.currentTimeMillis());
-
-                String finalPayload = objectMapper.writeValueAsString(newPayload);
-                String finalTopic = "vendingmachine/order/processed/" + realOrderId;
-
-                // 重新发布包含真实ID的消息
-                mqttPublisherService.publish(finalTopic, finalPayload);
-                System.out.println("重新发布包含真实ID的订单消息 - 主题: " + finalTopic);
+            // 重投的订单：直接重新发布已有的处理结果，不再扣款、扣库存
+            Long existingOrderId = orderDedupWindow.peek(vendingMachineId, originalOrderId);
+            if (existingOrderId != null) {
+                System.out.println("重复订单消息，重新发布已有结果 - 原始订单ID: " + originalOrderId + ", 真实订单ID: " + existingOrderId);
+                publishProcessedOrder(order, existingOrderId);
+                return;
             }
 
-            System.out.println("订单已完成处理");
+            // 先认领订单：QoS 1 重投或集群中多个节点收到同一订单时，只有认领成功的一方创建订单；
+            // 认领节点宕机留下的未完成认领在租约过期后由收到重投的节点接管
+            String claimOwner = mqttClient.getClientId();
+            if (mqttOrderClaimMapper.claim(vendingMachineId, originalOrderId, claimOwner) == 0
+                    && !takeOverStaleClaim(vendingMachineId, originalOrderId, claimOwner)) {
+                existingOrderId = orderDedupWindow.find(vendingMachineId, originalOrderId);
+                if (existingOrderId != null) {
+                    System.out.println("重复订单消息，重新发布已有结果 - 原始订单ID: " + originalOrderId + ", 真实订单ID: " + existingOrderId);
+                    publishProcessedOrder(order, existingOrderId);
+                } else {
+                    // 另一个节点（或之前的投递）正在处理，由它发布结果
+                    System.out.println("订单正在处理中，忽略重复消息 - 售货机ID: " + vendingMachineId + ", 原始订单ID: " + originalOrderId);
+                }
+                return;
+            }
 
-            // 存储原始日志
-            synchronized (messageLogs) {
-                messageLogs.get("order").add(log);
+            // 交给组提交器，和同一时间窗口内的其他订单在同一个事务中提交；认领表的真实订单ID和处理结果消息（发件箱）也在该事务中写入
+            List<OrderLine> lines = new ArrayList<>(items.size());
+            for (MqttOrderPayload.Item item : items) {
+                lines.add(new OrderLine(vendingMachineId, item.getProductId(), item.getQuantity()));
             }
+            orderCommitter.submit(vendingMachineId, claimOwner, order, lines).whenComplete((created, error) -> {
+                if (error != null) {
+                    System.err.println("【错误】MQTT订单处理失败 - 原始订单ID: " + originalOrderId + ", 原因: " + error.getMessage());
+                    // 消息已被自动确认且 cleanSession 为 true，Broker 不会重投，必须主动告诉售货机订单失败
+                    publishFailedOrder(vendingMachineId, order, claimOwner, error);
+                    return;
+                }
+                long realOrderId = created.getId();
+                System.out.println("【成功】MQTT订单处理完成，真实订单ID: " + realOrderId);
+                if (created.getTotalPrice().compareTo(BigDecimal.valueOf(totalPrice)) != 0) {
+                    System.out.println("【提示】售货机上报金额 " + totalPrice + " 与按当前价格计算的金额 " + created.getTotalPrice() + " 不一致，以后者为准");
+                }
+                // 包含真实ID的消息已随订单写入发件箱，由发件箱中继发布
+                orderDedupWindow.remember(vendingMachineId, originalOrderId, realOrderId);
+            });
+
+            System.out.println("订单已提交处理");
+
+            // 存储原始日志
+            messageLogs.get("order").append(log);
             System.out.println("订单数据已写入日志");
         } catch (Exception e) {
-            System.err.println("处理MQTT订单时出错: " + e.getMessage());
+            // 只在出错时构建 payload 字符串
+            System.err.println("处理MQTT订单时出错: " + e.getMessage() + ", payload: " + log.getPayload());
             e.printStackTrace();
         }
         System.out.println("========================");
     }
 
     /**
-     * 处理订单并返回真实数据库ID
+     * 接管租约已过期的未完成认领，返回 true 表示由本节点重新处理该订单
      */
-    private int processOrderAndGetRealId(int userId, int vendingMachineId, double totalPrice, List<Map<String, Object>> items) {
-        try {
-            // 1. 检查用户余额
-            BigDecimal userBalance = userMapper.getBalanceByUserId(userId);
-            if (userBalance == null) {
-                System.err.println("【错误】用户余额查询失败");
-                return -1;
-            }
-
-            BigDecimal totalAmount = BigDecimal.valueOf(totalPrice);
-            if (userBalance.compareTo(totalAmount) < 0) {
-                System.err.println("【错误】用户余额不足");
-                return -1;
-            }
-
-            // 2. 验证所有商品库存
-            for (Map<String, Object> item : items) {
-                int productId = (Integer) item.get("productId");
-                int quantity = (Integer) item.get("quantity");
-
-                VendingMachineProduct vmProduct = vendingMachineProductMapper.selectVendingMachineProduct(vendingMachineId, productId);
-                if (vmProduct == null) {
-                    System.err.println("【错误】售货机 " + vendingMachineId + " 中不存在商品 " + productId);
-                    return -1;
-                }
-
-                if (vmProduct.getStock() < quantity) {
-                    System.err.println("【错误】商品 " + productId + " 库存不足，需要 " + quantity + "，现有 " + vmProduct.getStock());
-                    return -1;
-                }
-            }
+    private boolean takeOverStaleClaim(int vendingMachineId, String originalOrderId, String claimOwner) {
+        if (mqttOrderClaimMapper.takeOver(vendingMachineId, originalOrderId, claimOwner, claimLeaseSeconds) == 0) {
+            return false;
+        }
+        System.out.println("接管过期的订单认领 - 售货机ID: " + vendingMachineId + ", 原始订单ID: " + originalOrderId + ", 租约: " + claimLeaseSeconds + " 秒");
+        return true;
+    }
 
-            // 3. 创建主订单
-            Order order = new Order();
-            order.setUserId(userId);
-            order.setTotalPrice(totalAmount);
-            order.setCreateTime(LocalDateTime.now());
-
-            orderMapper.insertOrder(order);
-            int realOrderId = order.getId();
-            System.out.println("【调试】订单创建成功，真实数据库ID: " + realOrderId);
-
-            // 4. 处理订单项和库存扣减
-            for (Map<String, Object> item : items) {
-                int productId = (Integer) item.get("productId");
-                int quantity = (Integer) item.get("quantity");
-
-                VendingMachineProduct vmProduct = vendingMachineProductMapper.selectVendingMachineProduct(vendingMachineId, productId);
-
-                // 扣减库存
-                vendingMachineProductMapper.updateVendingMachineProductStock(vendingMachineId, productId, -quantity, quantity);
-
-                // 插入订单项
-                OrderItem orderItem = new OrderItem();
-                orderItem.setOrderId(realOrderId);
-                orderItem.setProductId(productId);
-                orderItem.setQuantity(quantity);
-                orderItem.setPrice(vmProduct.getPrice());
-                orderItem.setSubtotal(vmProduct.getPrice().multiply(BigDecimal.valueOf(quantity)));
-                orderItemMapper.insertOrderItem(orderItem);
+    /**
+     * 订单处理失败：释放认领（售货机重新上报同一订单时可以再次处理），并经发件箱发布失败消息。
+     * 认领已被其他节点接管时由接管方发布结果，这里不再发布。
+     */
+    private void publishFailedOrder(int vendingMachineId, MqttOrderPayload order, String claimOwner, Throwable error) {
+        try {
+            if (mqttOrderClaimMapper.release(vendingMachineId, order.getOrderId(), claimOwner) == 0) {
+                System.out.println("订单认领已被其他节点接管，不发布失败消息 - 原始订单ID: " + order.getOrderId());
+                return;
             }
-
-            // 5. 更新用户余额
-            BigDecimal newBalance = userBalance.subtract(totalAmount);
-            userMapper.updateBalanceByUserId(userId, newBalance);
-
-            System.out.println("【成功】MQTT订单处理完成，真实订单ID: " + realOrderId);
-
-            return realOrderId;
-
+            outboxRelay.enqueue(List.of(orderCommitter.failedOrderMessage(order, error.getMessage())));
         } catch (Exception e) {
-            System.err.println("【错误】处理MQTT订单时发生异常: " + e.getMessage());
-            e.printStackTrace();
-            return -1;
+            System.err.println("【错误】发布订单失败消息失败 - 原始订单ID: " + order.getOrderId() + ", 原因: " + e.getMessage());
         }
     }
 
-
-
+    /**
+     * 重投的订单：把已有的处理结果再写一次发件箱，由发件箱中继重新发布
+     */
+    private void publishProcessedOrder(MqttOrderPayload order, long realOrderId) {
+        try {
+            outboxRelay.enqueue(List.of(orderCommitter.processedOrderMessage(order, realOrderId)));
+        } catch (Exception e) {
+            System.err.println("重新发布处理后的订单消息失败 - 真实订单ID: " + realOrderId + ", 错误: " + e.getMessage());
+        }
+    }
 
     /**
      * 获取分类的 MQTT 消息日志
@@ -436,9 +529,23 @@ public class MqttSubscriberService {
      * @return 消息日志列表
      */
     public List<MqttLog> getLogs(String type) {
-        synchronized (messageLogs) {
-            return new ArrayList<>(messageLogs.getOrDefault(type, new ArrayList<>()));
+        MqttLogRingBuffer buffer = messageLogs.get(type);
+        return buffer != null ? buffer.snapshot() : new ArrayList<>();
+    }
+
+    /**
+     * 按游标读取某类消息日志，只返回比游标更新的日志
+     *
+     * @param type   消息类型（heartbeat, state, order, processed_order）
+     * @param cursor 上一次返回的 nextCursor，首次读取传 0
+     * @param limit  最多返回的条数
+     */
+    public MqttLogRingBuffer.MqttLogPage getLogsSince(String type, long cursor, int limit) {
+        MqttLogRingBuffer buffer = messageLogs.get(type);
+        if (buffer == null) {
+            return new MqttLogRingBuffer.MqttLogPage(new ArrayList<>(), cursor, 0);
         }
+        return buffer.readSince(cursor, limit);
     }
 
     /**
@@ -446,26 +553,46 @@ public class MqttSubscriberService {
      */
     public static class MqttLog {
         private final String topic;
-        private final String payload;
+        private final byte[] payloadBytes;
+        private String payload; // 首次读取时才由 payloadBytes 构建
         private final long timestamp;
+        private long sequence = -1; // 在环形缓冲区中的序号，写入时分配
 
         public MqttLog(String topic, String payload, long timestamp) {
             this.topic = topic;
+            this.payloadBytes = null;
             this.payload = payload;
             this.timestamp = timestamp;
         }
 
+        public MqttLog(String topic, byte[] payloadBytes, long timestamp) {
+            this.topic = topic;
+            this.payloadBytes = payloadBytes;
+            this.timestamp = timestamp;
+        }
+
         public String getTopic() {
             return topic;
         }
 
         public String getPayload() {
+            if (payload == null && payloadBytes != null) {
+                payload = new String(payloadBytes, StandardCharsets.UTF_8);
+            }
             return payload;
         }
 
         public long getTimestamp() {
             return timestamp;
         }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        void setSequence(long sequence) {
+            this.sequence = sequence;
+        }
     }
 
     public Collection<DeviceSnapshot> getAllDeviceSnapshots() {
@@ -517,9 +644,7 @@ public class MqttSubscriberService {
     }
 
     public List<MqttLog> getProcessedOrders() {
-        synchronized (messageLogs) {
-            return new ArrayList<>(messageLogs.getOrDefault("processed_order", new ArrayList<>()));
-        }
+        return getLogs("processed_order");
     }
 
     /**
@@ -527,10 +652,8 @@ public class MqttSubscriberService {
      */
     public List<MqttLog> getAllOrderLogs() {
         List<MqttLog> allOrders = new ArrayList<>();
-        synchronized (messageLogs) {
-            allOrders.addAll(messageLogs.getOrDefault("order", new ArrayList<>()));
-            allOrders.addAll(messageLogs.getOrDefault("processed_order", new ArrayList<>()));
-        }
+        allOrders.addAll(getLogs("order"));
+        allOrders.addAll(getLogs("processed_order"));
         // 按时间排序
         allOrders.sort((a, b) -> Long.compare(b.getTimestamp(), a.getTimestamp()));
         return allOrders;
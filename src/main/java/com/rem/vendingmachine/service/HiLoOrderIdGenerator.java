@@ -0,0 +1,40 @@
+package com.rem.vendingmachine.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * 号段（hi/lo）订单 ID 生成器
+ * 每次从 id_sequence 表原子地取 block-size 个连续 ID，用完再取下一段，平均 block-size 个订单才访问一次数据库。
+ * 每个节点拿到的号段互不重叠；节点重启时未用完的号段直接丢弃，ID 会有空洞但不会重复。
+ * ID 从订单表现有的最大 ID 之后继续，仍然是较小的整数。
+ */
+@Component
+@ConditionalOnProperty(name = "vendingmachine.order-id.strategy", havingValue = "hilo", matchIfMissing = true)
+public class HiLoOrderIdGenerator implements OrderIdGenerator {
+
+    static final String SEQUENCE = "order_id";
+
+    @Autowired
+    private IdSequenceAllocator idSequenceAllocator;
+
+    // 每次从数据库取的 ID 数量
+    @Value("${vendingmachine.order-id.block-size:100}")
+    private int blockSize;
+
+    // 当前号段 [next, limit)，只在 synchronized 方法中读写
+    private long next;
+    private long limit;
+
+    @Override
+    public synchronized long nextId() {
+        if (next >= limit) {
+            int size = Math.max(1, blockSize);
+            next = idSequenceAllocator.allocate(SEQUENCE, size, () -> idSequenceAllocator.selectMaxOrderId() + 1);
+            limit = next + size;
+        }
+        return next++;
+    }
+}
@@ -0,0 +1,55 @@
+package com.rem.vendingmachine.service;
+
+import com.rem.vendingmachine.dao.IdSequenceMapper;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.function.LongSupplier;
+
+/**
+ * 从 id_sequence 表分配号段
+ * 每次分配在独立的短事务里完成，不受调用方事务回滚的影响，也不会一直持有序列行的锁。
+ */
+@Component
+public class IdSequenceAllocator {
+
+    @Autowired
+    private IdSequenceMapper idSequenceMapper;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate requiresNew;
+
+    @PostConstruct
+    public void init() {
+        requiresNew = new TransactionTemplate(transactionManager);
+        requiresNew.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * 分配 count 个连续的值，返回第一个
+     *
+     * @param initialValue 序列不存在时计算起始值
+     */
+    public long allocate(String name, int count, LongSupplier initialValue) {
+        Long first = requiresNew.execute(status -> {
+            if (idSequenceMapper.advance(name, count) == 0) {
+                idSequenceMapper.initSequence(name, initialValue.getAsLong());
+                if (idSequenceMapper.advance(name, count) == 0) {
+                    throw new RuntimeException("ID 序列不存在: " + name);
+                }
+            }
+            return idSequenceMapper.selectLastInsertId() - count;
+        });
+        return first;
+    }
+
+    public long selectMaxOrderId() {
+        return idSequenceMapper.selectMaxOrderId();
+    }
+}
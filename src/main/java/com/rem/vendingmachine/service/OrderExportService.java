@@ -0,0 +1,202 @@
+package com.rem.vendingmachine.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rem.vendingmachine.dao.OrderMapper;
+import com.rem.vendingmachine.model.Order;
+import com.rem.vendingmachine.model.OrderExportRow;
+import com.rem.vendingmachine.model.OrderItem;
+import org.apache.ibatis.cursor.Cursor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * 订单导出
+ * 通过 MyBatis 游标逐行读取订单和订单项，边读边写到输出流：NDJSON 每行一个订单（含商品清单），CSV 每行一个订单项。
+ * 内存中最多只保留一个订单，不管导出多少行占用的内存都是固定的。
+ */
+@Service
+public class OrderExportService {
+
+    @Autowired
+    private OrderMapper orderMapper;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * 导出格式
+     */
+    public enum Format {
+        NDJSON("application/x-ndjson;charset=UTF-8", "ndjson"),
+        CSV("text/csv;charset=UTF-8", "csv");
+
+        private final String contentType;
+        private final String fileExtension;
+
+        Format(String contentType, String fileExtension) {
+            this.contentType = contentType;
+            this.fileExtension = fileExtension;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getFileExtension() {
+            return fileExtension;
+        }
+
+        public static Format parse(String format) {
+            try {
+                return valueOf(format.toUpperCase(Locale.ROOT));
+            } catch (RuntimeException e) {
+                throw new RuntimeException("不支持的导出格式: " + format + "，可选 ndjson 或 csv");
+            }
+        }
+    }
+
+    private static final String CSV_HEADER = "order_id,user_id,machine_id,status,total_price,create_time,payment_time,completion_time,"
+            + "item_id,product_id,product_name,quantity,price,subtotal\n";
+
+    /**
+     * 把符合条件的订单写到 writer，结束后在日志中输出行数和每秒行数
+     *
+     * @param from      下单时间下限（包含），为 null 时不限
+     * @param to        下单时间上限（不包含），为 null 时不限
+     * @param machineId 售货机 ID，为 null 时不限
+     * @return 写出的数据行数（NDJSON 为订单数，CSV 为订单项行数）
+     */
+    @Transactional(readOnly = true)
+    public long export(Format format, LocalDateTime from, LocalDateTime to, Integer machineId, Writer writer) throws IOException {
+        long startNanos = System.nanoTime();
+        long rows = 0;
+        long orders = 0;
+        try (Cursor<OrderExportRow> cursor = orderMapper.selectOrdersForExport(from, to, machineId)) {
+            if (format == Format.CSV) {
+                // 带 BOM，Excel 打开时中文商品名不会乱码
+                writer.write('\uFEFF');
+                writer.write(CSV_HEADER);
+                long lastOrderId = -1;
+                for (OrderExportRow row : cursor) {
+                    writeCsvRow(row, writer);
+                    rows++;
+                    if (row.getOrderId() != lastOrderId) {
+                        lastOrderId = row.getOrderId();
+                        orders++;
+                    }
+                }
+            } else {
+                // 同一订单的行是连续的，攒齐一个订单就写出一行
+                Order current = null;
+                for (OrderExportRow row : cursor) {
+                    if (current == null || current.getId() != row.getOrderId()) {
+                        if (current != null) {
+                            writeJsonLine(current, writer);
+                            rows++;
+                        }
+                        current = toOrder(row);
+                    }
+                    if (row.getItemId() != null) {
+                        current.getOrderItems().add(toOrderItem(row));
+                    }
+                }
+                if (current != null) {
+                    writeJsonLine(current, writer);
+                    rows++;
+                }
+                orders = rows;
+            }
+            writer.flush();
+        } finally {
+            long elapsedMs = Math.max(1, (System.nanoTime() - startNanos) / 1_000_000);
+            System.out.println("订单导出结束 - 格式: " + format.getFileExtension() + ", 时间范围: [" + from + ", " + to + ")"
+                    + ", 售货机ID: " + machineId + ", 订单数: " + orders + ", 行数: " + rows
+                    + ", 耗时: " + elapsedMs + "ms, 速度: " + (rows * 1000 / elapsedMs) + " 行/秒");
+        }
+        return rows;
+    }
+
+    private void writeJsonLine(Order order, Writer writer) throws IOException {
+        writer.write(objectMapper.writeValueAsString(order));
+        writer.write('\n');
+    }
+
+    private void writeCsvRow(OrderExportRow row, Writer writer) throws IOException {
+        writer.write(String.valueOf(row.getOrderId()));
+        writer.write(',');
+        writer.write(String.valueOf(row.getUserId()));
+        writer.write(',');
+        writer.write(csv(row.getMachineId()));
+        writer.write(',');
+        writer.write(String.valueOf(row.getStatus()));
+        writer.write(',');
+        writer.write(csv(row.getTotalPrice()));
+        writer.write(',');
+        writer.write(csv(row.getCreateTime()));
+        writer.write(',');
+        writer.write(csv(row.getPaymentTime()));
+        writer.write(',');
+        writer.write(csv(row.getCompletionTime()));
+        writer.write(',');
+        writer.write(csv(row.getItemId()));
+        writer.write(',');
+        writer.write(csv(row.getProductId()));
+        writer.write(',');
+        writer.write(csvText(row.getProductName()));
+        writer.write(',');
+        writer.write(csv(row.getQuantity()));
+        writer.write(',');
+        writer.write(csv(row.getPrice()));
+        writer.write(',');
+        writer.write(csv(row.getSubtotal()));
+        writer.write('\n');
+    }
+
+    private static String csv(Object value) {
+        return value == null ? "" : value.toString();
+    }
+
+    // 文本字段包含逗号、引号或换行时加引号，内部引号转义为两个引号
+    private static String csvText(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static Order toOrder(OrderExportRow row) {
+        Order order = new Order();
+        order.setId(row.getOrderId());
+        order.setUserId(row.getUserId());
+        order.setMachineId(row.getMachineId());
+        order.setStatus(row.getStatus());
+        order.setTotalPrice(row.getTotalPrice());
+        order.setCreateTime(row.getCreateTime());
+        order.setPaymentTime(row.getPaymentTime());
+        order.setCompletionTime(row.getCompletionTime());
+        order.setOrderItems(new ArrayList<>());
+        return order;
+    }
+
+    private static OrderItem toOrderItem(OrderExportRow row) {
+        OrderItem item = new OrderItem();
+        item.setId(row.getItemId());
+        item.setOrderId(row.getOrderId());
+        item.setProductId(row.getProductId());
+        item.setProductName(row.getProductName());
+        item.setQuantity(row.getQuantity() != null ? row.getQuantity() : 0);
+        item.setPrice(row.getPrice());
+        item.setSubtotal(row.getSubtotal());
+        return item;
+    }
+}
@@ -0,0 +1,10 @@
+package com.rem.vendingmachine.service;
+
+/**
+ * 订单 ID 生成器：在写入任何 SQL 之前分配订单 ID，多个后端节点同时运行、节点重启后都不会重复。
+ * 由 vendingmachine.order-id.strategy 选择实现：hilo（默认，号段分配）或 time（按时间有序的 64 位 ID）。
+ */
+public interface OrderIdGenerator {
+
+    long nextId();
+}
@@ -0,0 +1,217 @@
+package com.rem.vendingmachine.service;
+
+import com.rem.vendingmachine.dao.OrderItemMapper;
+import com.rem.vendingmachine.dao.OrderMapper;
+import com.rem.vendingmachine.dao.WalletMapper;
+import com.rem.vendingmachine.model.Order;
+import com.rem.vendingmachine.model.OrderItem;
+import com.rem.vendingmachine.model.OrderCommittedEvent;
+import com.rem.vendingmachine.model.OrderLine;
+import com.rem.vendingmachine.model.WalletLedgerEntry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 下单引擎：REST 下单、购物车结算和 MQTT 订单共用的下单流程
+ * 库存由 {@link SlotStockService} 锁住货道后校验并扣减，余额由 {@link WalletEngine} 用一条条件 UPDATE 扣减，
+ * 不管订单里有多少件商品，数据库往返次数都是固定的 6 次：锁住货道、扣减余额、扣减库存、插入订单、一条 INSERT 插入所有订单项、追加一条扣款流水。
+ * 全部在一个事务里完成，任何一步失败（库存或余额不足）都会整体回滚。
+ * 写入订单后发布 {@link OrderCommittedEvent}，监听方在事务提交后才会收到。
+ */
+@Service
+public class OrderPlacementEngine {
+
+    @Autowired
+    private OrderMapper orderMapper;
+
+    @Autowired
+    private OrderItemMapper orderItemMapper;
+
+    @Autowired
+    private WalletMapper walletMapper;
+
+    @Autowired
+    private WalletEngine walletEngine;
+
+    @Autowired
+    private OrderIdGenerator orderIdGenerator;
+
+    @Autowired
+    private SlotStockService slotStockService;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    /**
+     * 创建订单：校验库存、扣减库存和余额、写入订单和订单项
+     *
+     * @param order 订单主信息，至少设置 userId；成功后回填 id（未预先分配时）、machineId（未设置时）、totalPrice、createTime 和 orderItems
+     * @param lines 购买的商品，同一货道出现多次时数量合并
+     * @return 传入的 order
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public Order placeOrder(Order order, List<OrderLine> lines) {
+        applyOrder(order, lines);
+
+        // 写入订单和订单项
+        orderMapper.insertOrder(order);
+        orderItemMapper.batchInsertOrderItems(order.getOrderItems());
+        if (order.getTotalPrice().signum() > 0) {
+            walletMapper.insertLedgerEntry(debitEntry(order));
+        }
+
+        // 事务提交后再通知排行榜等派生数据
+        eventPublisher.publishEvent(new OrderCommittedEvent(order));
+        return order;
+    }
+
+    /**
+     * 校验并扣减一个订单的库存和余额，分配订单 ID（调用方未预先分配时），回填 totalPrice、createTime 和 orderItems，不写订单表。
+     * 必须在调用方的事务中执行。先锁住货道校验库存、扣减余额，全部通过后才扣减库存：
+     * 库存或余额不足时没有任何数据库写入。
+     */
+    public void applyOrder(Order order, List<OrderLine> lines) {
+        List<OrderLine> merged = mergeLines(lines);
+        SlotStockService.LockedSlots slots = slotStockService.lock(merged);
+        applyOrder(order, merged, slots);
+        // 一条 UPDATE 扣减已锁住的货道库存
+        slotStockService.write(slots);
+    }
+
+    /**
+     * 批量提交前一次锁住所有订单涉及的货道（按货道顺序），再按用户 ID 顺序锁住所有用户的余额行。
+     * 所有下单路径都是先货道后余额、各自按顺序加锁，不同批次、REST 下单和其他节点之间不会交叉加锁死锁。
+     * 之后用 {@link #applyOrder(Order, List, SlotStockService.LockedSlots)} 逐个校验订单，最后用 {@link #writeStock} 一次写入库存。
+     */
+    public SlotStockService.LockedSlots lockBatch(List<Integer> userIds, List<OrderLine> lines) {
+        SlotStockService.LockedSlots slots = slotStockService.lock(lines);
+        walletEngine.lock(userIds);
+        return slots;
+    }
+
+    /**
+     * 按 slots 中剩余的库存校验并扣减一个订单（同 {@link #applyOrder(Order, List)}），库存先记在 slots 中，由 {@link #writeStock} 写入。
+     * 库存或余额不足时抛出异常，没有任何数据库写入，也不扣减 slots，批量提交时直接剔除该订单即可。
+     */
+    public void applyOrder(Order order, List<OrderLine> lines, SlotStockService.LockedSlots slots) {
+        // 订单 ID 在写库前就已确定（最先分配，之后失败只会留下空号），订单项可以直接带上
+        if (order.getId() == 0) {
+            order.setId(orderIdGenerator.nextId());
+        }
+        if (order.getMachineId() == null) {
+            order.setMachineId(singleMachineId(lines));
+        }
+
+        // 1. 按锁住的货道库存校验，库存不足直接失败
+        List<OrderLine> merged = mergeLines(lines);
+        List<SlotStockService.LockedSlots.Entry> entries = slots.check(merged);
+
+        BigDecimal totalPrice = BigDecimal.ZERO;
+        List<OrderItem> orderItems = new ArrayList<>(entries.size());
+        for (SlotStockService.LockedSlots.Entry entry : entries) {
+            BigDecimal subtotal = entry.getPrice().multiply(BigDecimal.valueOf(entry.getQuantity()));
+            totalPrice = totalPrice.add(subtotal);
+
+            OrderItem orderItem = new OrderItem();
+            orderItem.setOrderId(order.getId());
+            orderItem.setProductId(entry.getProductId());
+            orderItem.setQuantity(entry.getQuantity());
+            orderItem.setPrice(entry.getPrice());
+            orderItem.setSubtotal(subtotal);
+            orderItem.setProductName(entry.getProductName());
+            orderItems.add(orderItem);
+        }
+
+        // 2. 条件扣减余额，余额不足时没有任何写入；扣款流水在写入订单后追加
+        if (totalPrice.signum() > 0) {
+            walletEngine.debit(order.getUserId(), totalPrice);
+        }
+
+        // 3. 校验全部通过后才在 slots 中扣减库存
+        slots.take(entries);
+
+        order.setTotalPrice(totalPrice);
+        // create_time 是 DATETIME（秒），MySQL 会把小数秒四舍五入；先截断到秒，让写库的时间和订单事件中的时间一致
+        order.setCreateTime(LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS));
+        order.setOrderItems(orderItems);
+    }
+
+    /**
+     * 用一条 UPDATE 写入 slots 中所有订单扣减的库存
+     */
+    public void writeStock(SlotStockService.LockedSlots slots) {
+        slotStockService.write(slots);
+    }
+
+    /**
+     * 批量写入已经通过 applyOrder 的订单：一条 INSERT 写入所有订单，一条 INSERT 写入所有订单项，一条 INSERT 追加所有扣款流水。
+     * 必须在调用方的事务中执行。
+     */
+    public void insertOrders(List<Order> orders) {
+        orderMapper.batchInsertOrders(orders);
+        List<OrderItem> orderItems = new ArrayList<>();
+        List<WalletLedgerEntry> debits = new ArrayList<>(orders.size());
+        for (Order order : orders) {
+            orderItems.addAll(order.getOrderItems());
+            if (order.getTotalPrice().signum() > 0) {
+                debits.add(debitEntry(order));
+            }
+        }
+        orderItemMapper.batchInsertOrderItems(orderItems);
+        if (!debits.isEmpty()) {
+            walletMapper.batchInsertLedgerEntries(debits);
+        }
+        for (Order order : orders) {
+            eventPublisher.publishEvent(new OrderCommittedEvent(order));
+        }
+    }
+
+    private WalletLedgerEntry debitEntry(Order order) {
+        return new WalletLedgerEntry(order.getUserId(), order.getTotalPrice().negate(), WalletLedgerEntry.ORDER, order.getId());
+    }
+
+    // 所有商品来自同一台售货机时返回它的 ID，否则返回 null
+    private Integer singleMachineId(List<OrderLine> lines) {
+        if (lines == null || lines.isEmpty()) {
+            return null;
+        }
+        int machineId = lines.get(0).getVendingMachineId();
+        for (OrderLine line : lines) {
+            if (line.getVendingMachineId() != machineId) {
+                return null;
+            }
+        }
+        return machineId;
+    }
+
+    // 合并同一货道的多行商品，保持原来的顺序
+    private List<OrderLine> mergeLines(List<OrderLine> lines) {
+        if (lines == null || lines.isEmpty()) {
+            throw new RuntimeException("订单中没有商品");
+        }
+        Map<String, OrderLine> merged = new LinkedHashMap<>();
+        for (OrderLine line : lines) {
+            if (line.getQuantity() <= 0) {
+                throw new RuntimeException("购买数量必须大于 0，商品ID: " + line.getProductId());
+            }
+            merged.merge(slotKey(line.getVendingMachineId(), line.getProductId()),
+                    new OrderLine(line.getVendingMachineId(), line.getProductId(), line.getQuantity()),
+                    (a, b) -> new OrderLine(a.getVendingMachineId(), a.getProductId(), a.getQuantity() + b.getQuantity()));
+        }
+        return new ArrayList<>(merged.values());
+    }
+
+    private String slotKey(int vendingMachineId, int productId) {
+        return vendingMachineId + ":" + productId;
+    }
+}
@@ -2,8 +2,11 @@ package com.rem.vendingmachine.service;
 
 import com.rem.vendingmachine.model.CheckoutRequest;
 import com.rem.vendingmachine.model.CreateOrderRequest;
+import com.rem.vendingmachine.model.MachineSales;
 import com.rem.vendingmachine.model.Order;
+import com.rem.vendingmachine.model.OrderPage;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
 
@@ -17,31 +20,34 @@ public interface OrderService {
     boolean createOrder(Order order, List<CreateOrderRequest.CartItem> items); // 现在传完整信息
 
     // 查询单个订单详情
-    Order getOrderById(int orderId);
+    Order getOrderById(long orderId);
 
     // 查询订单详情（包含商品清单）
-    Order getOrderWithDetailsById(int orderId);
+    Order getOrderWithDetailsById(long orderId);
 
-    // 查询用户的历史订单
-    List<Order> getOrderHistoryByUserId(int userId);
+    // 游标分页查询订单（userId 为 null 时查询全部订单），summary 为 true 时不加载商品清单
+    OrderPage getOrderPage(Integer userId, String cursor, Integer limit, boolean summary);
 
     // 推销
     List<Integer> getRecommendedProductsForUser(int userId);
     List<Integer> getTopSellingProducts();
 
     //订单支付
-    boolean markOrderAsPaid(int orderId);
+    boolean markOrderAsPaid(long orderId);
 
     //订单完成
-    boolean markOrderAsCompleted(int orderId);
-
-    //查询全部订单
-    List<Order> getAllOrders();
+    boolean markOrderAsCompleted(long orderId);
 
     void createOrderFromMachine(int vendingMachineId, int userId, String orderId, double totalPrice);
 
     public List<Order> queryOrders(Integer userId, Integer status, Integer machineId);
 
+    // 某台售货机在时间范围内的销售汇总
+    MachineSales getMachineSales(int machineId, LocalDateTime from, LocalDateTime to);
+
+    // 时间范围内每台售货机的销售汇总，按销售额从高到低
+    List<MachineSales> getSalesByMachine(LocalDateTime from, LocalDateTime to);
+
     void processOrderFromMQTT(String tempOrderId, int userId, int vendingMachineId, double totalPrice, List<Map<String, Object>> items);
 
     List<Map<String, Object>> getTopSellingProductsWithQuantities();
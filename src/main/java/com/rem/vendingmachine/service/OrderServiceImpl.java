@@ -3,10 +3,15 @@ package com.rem.vendingmachine.service;
 import com.rem.vendingmachine.dao.*;
 import com.rem.vendingmachine.model.*;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -25,155 +30,60 @@ public class OrderServiceImpl implements OrderService {
     private ProductMapper productMapper;
 
     @Autowired
-    private UserMapper userMapper;
+    private VendingMachineProductMapper vendingMachineProductMapper;
 
     @Autowired
-    private VendingMachineProductMapper vendingMachineProductMapper;
+    private OrderPlacementEngine orderPlacementEngine;
 
-    @Override
-    public boolean createOrder(int userId, List<CheckoutRequest.CartItem> cartItems) {
-        // Step 1: 总金额计算
-        BigDecimal totalPrice = BigDecimal.ZERO;
+    @Autowired
+    private WalletEngine walletEngine;
 
-        // Step 2: 遍历购物车并校验库存
-        for (CheckoutRequest.CartItem cartItem : cartItems) {
-            // 从售货机中查询商品库存
-            VendingMachineProduct vendingMachineProduct =
-                    vendingMachineProductMapper.selectVendingMachineProduct(cartItem.getVendingMachineId(), cartItem.getProductId());
+    @Autowired
+    private WalletMapper walletMapper;
 
-            // 如果商品不存在或库存不足，抛出异常
-            if (vendingMachineProduct == null || vendingMachineProduct.getStock() < cartItem.getQuantity()) {
-                throw new RuntimeException("库存不足，商品ID：" + cartItem.getProductId());
-            }
+    @Autowired
+    private OrderIdGenerator orderIdGenerator;
 
-            // 计算商品小计金额并累加到总金额
-            BigDecimal subtotal = vendingMachineProduct.getPrice()
-                    .multiply(BigDecimal.valueOf(cartItem.getQuantity()));
-            totalPrice = totalPrice.add(subtotal);
-        }
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
 
-        // Step 3: 检查用户余额是否充足
-        BigDecimal userBalance = userMapper.getBalanceByUserId(userId);
-        if (userBalance.compareTo(totalPrice) < 0) {
-            throw new RuntimeException("余额不足！");
-        }
+    @Autowired
+    private ProductSalesLeaderboard productSalesLeaderboard;
 
-        // Step 4: 创建订单并写入数据库
-        Order order = new Order();
-        order.setUserId(userId);
-        order.setTotalPrice(totalPrice);
-        order.setCreateTime(LocalDateTime.now());
-        orderMapper.insertOrder(order); // 假设这里成功
+    @Autowired
+    private RecommendationService recommendationService;
 
-        // Step 5: 遍历购物车，插入订单项并扣减库存
-        for (CheckoutRequest.CartItem cartItem : cartItems) {
-            // 插入订单项
-            VendingMachineProduct product = vendingMachineProductMapper.selectVendingMachineProduct(
-                    cartItem.getVendingMachineId(),
-                    cartItem.getProductId()
-            );
-            // 这里 price 和 subtotal 的计算可以复用 product.getPrice()
-            BigDecimal itemPrice = product.getPrice();
-            BigDecimal itemSubtotal = itemPrice.multiply(BigDecimal.valueOf(cartItem.getQuantity()));
-
-            OrderItem orderItem = new OrderItem();
-            orderItem.setOrderId(order.getId());
-            orderItem.setProductId(cartItem.getProductId());
-            orderItem.setQuantity(cartItem.getQuantity());
-            orderItem.setPrice(itemPrice);
-            orderItem.setSubtotal(itemSubtotal);
-            orderItemMapper.insertOrderItem(orderItem);
-
-            // --- 修改：调用更安全的库存更新方法 (扣减库存) ---
-            int quantityToDeduct = -cartItem.getQuantity(); // 负数表示减少
-            int absQuantity = Math.abs(quantityToDeduct);
-            int rowsAffected = vendingMachineProductMapper.updateVendingMachineProductStock(
-                    cartItem.getVendingMachineId(),
-                    cartItem.getProductId(),
-                    quantityToDeduct, // stock
-                    absQuantity      // absStock
-            );
-            if (rowsAffected == 0) {
-                // 更新失败，可能是超卖（并发）或记录不存在（理论上不应该，因为前面查过了）
-                // 这里可以选择抛异常回滚事务，或者记录日志
-                // 为了简化，我们抛异常
-                throw new RuntimeException("扣减库存失败，商品ID: " + cartItem.getProductId() + "，可能是并发冲突或数据不一致，请重试。");
-            }
-            // --- 修改结束 ---
-        }
+    // 订单列表每页默认条数
+    @Value("${vendingmachine.order-page.default-size:50}")
+    private int defaultPageSize;
 
-        // Step 6: 扣减用户余额
-        BigDecimal newBalance = userBalance.subtract(totalPrice);
-        userMapper.updateBalanceByUserId(userId, newBalance);
+    // 订单列表每页最多条数
+    @Value("${vendingmachine.order-page.max-size:200}")
+    private int maxPageSize;
 
-        // Step 7: 更新订单支付状态 (这里可以考虑是否需要，因为余额已经扣了)
-        // orderMapper.updatePaymentStatus(order.getId()); // 可选，取决于业务流程
+    @Override
+    public boolean createOrder(int userId, List<CheckoutRequest.CartItem> cartItems) {
+        List<OrderLine> lines = new ArrayList<>(cartItems.size());
+        for (CheckoutRequest.CartItem cartItem : cartItems) {
+            lines.add(new OrderLine(cartItem.getVendingMachineId(), cartItem.getProductId(), cartItem.getQuantity()));
+        }
 
+        // 校验库存、扣减库存和余额、写入订单在同一个事务中完成，失败时抛出异常
+        Order order = new Order();
+        order.setUserId(userId);
+        orderPlacementEngine.placeOrder(order, lines);
         return true;
     }
 
     @Override
     public boolean createOrder(Order order, List<CreateOrderRequest.CartItem> items) {
-        // 总金额计算
-        BigDecimal totalPrice = BigDecimal.ZERO;
-
-        // 遍历商品，检查库存并计算总金额
+        List<OrderLine> lines = new ArrayList<>(items.size());
         for (CreateOrderRequest.CartItem item : items) {
-            int productId = item.getProductId();
-            int vendingMachineId = item.getVendingMachineId(); // 关键：从item获取机器ID
-            int quantity = item.getQuantity();
-
-            // 🔥 关键修改：使用售货机商品表检查库存
-            VendingMachineProduct vmProduct = vendingMachineProductMapper.selectVendingMachineProduct(
-                    vendingMachineId, productId);
-
-            if (vmProduct == null) {
-                throw new RuntimeException("商品不存在于该售货机，商品ID: " + productId + ", 售货机ID: " + vendingMachineId);
-            }
-            if (vmProduct.getStock() < quantity) {
-                throw new RuntimeException("库存不足，商品ID: " + productId + "，售货机库存：" + vmProduct.getStock());
-            }
-
-            // 计算小计并累加
-            BigDecimal subtotal = vmProduct.getPrice().multiply(BigDecimal.valueOf(quantity));
-            totalPrice = totalPrice.add(subtotal);
+            lines.add(new OrderLine(item.getVendingMachineId(), item.getProductId(), item.getQuantity())); // 关键：从item获取机器ID
         }
 
-        // 检查用户余额是否充足
-        BigDecimal userBalance = userMapper.getBalanceByUserId(order.getUserId());
-        if (userBalance.compareTo(totalPrice) < 0) {
-            throw new RuntimeException("余额不足，当前余额：" + userBalance);
-        }
-
-        // 减少库存并创建订单
-        order.setTotalPrice(totalPrice);
-        order.setCreateTime(LocalDateTime.now());
-        orderMapper.insertOrder(order); // 主表插入
-
-        // 插入订单项和扣减库存
-        for (CreateOrderRequest.CartItem item : items) {
-            int productId = item.getProductId();
-            int vendingMachineId = item.getVendingMachineId();
-            int quantity = item.getQuantity();
-
-            // 1. 减少售货机库存
-            vendingMachineProductMapper.updateVendingMachineProductStock(
-                    vendingMachineId, productId, -quantity, quantity);
-
-            // 2. 创建订单项
-            OrderItem orderItem = new OrderItem();
-            orderItem.setOrderId(order.getId());
-            orderItem.setProductId(productId);
-            orderItem.setQuantity(quantity);
-            orderItem.setPrice(vendingMachineProductMapper.selectVendingMachineProduct(vendingMachineId, productId).getPrice());
-            orderItem.setSubtotal(orderItem.getPrice().multiply(BigDecimal.valueOf(quantity)));
-            orderItemMapper.insertOrderItem(orderItem);
-        }
-
-        // 扣减用户余额
-        BigDecimal newBalance = userBalance.subtract(totalPrice);
-        userMapper.updateBalanceByUserId(order.getUserId(), newBalance);
-
+        // 下单引擎会回填订单ID、总金额和订单项
+        orderPlacementEngine.placeOrder(order, lines);
         return true;
     }
 
@@ -181,7 +91,7 @@ public class OrderServiceImpl implements OrderService {
 
     //查询账单所有详细信息
     @Override
-    public Order getOrderWithDetailsById(int orderId) {
+    public Order getOrderWithDetailsById(long orderId) {
         Order order = orderMapper.selectOrderById(orderId);
 
         // 不再需要手动设置商品名称，因为已经在SQL查询中关联了
@@ -194,55 +104,62 @@ public class OrderServiceImpl implements OrderService {
     }
 
 
-    //根据用户查询账单信息
+    //分页查询账单信息：按 (create_time, id) 倒序，每页多查一条判断是否还有下一页，商品清单按本页订单 ID 一次查出
     @Override
-    public List<Order> getOrderHistoryByUserId(int userId) {
-        return orderMapper.selectOrdersByUserId(userId);
+    public OrderPage getOrderPage(Integer userId, String cursor, Integer limit, boolean summary) {
+        int pageSize = limit == null || limit <= 0 ? defaultPageSize : Math.min(limit, maxPageSize);
+        OrderPage.Cursor after = cursor == null || cursor.isEmpty() ? null : OrderPage.decodeCursor(cursor);
+
+        List<Order> orders = orderMapper.selectOrderPage(userId,
+                after != null ? after.getCreateTime() : null, after != null ? after.getId() : 0, pageSize + 1);
+        boolean hasMore = orders.size() > pageSize;
+        if (hasMore) {
+            orders = new ArrayList<>(orders.subList(0, pageSize));
+        }
+
+        if (!summary && !orders.isEmpty()) {
+            List<Long> orderIds = new ArrayList<>(orders.size());
+            Map<Long, List<OrderItem>> itemsByOrder = new HashMap<>();
+            for (Order order : orders) {
+                orderIds.add(order.getId());
+                order.setOrderItems(itemsByOrder.computeIfAbsent(order.getId(), id -> new ArrayList<>()));
+            }
+            for (OrderItem item : orderItemMapper.selectOrderItemsByOrderIds(orderIds)) {
+                itemsByOrder.get(item.getOrderId()).add(item);
+            }
+        }
+
+        String nextCursor = hasMore ? OrderPage.encodeCursor(orders.get(orders.size() - 1)) : null;
+        return new OrderPage(orders, nextCursor, hasMore);
     }
 
     //根据用户id推荐商品（3个）
     @Override
     public List<Integer> getRecommendedProductsForUser(int userId) {
-        List<Integer> recommendedProducts = orderItemMapper.getTopPurchasedProductsByUser(userId);
-        if (recommendedProducts.isEmpty()) {
-            // 如果用户没有历史订单，推荐全局热销商品
-            recommendedProducts = getTopSellingProducts();
-        }
-        return recommendedProducts;
+        // 用户购买最多的商品在前，没有历史订单时全部是全局热销商品
+        return recommendationService.recommendProductIds(userId);
     }
 
-    //最热销商品
+    //最热销商品（内存排行榜的前 K 名）
     @Override
     public List<Integer> getTopSellingProducts() {
-        return orderItemMapper.getTopSellingProducts();
+        return productSalesLeaderboard.getTopProductIds(Integer.MAX_VALUE);
     }
 
     //支付账单
     @Override
-    public boolean markOrderAsPaid(int orderId) {
+    @Transactional(rollbackFor = Exception.class)
+    public boolean markOrderAsPaid(long orderId) {
         // 1. 查询订单详情
         Order order = orderMapper.selectOrderById(orderId);
         if (order == null) {
             throw new RuntimeException("Order not found: " + orderId);
         }
 
-        // 2. 查询用户余额
-        BigDecimal userBalance = userMapper.getBalanceByUserId(order.getUserId());
-        if (userBalance == null) {
-            throw new RuntimeException("User balance not found for userId: " + order.getUserId());
-        }
-
-        // 3. 检查余额是否足够支付
-        if (userBalance.compareTo(order.getTotalPrice()) < 0) {
-            // 余额不足
-            throw new RuntimeException("Insufficient balance. Current balance: " + userBalance);
-        }
+        // 2. 条件扣款并追加流水，余额不足时抛出异常；后续失败回滚时自动退回
+        walletEngine.charge(order.getUserId(), order.getTotalPrice(), WalletLedgerEntry.PAYMENT, orderId);
 
-        // 4. 扣除余额
-        BigDecimal newBalance = userBalance.subtract(order.getTotalPrice());
-        userMapper.updateBalanceByUserId(order.getUserId(), newBalance);
-
-        // 5. 更新订单支付状态
+        // 3. 更新订单支付状态
         int rowsAffected = orderMapper.updatePaymentStatus(orderId);
         if (rowsAffected == 0) {
             throw new RuntimeException("Order not found or already paid: " + orderId);
@@ -254,7 +171,7 @@ public class OrderServiceImpl implements OrderService {
 
     //完成账单
     @Override
-    public boolean markOrderAsCompleted(int orderId) {
+    public boolean markOrderAsCompleted(long orderId) {
         int rowsAffected = orderMapper.updateCompletionStatus(orderId);
         if (rowsAffected == 0) {
             throw new RuntimeException("Order not found, not paid, or already completed: " + orderId);
@@ -264,16 +181,12 @@ public class OrderServiceImpl implements OrderService {
 
     //据账单号查询账单信息
     @Override
-    public Order getOrderById(int orderId) {
+    public Order getOrderById(long orderId) {
         return orderMapper.selectOrderById(orderId);
     }
 
     @Override
-    public List<Order> getAllOrders() {
-        return orderMapper.selectAllOrders();
-    }
-
-    @Override
+    @Transactional(rollbackFor = Exception.class)
     public void createOrderFromMachine(int vendingMachineId, int userId, String orderId, double totalPrice) {
         System.out.println("【处理MQTT订单】订单ID: " + orderId + ", 售货机ID: " + vendingMachineId + ", 用户ID: " + userId + ", 金额: " + totalPrice);
 
@@ -288,34 +201,26 @@ public class OrderServiceImpl implements OrderService {
 
             // 这里你可以添加完整的订单处理逻辑
 
-            // 1. 检查用户余额
-            BigDecimal userBalance = userMapper.getBalanceByUserId(userId);
-            System.out.println("【调试】用户余额: " + userBalance + ", 订单金额: " + totalPrice);
-
-            if (userBalance == null) {
-                System.err.println("【错误】找不到用户余额");
-                return;
-            }
-
+            // 1. 条件扣减余额，余额不足时抛出异常
             BigDecimal totalAmount = BigDecimal.valueOf(totalPrice);
-            if (userBalance.compareTo(totalAmount) < 0) {
-                System.err.println("【错误】余额不足");
-                return;
-            }
-
-            // 2. 扣减用户余额
-            BigDecimal newBalance = userBalance.subtract(totalAmount);
-            int rowsUpdated = userMapper.updateBalanceByUserId(userId, newBalance);
-            System.out.println("【调试】用户余额更新结果: " + rowsUpdated);
+            walletEngine.debit(userId, totalAmount);
+            System.out.println("【调试】用户余额: " + walletEngine.getBalance(userId) + ", 订单金额: " + totalPrice);
 
-            // 3. 创建订单（在数据库中）
+            // 2. 创建订单（在数据库中）
             Order order = new Order();
+            order.setId(orderIdGenerator.nextId());
             order.setUserId(userId);
+            order.setMachineId(vendingMachineId);
             order.setTotalPrice(totalAmount);
-            order.setCreateTime(LocalDateTime.now());
+            order.setCreateTime(LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS));
             orderMapper.insertOrder(order);
             System.out.println("【调试】订单创建成功，ID: " + order.getId());
 
+            // 3. 追加扣款流水
+            walletMapper.insertLedgerEntry(new WalletLedgerEntry(userId, totalAmount.negate(), WalletLedgerEntry.ORDER, order.getId()));
+            order.setOrderItems(new ArrayList<>());
+            eventPublisher.publishEvent(new OrderCommittedEvent(order));
+
             // 4. 如果有商品详情（这部分需要你重构或补充逻辑），就处理商品扣减
             // 由于MQTT消息结构，我们目前只能处理这些逻辑
 
@@ -325,12 +230,24 @@ public class OrderServiceImpl implements OrderService {
         } catch (Exception e) {
             System.err.println("【错误】处理MQTT订单时发生异常: " + e.getMessage());
             e.printStackTrace();
+            // 异常不向外抛出，手动回滚，已扣减的余额随之退回
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
         }
     }
 
 
     public List<Order> queryOrders(Integer userId, Integer status, Integer machineId) {
-        return orderMapper.queryOrders(userId, status, machineId);
+        return orderMapper.queryOrders(userId, status, machineId, maxPageSize);
+    }
+
+    @Override
+    public MachineSales getMachineSales(int machineId, LocalDateTime from, LocalDateTime to) {
+        return orderMapper.selectMachineSales(machineId, from, to);
+    }
+
+    @Override
+    public List<MachineSales> getSalesByMachine(LocalDateTime from, LocalDateTime to) {
+        return orderMapper.selectSalesByMachine(from, to);
     }
 
     @Override
@@ -340,79 +257,19 @@ public class OrderServiceImpl implements OrderService {
         System.out.println("订单商品明细: " + items);
 
         try {
-            // 1. 检查用户余额
-            BigDecimal userBalance = userMapper.getBalanceByUserId(userId);
-            if (userBalance == null) {
-                System.err.println("【错误】用户余额查询失败");
-                return;
-            }
-
-            BigDecimal totalAmount = BigDecimal.valueOf(totalPrice);
-            if (userBalance.compareTo(totalAmount) < 0) {
-                System.err.println("【错误】用户余额不足");
-                return;
-            }
-
-            // 2. 检查库存并创建订单
-            // 先验证所有商品库存是否充足
+            List<OrderLine> lines = new ArrayList<>(items.size());
             for (Map<String, Object> item : items) {
-                int productId = (Integer) item.get("productId");
-                int quantity = (Integer) item.get("quantity");
-
-                // 检查该售货机是否有该商品
-                VendingMachineProduct vmProduct = vendingMachineProductMapper.selectVendingMachineProduct(vendingMachineId, productId);
-                if (vmProduct == null) {
-                    System.err.println("【错误】售货机 " + vendingMachineId + " 中不存在商品 " + productId);
-                    return; // 直接返回，不处理订单
-                }
-
-                // 检查库存
-                if (vmProduct.getStock() < quantity) {
-                    System.err.println("【错误】商品 " + productId + " 库存不足，需要 " + quantity + "，现有 " + vmProduct.getStock());
-                    return; // 直接返回，不处理订单
-                }
+                lines.add(new OrderLine(vendingMachineId, (Integer) item.get("productId"), (Integer) item.get("quantity")));
             }
 
-            // 3. 创建主订单 - 使用数据库自增ID
             Order order = new Order();
             order.setUserId(userId);
-            order.setTotalPrice(totalAmount);
-            order.setCreateTime(LocalDateTime.now());
-
-            // 插入订单到数据库，获取真实的数据库ID
-            orderMapper.insertOrder(order);
-            int realOrderId = order.getId(); // 获取数据库生成的真实ID
-            System.out.println("【调试】订单创建成功，真实数据库ID: " + realOrderId);
-
-            // 4. 处理订单项和库存扣减
-            for (Map<String, Object> item : items) {
-                int productId = (Integer) item.get("productId");
-                int quantity = (Integer) item.get("quantity");
-
-                // 获取商品信息
-                VendingMachineProduct vmProduct = vendingMachineProductMapper.selectVendingMachineProduct(vendingMachineId, productId);
-
-                // 扣减库存
-                vendingMachineProductMapper.updateVendingMachineProductStock(vendingMachineId, productId, -quantity, quantity);
-                System.out.println("【调试】商品 " + productId + " 库存已扣减，减少 " + quantity);
-
-                // 插入订单项
-                OrderItem orderItem = new OrderItem();
-                orderItem.setOrderId(realOrderId); // 使用真实的数据库订单ID
-                orderItem.setProductId(productId);
-                orderItem.setQuantity(quantity);
-                orderItem.setPrice(vmProduct.getPrice());
-                orderItem.setSubtotal(vmProduct.getPrice().multiply(BigDecimal.valueOf(quantity)));
-                orderItemMapper.insertOrderItem(orderItem);
-                System.out.println("【调试】订单项插入成功");
+            orderPlacementEngine.placeOrder(order, lines);
+            if (order.getTotalPrice().compareTo(BigDecimal.valueOf(totalPrice)) != 0) {
+                System.out.println("【提示】售货机上报金额 " + totalPrice + " 与按当前价格计算的金额 " + order.getTotalPrice() + " 不一致，以后者为准");
             }
 
-            // 5. 更新用户余额
-            BigDecimal newBalance = userBalance.subtract(totalAmount);
-            userMapper.updateBalanceByUserId(userId, newBalance);
-            System.out.println("【调试】用户余额已更新");
-
-            System.out.println("【成功】MQTT订单处理完成，真实订单ID: " + realOrderId);
+            System.out.println("【成功】MQTT订单处理完成，真实订单ID: " + order.getId());
 
         } catch (Exception e) {
             System.err.println("【错误】处理MQTT订单时发生异常: " + e.getMessage());
@@ -423,7 +280,7 @@ public class OrderServiceImpl implements OrderService {
     // 在 OrderServiceImpl.java 中添加实现
     @Override
     public List<Map<String, Object>> getTopSellingProductsWithQuantities() {
-        return orderItemMapper.getTopSellingProductsWithQuantities();
+        return productSalesLeaderboard.getTopProducts(Integer.MAX_VALUE);
     }
 
     // 添加辅助方法获取商品销量
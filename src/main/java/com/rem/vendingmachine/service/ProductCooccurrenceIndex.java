@@ -0,0 +1,389 @@
+package com.rem.vendingmachine.service;
+
+import com.rem.vendingmachine.dao.OrderMapper;
+import com.rem.vendingmachine.model.OrderCommittedEvent;
+import com.rem.vendingmachine.model.OrderExportRow;
+import com.rem.vendingmachine.model.OrderItem;
+import jakarta.annotation.PreDestroy;
+import org.apache.ibatis.cursor.Cursor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 商品共现索引（"经常一起购买"）
+ * 每个包含两种以上商品的订单，对其中每一对商品的共现次数加 1。每个商品只保留共现次数最高的邻居：
+ * 邻居用 int 数组保存（商品 ID 和次数，不装箱），按次数从高到低排列，最多 2M 个，满了就截断为前 M 个，
+ * 查询时只看前 M 个。订单提交后增量更新，查询购物车的互补商品只读内存。
+ * 索引定时写成二进制快照文件。应用启动完成后在后台线程中读快照，再从数据库补上快照之后的订单，加载完成之前互补商品返回空列表；
+ * 启动时不会扫描全部订单：没有快照时索引从空开始，只累加之后提交的订单，需要历史数据时由管理员调用 {@link #rebuild()} 全量构建。
+ * 快照时刻前后几秒内提交的订单可能少计或多计一次；集群模式下每个节点只累加自己提交的订单，重启后从快照和数据库恢复。
+ */
+@Service
+public class ProductCooccurrenceIndex {
+
+    private static final int MAGIC = 0x434F4F43; // "COOC"
+    private static final int VERSION = 1;
+
+    @Autowired
+    private OrderMapper orderMapper;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    // 每个商品保留的邻居数 M
+    @Value("${vendingmachine.cooccurrence.neighbors:20}")
+    private int neighbors = 20;
+
+    // 快照文件路径
+    @Value("${vendingmachine.cooccurrence.file:data/cooccurrence.bin}")
+    private String file = "data/cooccurrence.bin";
+
+    // 商品 ID -> 邻居；全量重建时整体替换
+    private volatile Map<Integer, Neighbors> index = new ConcurrentHashMap<>();
+
+    // 上次快照之后是否有变化
+    private final AtomicBoolean changed = new AtomicBoolean();
+
+    // 快照和补算的订单加载完成之前不提供查询，也不写快照（避免用不完整的索引覆盖旧快照）
+    private volatile boolean ready;
+
+    // 是否正在全量重建
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+
+    /**
+     * 应用启动完成后在后台线程中读快照并补算快照之后的订单，不阻塞启动
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        Thread loader = new Thread(this::init, "cooccurrence-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    void init() {
+        long startNanos = System.nanoTime();
+        try {
+            LocalDateTime replayFrom = load();
+            if (replayFrom == null) {
+                System.out.println("商品共现索引没有可用的快照，从空索引开始；需要历史订单时调用 POST /api/product/complements/rebuild 全量构建");
+                return;
+            }
+            long orders = readOnly().execute(status -> replay(replayFrom, index));
+            System.out.println("商品共现索引已加载商品数: " + index.size() + ", 补算订单数: " + orders
+                    + "（快照时间 " + replayFrom + " 之后）, 耗时: " + (System.nanoTime() - startNanos) / 1_000_000 + "ms");
+        } catch (RuntimeException e) {
+            // 用已经加载的部分继续提供服务，可以调用全量重建修复
+            System.err.println("商品共现索引加载失败: " + e.getMessage());
+        } finally {
+            ready = true;
+        }
+    }
+
+    /**
+     * 从全部订单重新构建索引（管理员手动执行，例如首次部署或快照丢失之后），返回订单数。
+     * 在新的索引中构建完成后整体替换，构建期间继续使用旧索引；构建期间提交的订单可能少计一次。
+     */
+    public long rebuild() {
+        if (!rebuilding.compareAndSet(false, true)) {
+            throw new RuntimeException("商品共现索引正在重建，请稍后再试");
+        }
+        try {
+            long startNanos = System.nanoTime();
+            Map<Integer, Neighbors> fresh = new ConcurrentHashMap<>();
+            long orders = readOnly().execute(status -> replay(null, fresh));
+            index = fresh;
+            ready = true;
+            changed.set(true);
+            System.out.println("商品共现索引全量重建完成 - 商品数: " + fresh.size() + ", 订单数: " + orders
+                    + ", 耗时: " + (System.nanoTime() - startNanos) / 1_000_000 + "ms");
+            return orders;
+        } finally {
+            rebuilding.set(false);
+        }
+    }
+
+    /**
+     * 订单提交后累加其中每一对商品的共现次数
+     */
+    @TransactionalEventListener
+    public void onOrderCommitted(OrderCommittedEvent event) {
+        List<OrderItem> items = event.getOrder().getOrderItems();
+        if (items == null || items.size() < 2) {
+            return;
+        }
+        int[] productIds = new int[items.size()];
+        for (int i = 0; i < productIds.length; i++) {
+            productIds[i] = items.get(i).getProductId();
+        }
+        addOrder(productIds, productIds.length, index);
+    }
+
+    /**
+     * 和购物车中的商品最常一起购买的商品 ID，按共现次数之和从高到低，不包括购物车中的商品，最多 limit 个；索引加载完成之前返回空列表
+     */
+    public List<Integer> complements(List<Integer> cart, int limit) {
+        if (!ready || cart == null || cart.isEmpty() || limit <= 0) {
+            return new ArrayList<>();
+        }
+        Map<Integer, Neighbors> index = this.index;
+        // 候选最多 购物车商品数 × M 个，用两个数组线性查找累加
+        int[] ids = new int[cart.size() * neighbors];
+        long[] scores = new long[ids.length];
+        int size = 0;
+        for (Integer productId : cart) {
+            Neighbors n = productId != null ? index.get(productId) : null;
+            if (n == null) {
+                continue;
+            }
+            synchronized (n) {
+                for (int i = 0, top = Math.min(n.size, neighbors); i < top; i++) {
+                    int candidate = n.ids[i];
+                    if (cart.contains(candidate)) {
+                        continue;
+                    }
+                    int pos = indexOf(ids, size, candidate);
+                    if (pos < 0) {
+                        pos = size++;
+                        ids[pos] = candidate;
+                    }
+                    scores[pos] += n.counts[i];
+                }
+            }
+        }
+
+        // 选出得分最高的 limit 个
+        int n = Math.min(limit, size);
+        List<Integer> result = new ArrayList<>(n);
+        for (int k = 0; k < n; k++) {
+            int best = k;
+            for (int i = k + 1; i < size; i++) {
+                if (scores[i] > scores[best]) {
+                    best = i;
+                }
+            }
+            int id = ids[best];
+            long score = scores[best];
+            ids[best] = ids[k];
+            scores[best] = scores[k];
+            ids[k] = id;
+            scores[k] = score;
+            result.add(id);
+        }
+        return result;
+    }
+
+    /**
+     * 有变化时把索引写入快照文件：先写临时文件再原子替换，写到一半宕机也不会损坏旧快照
+     */
+    @Scheduled(fixedDelayString = "${vendingmachine.cooccurrence.snapshot-interval-ms:300000}")
+    public void snapshot() {
+        if (!ready || !changed.getAndSet(false)) {
+            return;
+        }
+        long snapshotMillis = System.currentTimeMillis();
+        Path path = Paths.get(file);
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            if (path.getParent() != null) {
+                Files.createDirectories(path.getParent());
+            }
+            // 写文件期间可能有新商品加入，先固定商品列表，保证文件头中的商品数和内容一致
+            Map<Integer, Neighbors> index = this.index;
+            List<Map.Entry<Integer, Neighbors>> entries = new ArrayList<>(index.entrySet());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(snapshotMillis);
+                out.writeInt(entries.size());
+                for (Map.Entry<Integer, Neighbors> entry : entries) {
+                    Neighbors n = entry.getValue();
+                    synchronized (n) {
+                        int top = Math.min(n.size, neighbors);
+                        out.writeInt(entry.getKey());
+                        out.writeInt(top);
+                        for (int i = 0; i < top; i++) {
+                            out.writeInt(n.ids[i]);
+                            out.writeInt(n.counts[i]);
+                        }
+                    }
+                }
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            System.out.println("商品共现索引快照已写入: " + path + ", 商品数: " + entries.size() + ", 文件大小: " + Files.size(path) + " 字节");
+        } catch (IOException e) {
+            changed.set(true);
+            System.err.println("商品共现索引快照写入失败: " + e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        snapshot();
+    }
+
+    // 读取快照，返回需要从数据库补算的起始时间；没有快照或快照无效时返回 null。
+    // 加载期间提交的订单已经累加在索引中，快照中的次数合并进去而不是覆盖
+    private LocalDateTime load() {
+        Path path = Paths.get(file);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                System.err.println("商品共现索引快照格式不匹配，忽略: " + path);
+                return null;
+            }
+            long snapshotMillis = in.readLong();
+            int products = in.readInt();
+            for (int p = 0; p < products; p++) {
+                int productId = in.readInt();
+                int count = in.readInt();
+                Neighbors n = index.computeIfAbsent(productId, k -> new Neighbors(neighbors * 2));
+                for (int i = 0; i < count; i++) {
+                    int neighborId = in.readInt();
+                    n.increment(neighborId, in.readInt(), neighbors);
+                }
+            }
+            return LocalDateTime.ofInstant(Instant.ofEpochMilli(snapshotMillis), ZoneId.systemDefault());
+        } catch (IOException e) {
+            System.err.println("商品共现索引快照读取失败，忽略: " + e.getMessage());
+            index.clear();
+            return null;
+        }
+    }
+
+    private TransactionTemplate readOnly() {
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        return readOnly;
+    }
+
+    // 用游标逐行读取 from 之后的订单项（同一订单的行是连续的）累加到 target，返回订单数
+    private long replay(LocalDateTime from, Map<Integer, Neighbors> target) {
+        long orders = 0;
+        try (Cursor<OrderExportRow> cursor = orderMapper.selectOrdersForExport(from, null, null)) {
+            long currentOrderId = -1;
+            int[] productIds = new int[16];
+            int size = 0;
+            for (OrderExportRow row : cursor) {
+                if (row.getOrderId() != currentOrderId) {
+                    addOrder(productIds, size, target);
+                    currentOrderId = row.getOrderId();
+                    size = 0;
+                    orders++;
+                }
+                if (row.getProductId() != null) {
+                    if (size == productIds.length) {
+                        productIds = Arrays.copyOf(productIds, size * 2);
+                    }
+                    productIds[size++] = row.getProductId();
+                }
+            }
+            addOrder(productIds, size, target);
+        } catch (IOException e) {
+            throw new RuntimeException("读取订单失败: " + e.getMessage(), e);
+        }
+        return orders;
+    }
+
+    // 订单中每一对不同的商品互相累加一次，同一商品出现多行只算一次
+    private void addOrder(int[] productIds, int size, Map<Integer, Neighbors> target) {
+        if (size < 2) {
+            return;
+        }
+        for (int i = 0; i < size; i++) {
+            int a = productIds[i];
+            if (indexOf(productIds, i, a) >= 0) {
+                continue; // 前面已经处理过
+            }
+            Neighbors n = null;
+            for (int j = 0; j < size; j++) {
+                int b = productIds[j];
+                if (b == a || indexOf(productIds, j, b) >= 0) {
+                    continue;
+                }
+                if (n == null) {
+                    n = target.computeIfAbsent(a, k -> new Neighbors(neighbors * 2));
+                }
+                n.increment(b, 1, neighbors);
+            }
+        }
+        changed.set(true);
+    }
+
+    private static int indexOf(int[] values, int size, int value) {
+        for (int i = 0; i < size; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 一个商品的邻居，按共现次数从高到低排列
+     */
+    private static class Neighbors {
+        private int[] ids;
+        private int[] counts;
+        private int size;
+
+        Neighbors(int capacity) {
+            ids = new int[capacity];
+            counts = new int[capacity];
+        }
+
+        synchronized void increment(int productId, int amount, int keep) {
+            int pos = indexOf(ids, size, productId);
+            if (pos < 0) {
+                if (size == ids.length) {
+                    // 满了：截断为前 keep 个，给新出现的邻居腾出位置
+                    size = Math.min(size, keep);
+                    if (size == ids.length) {
+                        ids = Arrays.copyOf(ids, size * 2);
+                        counts = Arrays.copyOf(counts, size * 2);
+                    }
+                }
+                pos = size++;
+                ids[pos] = productId;
+                counts[pos] = 0;
+            }
+            counts[pos] = (int) Math.min(Integer.MAX_VALUE, (long) counts[pos] + amount);
+            // 次数只会变大，只需要向前冒泡
+            int count = counts[pos];
+            while (pos > 0 && counts[pos - 1] < count) {
+                ids[pos] = ids[pos - 1];
+                counts[pos] = counts[pos - 1];
+                pos--;
+            }
+            ids[pos] = productId;
+            counts[pos] = count;
+        }
+    }
+}
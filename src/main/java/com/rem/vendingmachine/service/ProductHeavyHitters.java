@@ -0,0 +1,302 @@
+package com.rem.vendingmachine.service;
+
+import com.rem.vendingmachine.dao.SalesRollupMapper;
+import com.rem.vendingmachine.dao.VendingMachineMapper;
+import com.rem.vendingmachine.model.HeavyHitter;
+import com.rem.vendingmachine.model.HeavyHitterReport;
+import com.rem.vendingmachine.model.Order;
+import com.rem.vendingmachine.model.OrderCommittedEvent;
+import com.rem.vendingmachine.model.OrderItem;
+import com.rem.vendingmachine.model.SalesRollup;
+import com.rem.vendingmachine.model.VendingMachine;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 全部售货机、每个区域、每台售货机的近似热销商品
+ * 每个范围每小时一个 {@link SpaceSavingSketch}（计数器个数 = 1 / 误差率，和商品数、订单数无关），
+ * 一天结束后把 24 个小时草图合并成一个天草图。查询最近 N 小时时，完整包含在窗口内的天用天草图，其余用小时草图，合并后给出估计值和误差。
+ * 小时草图保留 hourly-retention-hours 小时，天草图保留 daily-retention-days 天，超出小时草图保留范围的窗口按整天计算。
+ * 区域取售货机的位置信息（location_desc）。启动时从销售汇总表加载保留范围内的销量；集群模式下每个节点只累加自己提交的订单。
+ */
+@Service
+public class ProductHeavyHitters {
+
+    private static final String FLEET = "fleet";
+    private static final String MACHINE = "machine";
+    private static final String REGION = "region";
+    private static final String UNKNOWN_REGION = "未知";
+
+    @Autowired
+    private VendingMachineMapper vendingMachineMapper;
+
+    @Autowired
+    private SalesRollupMapper salesRollupMapper;
+
+    // 误差率 ε：估计值最多比真实销量高 ε × 窗口总销量
+    @Value("${vendingmachine.heavy-hitters.error-rate:0.01}")
+    private double errorRate = 0.01;
+
+    // 小时草图保留的小时数，至少 25 小时（保证一天结束时当天的小时草图都还在）
+    @Value("${vendingmachine.heavy-hitters.hourly-retention-hours:48}")
+    private int hourlyRetentionHours = 48;
+
+    // 天草图保留的天数，也是查询窗口的上限
+    @Value("${vendingmachine.heavy-hitters.daily-retention-days:30}")
+    private int dailyRetentionDays = 30;
+
+    // 范围（fleet、machine:ID、region:名称） -> 草图
+    private final Map<String, Window> windows = new ConcurrentHashMap<>();
+
+    // 售货机 ID -> 区域
+    private final Map<Integer, String> regions = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        if (errorRate <= 0 || errorRate > 1) {
+            throw new IllegalStateException("vendingmachine.heavy-hitters.error-rate 必须在 (0, 1] 之间: " + errorRate);
+        }
+        loadRegions();
+
+        // 小时汇总从小时草图保留范围的起点开始加载；保留范围起点所在的天只有一部分小时在保留范围内，
+        // 由小时草图合并会缺少前面的小时，所以这一天和更早的天直接加载天汇总。
+        // 先加载小时汇总：小时草图累加时会同时累加已经存在的天草图（迟到的订单），先加载天汇总会重复计算
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime hourlyFrom = hourlyCutoff(now);
+        LocalDateTime dailyFrom = dailyCutoff(now).atStartOfDay();
+        LocalDateTime dailyTo = hourlyFrom.truncatedTo(ChronoUnit.DAYS).plusDays(1);
+        int buckets = 0;
+        for (SalesRollup rollup : salesRollupMapper.selectRollups(false, hourlyFrom, now)) {
+            record(rollup.getMachineId(), rollup.getProductId(), rollup.getUnits(), rollup.getBucketStart(), now);
+            buckets++;
+        }
+        for (SalesRollup rollup : salesRollupMapper.selectRollups(true, dailyFrom, dailyTo)) {
+            for (String key : keys(rollup.getMachineId())) {
+                window(key).addDaily(rollup.getBucketStart().toLocalDate(), rollup.getProductId(), rollup.getUnits());
+            }
+            buckets++;
+        }
+        roll();
+        System.out.println("热销商品草图已加载范围数: " + windows.size() + ", 汇总桶数: " + buckets
+                + ", 误差率: " + errorRate + ", 每个草图计数器数: " + newSketch().getCapacity());
+    }
+
+    /**
+     * 订单提交后把每个订单项的件数累加到全部售货机、所在区域、所在售货机的当前小时草图
+     */
+    @TransactionalEventListener
+    public void onOrderCommitted(OrderCommittedEvent event) {
+        Order order = event.getOrder();
+        List<OrderItem> items = order.getOrderItems();
+        if (items == null || items.isEmpty()) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime at = order.getCreateTime() != null ? order.getCreateTime() : now;
+        for (OrderItem item : items) {
+            record(order.getMachineId(), item.getProductId(), item.getQuantity(), at, now);
+        }
+    }
+
+    /**
+     * 每小时把已经结束的天的小时草图合并成天草图，清理超出保留范围的草图，并刷新售货机所在区域
+     */
+    @Scheduled(cron = "${vendingmachine.heavy-hitters.roll-cron:0 5 * * * *}")
+    public void roll() {
+        LocalDateTime now = LocalDateTime.now();
+        int rolled = 0;
+        for (Window window : windows.values()) {
+            rolled += window.roll(now.toLocalDate(), hourlyCutoff(now), dailyCutoff(now));
+        }
+        if (rolled > 0) {
+            System.out.println("热销商品小时草图已合并为天草图: " + rolled + " 个");
+        }
+        loadRegions();
+    }
+
+    /**
+     * 最近 hours 小时（含当前小时）销量最高的商品
+     *
+     * @param scope fleet（全部售货机）、machine（id 为售货机 ID）或 region（id 为区域名称）
+     */
+    public HeavyHitterReport top(String scope, String id, int hours, int limit) {
+        String key = key(scope, id);
+        int maxHours = dailyRetentionDays * 24;
+        if (hours <= 0 || hours > maxHours) {
+            throw new RuntimeException("时间窗口必须在 1 ~ " + maxHours + " 小时之间");
+        }
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime end = now.truncatedTo(ChronoUnit.HOURS).plusHours(1);
+        LocalDateTime start = end.minusHours(hours);
+        if (start.isBefore(hourlyCutoff(now))) {
+            start = start.truncatedTo(ChronoUnit.DAYS); // 早于小时草图保留范围，按整天计算
+        }
+
+        SpaceSavingSketch merged = newSketch();
+        Window window = windows.get(key);
+        if (window != null) {
+            window.mergeInto(merged, start, end);
+        }
+        List<HeavyHitter> items = new ArrayList<>();
+        for (long[] entry : merged.top(limit)) {
+            items.add(new HeavyHitter((int) entry[0], entry[1], entry[2], entry[1] - entry[2]));
+        }
+        String reportId = FLEET.equals(key) ? null : key.substring(key.indexOf(':') + 1);
+        return new HeavyHitterReport(scope.toLowerCase(), reportId, start, end, merged.getTotal(),
+                merged.getTotal() / merged.getCapacity(), items);
+    }
+
+    private void record(Integer machineId, int productId, long units, LocalDateTime at, LocalDateTime now) {
+        LocalDateTime hour = at.truncatedTo(ChronoUnit.HOURS);
+        LocalDateTime cutoff = hourlyCutoff(now);
+        for (String key : keys(machineId)) {
+            window(key).add(hour, productId, units, cutoff);
+        }
+    }
+
+    // 一个订单项要累加到的范围：全部售货机，以及能确定售货机时的售货机和区域
+    private List<String> keys(Integer machineId) {
+        List<String> keys = new ArrayList<>(3);
+        keys.add(FLEET);
+        if (machineId != null && machineId > 0) {
+            keys.add(MACHINE + ":" + machineId);
+            keys.add(REGION + ":" + region(machineId));
+        }
+        return keys;
+    }
+
+    private String key(String scope, String id) {
+        if (FLEET.equalsIgnoreCase(scope)) {
+            return FLEET;
+        }
+        if (MACHINE.equalsIgnoreCase(scope)) {
+            try {
+                return MACHINE + ":" + Integer.parseInt(id);
+            } catch (NumberFormatException e) {
+                throw new RuntimeException("售货机ID格式不正确: " + id);
+            }
+        }
+        if (REGION.equalsIgnoreCase(scope)) {
+            if (id == null || id.isBlank()) {
+                throw new RuntimeException("请指定区域名称");
+            }
+            return REGION + ":" + id.trim();
+        }
+        throw new RuntimeException("不支持的统计范围: " + scope + "，可选 fleet、machine 或 region");
+    }
+
+    private String region(int machineId) {
+        String region = regions.get(machineId);
+        if (region == null) {
+            VendingMachine machine = vendingMachineMapper.selectVendingMachineById(machineId);
+            region = regionOf(machine);
+            regions.put(machineId, region);
+        }
+        return region;
+    }
+
+    private void loadRegions() {
+        for (VendingMachine machine : vendingMachineMapper.selectAllVendingMachines()) {
+            regions.put(machine.getId(), regionOf(machine));
+        }
+    }
+
+    private static String regionOf(VendingMachine machine) {
+        if (machine == null || machine.getLocationDesc() == null || machine.getLocationDesc().isBlank()) {
+            return UNKNOWN_REGION;
+        }
+        return machine.getLocationDesc().trim();
+    }
+
+    private Window window(String key) {
+        return windows.computeIfAbsent(key, k -> new Window());
+    }
+
+    private SpaceSavingSketch newSketch() {
+        return SpaceSavingSketch.withErrorRate(errorRate);
+    }
+
+    private LocalDateTime hourlyCutoff(LocalDateTime now) {
+        return now.truncatedTo(ChronoUnit.HOURS).minusHours(Math.max(25, hourlyRetentionHours) - 1);
+    }
+
+    private LocalDate dailyCutoff(LocalDateTime now) {
+        return now.toLocalDate().minusDays(dailyRetentionDays);
+    }
+
+    /**
+     * 一个范围的小时草图和天草图，只在 synchronized 方法中读写
+     */
+    private class Window {
+        private final TreeMap<LocalDateTime, SpaceSavingSketch> hourly = new TreeMap<>();
+        private final TreeMap<LocalDate, SpaceSavingSketch> daily = new TreeMap<>();
+
+        synchronized void add(LocalDateTime hour, int productId, long units, LocalDateTime hourlyCutoff) {
+            if (!hour.isBefore(hourlyCutoff)) {
+                hourly.computeIfAbsent(hour, h -> newSketch()).add(productId, units);
+            }
+            // 当天已经合并过天草图时（迟到的订单），天草图也要累加
+            SpaceSavingSketch day = daily.get(hour.toLocalDate());
+            if (day != null) {
+                day.add(productId, units);
+            }
+        }
+
+        synchronized void addDaily(LocalDate day, int productId, long units) {
+            daily.computeIfAbsent(day, d -> newSketch()).add(productId, units);
+        }
+
+        // 合并已经结束的天并清理过期草图，返回新合并的天数
+        synchronized int roll(LocalDate today, LocalDateTime hourlyCutoff, LocalDate dailyCutoff) {
+            int rolled = 0;
+            LocalDateTime hour = hourly.isEmpty() ? null : hourly.firstKey();
+            while (hour != null && hour.toLocalDate().isBefore(today)) {
+                LocalDate day = hour.toLocalDate();
+                LocalDateTime nextDay = day.plusDays(1).atStartOfDay();
+                if (!daily.containsKey(day)) {
+                    SpaceSavingSketch merged = newSketch();
+                    for (SpaceSavingSketch sketch : hourly.subMap(day.atStartOfDay(), nextDay).values()) {
+                        merged.merge(sketch);
+                    }
+                    daily.put(day, merged);
+                    rolled++;
+                }
+                hour = hourly.ceilingKey(nextDay);
+            }
+            hourly.headMap(hourlyCutoff).clear();
+            daily.headMap(dailyCutoff).clear();
+            return rolled;
+        }
+
+        synchronized void mergeInto(SpaceSavingSketch target, LocalDateTime start, LocalDateTime end) {
+            LocalDateTime t = start;
+            while (t.isBefore(end)) {
+                LocalDateTime nextDay = t.plusDays(1);
+                SpaceSavingSketch day = t.getHour() == 0 && !nextDay.isAfter(end) ? daily.get(t.toLocalDate()) : null;
+                if (day != null) {
+                    target.merge(day);
+                    t = nextDay;
+                    continue;
+                }
+                SpaceSavingSketch sketch = hourly.get(t);
+                if (sketch != null) {
+                    target.merge(sketch);
+                }
+                t = t.plusHours(1);
+            }
+        }
+    }
+}
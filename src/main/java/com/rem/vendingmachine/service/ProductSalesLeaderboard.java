@@ -0,0 +1,182 @@
+package com.rem.vendingmachine.service;
+
+import com.rem.vendingmachine.dao.OrderItemMapper;
+import com.rem.vendingmachine.model.OrderCommittedEvent;
+import com.rem.vendingmachine.model.OrderItem;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 商品销量排行榜
+ * 启动时用一次 GROUP BY 从 order_item 加载每个商品的累计销量，之后每个订单提交时按订单项增量累加，
+ * 查询热销商品不再扫描 order_item。销量保存在以商品 ID 为键的开放寻址数组里（int 键、long 值，不装箱），
+ * 同时维护一个按销量从高到低排好序的前 K 名：销量只增不减，不在前 K 名的商品只有超过第 K 名时才会进入，
+ * 每次累加和每次查询都是 O(K)。
+ * 集群模式下每个节点只累加自己提交的订单，重启后从数据库重新加载。
+ */
+@Service
+public class ProductSalesLeaderboard {
+
+    @Autowired
+    private OrderItemMapper orderItemMapper;
+
+    // 排行榜保留的名次数，热销接口最多返回这么多商品
+    @Value("${vendingmachine.leaderboard.top-k:50}")
+    private int topK = 50;
+
+    // 商品 ID -> 累计销量，线性探测；keys 中 0 表示空位（商品 ID 从 1 开始）
+    private int[] keys = new int[64];
+    private long[] counts = new long[64];
+    private int size;
+
+    // 前 K 名，按销量从高到低
+    private int[] topIds = new int[0];
+    private long[] topCounts = new long[0];
+    private int topSize;
+
+    @PostConstruct
+    public void init() {
+        List<Map<String, Object>> rows = orderItemMapper.getTopSellingProductsWithQuantities();
+        synchronized (this) {
+            for (Map<String, Object> row : rows) {
+                add(((Number) row.get("productId")).intValue(), ((Number) row.get("quantity")).longValue());
+            }
+        }
+        System.out.println("销量排行榜已加载商品数: " + size + ", 保留前 " + topK + " 名");
+    }
+
+    /**
+     * 订单提交后累加订单项的销量
+     */
+    @TransactionalEventListener
+    public void onOrderCommitted(OrderCommittedEvent event) {
+        List<OrderItem> items = event.getOrder().getOrderItems();
+        if (items == null || items.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            for (OrderItem item : items) {
+                add(item.getProductId(), item.getQuantity());
+            }
+        }
+    }
+
+    /**
+     * 销量最高的商品 ID，最多 limit 个
+     */
+    public synchronized List<Integer> getTopProductIds(int limit) {
+        int n = Math.min(limit, topSize);
+        List<Integer> ids = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            ids.add(topIds[i]);
+        }
+        return ids;
+    }
+
+    /**
+     * 销量最高的商品及销量（productId、quantity），最多 limit 个
+     */
+    public synchronized List<Map<String, Object>> getTopProducts(int limit) {
+        int n = Math.min(limit, topSize);
+        List<Map<String, Object>> result = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            Map<String, Object> row = new HashMap<>(4);
+            row.put("productId", topIds[i]);
+            row.put("quantity", topCounts[i]);
+            result.add(row);
+        }
+        return result;
+    }
+
+    /**
+     * 某个商品的累计销量
+     */
+    public synchronized long getQuantity(int productId) {
+        int slot = find(productId);
+        return keys[slot] == productId ? counts[slot] : 0;
+    }
+
+    // 累加销量并调整前 K 名，调用方持有锁
+    private void add(int productId, long quantity) {
+        if (productId <= 0 || quantity <= 0) {
+            return;
+        }
+        int slot = find(productId);
+        if (keys[slot] != productId) {
+            keys[slot] = productId;
+            size++;
+        }
+        counts[slot] += quantity;
+        long total = counts[slot];
+        if (size * 2 > keys.length) {
+            resize();
+        }
+        updateTop(productId, total);
+    }
+
+    private void updateTop(int productId, long total) {
+        if (topIds.length == 0) {
+            topIds = new int[Math.max(1, topK)];
+            topCounts = new long[topIds.length];
+        }
+        int pos = -1;
+        for (int i = 0; i < topSize; i++) {
+            if (topIds[i] == productId) {
+                pos = i;
+                break;
+            }
+        }
+        if (pos < 0) {
+            if (topSize < topIds.length) {
+                pos = topSize++;
+            } else if (total > topCounts[topSize - 1]) {
+                pos = topSize - 1; // 挤掉第 K 名
+            } else {
+                return;
+            }
+            topIds[pos] = productId;
+        }
+        topCounts[pos] = total;
+        // 销量只会变大，只需要向前冒泡
+        while (pos > 0 && topCounts[pos - 1] < total) {
+            topIds[pos] = topIds[pos - 1];
+            topCounts[pos] = topCounts[pos - 1];
+            pos--;
+        }
+        topIds[pos] = productId;
+        topCounts[pos] = total;
+    }
+
+    // 返回 productId 所在的槽位，不存在时返回它应该插入的空槽位
+    private int find(int productId) {
+        int mask = keys.length - 1;
+        int h = productId * 0x9E3779B9;
+        int slot = (h ^ (h >>> 16)) & mask;
+        while (keys[slot] != 0 && keys[slot] != productId) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize() {
+        int[] oldKeys = keys;
+        long[] oldCounts = counts;
+        keys = new int[oldKeys.length * 2];
+        counts = new long[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+}
@@ -21,4 +21,6 @@ public interface ProductService {
     boolean restockProductById(int id, int quantity);//补库存
 
     List<Product> getRecommendedProducts(int userId);
+
+    List<Product> getComplementaryProducts(List<Integer> cart, int limit); //和购物车中的商品经常一起购买的商品
 }
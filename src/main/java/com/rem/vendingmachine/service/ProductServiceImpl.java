@@ -7,7 +7,6 @@ import com.rem.vendingmachine.model.Product;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.util.ArrayList;
 import java.util.List;
 
 @Service
@@ -19,6 +18,12 @@ public class ProductServiceImpl implements ProductService {
     @Autowired
     private OrderItemMapper orderItemMapper;
 
+    @Autowired
+    private RecommendationService recommendationService;
+
+    @Autowired
+    private ProductCooccurrenceIndex productCooccurrenceIndex;
+
     @Override
     public boolean addProduct(Product product) {
         return productMapper.insertProduct(product) > 0;
@@ -26,7 +31,9 @@ public class ProductServiceImpl implements ProductService {
 
     @Override
     public boolean updateProduct(Product product) {
-        return productMapper.updateProduct(product) > 0;
+        boolean updated = productMapper.updateProduct(product) > 0;
+        recommendationService.evictProduct(product.getId());
+        return updated;
     }
 
     @Override
@@ -36,7 +43,9 @@ public class ProductServiceImpl implements ProductService {
             throw new RuntimeException("无法删除商品，该商品已被订单使用，不允许删除。");
         }
         // 执行删除操作
-        return productMapper.deleteProductById(id) > 0;
+        boolean deleted = productMapper.deleteProductById(id) > 0;
+        recommendationService.evictProduct(id);
+        return deleted;
     }
 
     @Override
@@ -51,37 +60,13 @@ public class ProductServiceImpl implements ProductService {
 
     @Override
     public List<Product> getRecommendedProducts(int userId) {
-        List<Product> recommendedProducts = new ArrayList<>();
-
-        // 1. 获取用户的历史订单商品，并按购买总量排序
-        List<Integer> userTopProducts = orderItemMapper.getTopPurchasedProductsByUser(userId);
-
-        // 2. 查询全局热销商品
-        List<Integer> globalTopProducts = orderItemMapper.getTopSellingProducts();
-
-        // 3. 根据用户购买记录优先推荐
-        for (Integer productId : userTopProducts) {
-            Product product = productMapper.selectProductById(productId);
-            if (product != null) {
-                recommendedProducts.add(product);
-            }
-        }
-
-        // 4. 添加剩余的全局热销商品（排除已经推荐的用户购买商品）
-        for (Integer productId : globalTopProducts) {
-            if (userTopProducts.contains(productId)) continue; // 跳过已推荐商品
-            Product product = productMapper.selectProductById(productId);
-            if (product != null) {
-                recommendedProducts.add(product);
-            }
-        }
-
-        // 5. 如果系统没有任何销量记录，直接返回商品默认排序
-        if (recommendedProducts.isEmpty()) {
-            recommendedProducts = productMapper.selectAllProduct();
-        }
+        return recommendationService.recommend(userId);
+    }
 
-        return recommendedProducts;
+    @Override
+    public List<Product> getComplementaryProducts(List<Integer> cart, int limit) {
+        // 商品信息走推荐的商品缓存，命中时不访问数据库
+        return recommendationService.getProducts(productCooccurrenceIndex.complements(cart, limit));
     }
 
     //下面两个暂时不用
@@ -92,6 +77,8 @@ public class ProductServiceImpl implements ProductService {
 
     @Override
     public boolean restockProductById(int id, int quantity) {
-        return productMapper.updateStock(id, quantity) > 0;
+        boolean restocked = productMapper.updateStock(id, quantity) > 0;
+        recommendationService.evictProduct(id);
+        return restocked;
     }
 }
@@ -0,0 +1,142 @@
+package com.rem.vendingmachine.service;
+
+import com.rem.vendingmachine.dao.OrderMapper;
+import com.rem.vendingmachine.model.OrderCommittedEvent;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * 推荐结果预计算
+ * 定时为用户批量计算推荐商品并保存在 {@link RecommendationService} 中，推荐接口直接使用保存的结果。
+ * 用户按 partition-size 分片，在专用的 ForkJoinPool 中并行计算，每个分片一次查询所有用户的购买画像。
+ * 增量计算：只重新计算上次运行之后下过单的用户（本节点提交的订单 + 数据库中上次运行之后的订单，覆盖其他节点）；
+ * 每隔 full-refresh-hours 小时全量计算一次最近 active-days 天下过单的用户，让全局热销商品的变化也体现在推荐里，并清理不再活跃的用户。
+ */
+@Service
+public class RecommendationMaterializer {
+
+    @Autowired
+    private RecommendationService recommendationService;
+
+    @Autowired
+    private OrderMapper orderMapper;
+
+    // 并行计算的线程数，不要超过数据库连接池大小
+    @Value("${vendingmachine.recommendation.materialize-parallelism:4}")
+    private int parallelism = 4;
+
+    // 每个分片的用户数，即一次批量查询的用户数
+    @Value("${vendingmachine.recommendation.materialize-partition-size:200}")
+    private int partitionSize = 200;
+
+    // 最近多少天下过单的用户算作活跃用户
+    @Value("${vendingmachine.recommendation.active-days:90}")
+    private int activeDays = 90;
+
+    // 全量计算的间隔
+    @Value("${vendingmachine.recommendation.full-refresh-hours:24}")
+    private int fullRefreshHours = 24;
+
+    private ForkJoinPool pool;
+
+    // 上次运行之后本节点提交过订单的用户
+    private final Set<Integer> dirty = ConcurrentHashMap.newKeySet();
+
+    // 以下两个字段只在定时任务线程中读写
+    private LocalDateTime lastRunStart;
+    private LocalDateTime lastFullRunStart;
+
+    @PostConstruct
+    public void init() {
+        pool = new ForkJoinPool(Math.max(1, parallelism));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * 订单提交后标记该用户需要重新计算
+     */
+    @TransactionalEventListener
+    public void onOrderCommitted(OrderCommittedEvent event) {
+        dirty.add(event.getOrder().getUserId());
+    }
+
+    /**
+     * 计算需要更新的用户的推荐结果，结束后在日志中输出用户数、耗时和每秒用户数
+     */
+    @Scheduled(fixedDelayString = "${vendingmachine.recommendation.materialize-interval-ms:60000}")
+    public void materialize() {
+        LocalDateTime runStart = LocalDateTime.now();
+        boolean full = lastFullRunStart == null || !runStart.isBefore(lastFullRunStart.plusHours(fullRefreshHours));
+
+        Set<Integer> users = new HashSet<>();
+        for (Integer userId : dirty) {
+            dirty.remove(userId);
+            users.add(userId);
+        }
+        // 多留 1 分钟余量，覆盖上次运行开始时还没提交的订单
+        LocalDateTime since = full ? runStart.minusDays(activeDays) : lastRunStart.minusMinutes(1);
+
+        long startNanos = System.nanoTime();
+        int computed;
+        try {
+            users.addAll(orderMapper.selectUserIdsWithOrdersSince(since));
+            computed = users.isEmpty() ? 0 : pool.invoke(new Partition(new ArrayList<>(users)));
+        } catch (RuntimeException e) {
+            // 下次运行时重新计算这些用户
+            dirty.addAll(users);
+            System.err.println("推荐预计算失败，用户数: " + users.size() + ", 错误: " + e.getMessage());
+            return;
+        }
+        int evicted = full ? recommendationService.retainMaterialized(users) : 0;
+        lastRunStart = runStart;
+        if (full) {
+            lastFullRunStart = runStart;
+        }
+        if (computed > 0 || evicted > 0) {
+            long elapsedMs = Math.max(1, (System.nanoTime() - startNanos) / 1_000_000);
+            System.out.println("推荐预计算完成 - 模式: " + (full ? "全量" : "增量") + ", 用户数: " + computed
+                    + ", 移除不活跃用户数: " + evicted + ", 耗时: " + elapsedMs + "ms, 速度: " + (computed * 1000L / elapsedMs) + " 用户/秒");
+        }
+    }
+
+    /**
+     * 一组用户：超过 partition-size 时对半拆分并行计算，否则批量计算，返回计算的用户数
+     */
+    private class Partition extends RecursiveTask<Integer> {
+        private final List<Integer> userIds;
+
+        Partition(List<Integer> userIds) {
+            this.userIds = userIds;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (userIds.size() <= Math.max(1, partitionSize)) {
+                return recommendationService.materialize(userIds);
+            }
+            int mid = userIds.size() / 2;
+            Partition left = new Partition(userIds.subList(0, mid));
+            Partition right = new Partition(userIds.subList(mid, userIds.size()));
+            left.fork();
+            return right.compute() + left.join();
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.rem.vendingmachine.service;
+
+import com.rem.vendingmachine.dao.OrderItemMapper;
+import com.rem.vendingmachine.dao.ProductMapper;
+import com.rem.vendingmachine.model.OrderCommittedEvent;
+import com.rem.vendingmachine.model.OrderItem;
+import com.rem.vendingmachine.model.Product;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 商品推荐
+ * 先推荐用户自己买得最多的商品，再用全局热销商品（{@link ProductSalesLeaderboard}）补足，最多 top-n 个。
+ * 每个用户的购买画像（商品 ID -> 累计购买数量）放在有容量上限的 LRU 缓存里，过期后重新查询；
+ * 用户的订单提交后直接累加到已缓存的画像上。商品信息也有缓存，缺的商品用一条 WHERE id IN (...) 批量查询。
+ * 缓存命中时一次推荐不访问数据库。
+ * {@link RecommendationMaterializer} 定时为活跃用户批量预计算推荐结果，有预计算结果的用户直接使用，不再计算画像。
+ */
+@Service
+public class RecommendationService {
+
+    @Autowired
+    private OrderItemMapper orderItemMapper;
+
+    @Autowired
+    private ProductMapper productMapper;
+
+    @Autowired
+    private ProductSalesLeaderboard productSalesLeaderboard;
+
+    // 每次最多推荐的商品数
+    @Value("${vendingmachine.recommendation.top-n:10}")
+    private int topN = 10;
+
+    // 最多缓存多少个用户的购买画像，超出后淘汰最久未使用的
+    @Value("${vendingmachine.recommendation.profile-cache-size:10000}")
+    private int profileCacheSize = 10000;
+
+    // 购买画像的有效期，过期后重新查询（兜底其他节点提交的订单）
+    @Value("${vendingmachine.recommendation.profile-ttl-seconds:600}")
+    private long profileTtlSeconds = 600;
+
+    // 商品信息的有效期
+    @Value("${vendingmachine.recommendation.product-ttl-seconds:60}")
+    private long productTtlSeconds = 60;
+
+    // 用户 ID -> 购买画像，按访问顺序排列，只在 synchronized (profiles) 中读写
+    private final LinkedHashMap<Integer, Profile> profiles = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Profile> eldest) {
+            return size() > profileCacheSize;
+        }
+    };
+
+    // 商品 ID -> 商品信息
+    private final Map<Integer, CachedProduct> products = new ConcurrentHashMap<>();
+
+    // 用户 ID -> 预计算的推荐商品 ID
+    private final Map<Integer, int[]> materialized = new ConcurrentHashMap<>();
+
+    /**
+     * 为用户推荐商品，最多 top-n 个
+     */
+    public List<Product> recommend(int userId) {
+        int[] stored = materialized.get(userId);
+        List<Integer> productIds;
+        if (stored != null) {
+            productIds = new ArrayList<>(stored.length);
+            for (int productId : stored) {
+                productIds.add(productId);
+            }
+        } else {
+            productIds = recommendProductIds(userId);
+        }
+        List<Product> result = getProducts(productIds);
+
+        // 系统还没有任何销量记录时，按商品默认顺序推荐
+        if (result.isEmpty()) {
+            List<Product> all = productMapper.selectAllProduct();
+            result = new ArrayList<>(all.subList(0, Math.min(topN, all.size())));
+        }
+        return result;
+    }
+
+    /**
+     * 为用户推荐的商品 ID：用户购买数量最多的在前，全局热销商品补足，最多 top-n 个
+     */
+    public List<Integer> recommendProductIds(int userId) {
+        return recommendProductIds(profile(userId), productSalesLeaderboard.getTopProductIds(topN * 2));
+    }
+
+    /**
+     * 一次查询一组用户的购买画像，计算并保存他们的推荐商品 ID，返回计算的用户数
+     */
+    public int materialize(List<Integer> userIds) {
+        if (userIds.isEmpty()) {
+            return 0;
+        }
+        Map<Integer, Profile> loaded = new HashMap<>(userIds.size() * 2);
+        long now = System.currentTimeMillis();
+        for (Map<String, Object> row : orderItemMapper.selectUserPurchaseProfiles(userIds)) {
+            loaded.computeIfAbsent(((Number) row.get("userId")).intValue(), k -> new Profile(now))
+                    .add(((Number) row.get("productId")).intValue(), ((Number) row.get("quantity")).longValue());
+        }
+        List<Integer> topSellers = productSalesLeaderboard.getTopProductIds(topN * 2);
+        for (int userId : userIds) {
+            Profile profile = loaded.getOrDefault(userId, new Profile(now));
+            List<Integer> ids = recommendProductIds(profile, topSellers);
+            int[] stored = new int[ids.size()];
+            for (int i = 0; i < stored.length; i++) {
+                stored[i] = ids.get(i);
+            }
+            materialized.put(userId, stored);
+        }
+        return userIds.size();
+    }
+
+    /**
+     * 只保留这些用户的预计算结果（不再活跃的用户回到按请求计算），返回移除的用户数
+     */
+    public int retainMaterialized(Set<Integer> userIds) {
+        int before = materialized.size();
+        materialized.keySet().retainAll(userIds);
+        return before - materialized.size();
+    }
+
+    private List<Integer> recommendProductIds(Profile profile, List<Integer> topSellers) {
+        Set<Integer> ids = new LinkedHashSet<>();
+        for (int productId : profile.topProducts()) {
+            if (ids.size() >= topN) {
+                break;
+            }
+            ids.add(productId);
+        }
+        if (ids.size() < topN) {
+            for (int productId : topSellers) {
+                if (ids.size() >= topN) {
+                    break;
+                }
+                ids.add(productId);
+            }
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /**
+     * 订单提交后累加到该用户已缓存的购买画像上（未缓存时下次推荐再查询）
+     */
+    @TransactionalEventListener
+    public void onOrderCommitted(OrderCommittedEvent event) {
+        List<OrderItem> items = event.getOrder().getOrderItems();
+        if (items == null || items.isEmpty()) {
+            return;
+        }
+        synchronized (profiles) {
+            Profile profile = profiles.get(event.getOrder().getUserId());
+            if (profile != null) {
+                for (OrderItem item : items) {
+                    profile.add(item.getProductId(), item.getQuantity());
+                }
+            }
+        }
+    }
+
+    /**
+     * 商品信息被修改或删除后移除缓存
+     */
+    public void evictProduct(int productId) {
+        products.remove(productId);
+    }
+
+    private Profile profile(int userId) {
+        long now = System.currentTimeMillis();
+        synchronized (profiles) {
+            Profile profile = profiles.get(userId);
+            if (profile != null && now - profile.loadedAt < TimeUnit.SECONDS.toMillis(profileTtlSeconds)) {
+                return profile;
+            }
+        }
+
+        // 在锁外查询，期间提交的订单可能没有计入，最多在有效期后修正
+        Profile loaded = new Profile(now);
+        for (Map<String, Object> row : orderItemMapper.selectUserPurchaseProfile(userId)) {
+            loaded.add(((Number) row.get("productId")).intValue(), ((Number) row.get("quantity")).longValue());
+        }
+        synchronized (profiles) {
+            profiles.put(userId, loaded);
+        }
+        return loaded;
+    }
+
+    /**
+     * 按顺序返回商品信息，缓存中没有或已过期的商品一次批量查询，不存在的商品跳过
+     */
+    public List<Product> getProducts(List<Integer> productIds) {
+        long now = System.currentTimeMillis();
+        long ttlMillis = TimeUnit.SECONDS.toMillis(productTtlSeconds);
+        List<Integer> missing = new ArrayList<>();
+        for (int productId : productIds) {
+            CachedProduct cached = products.get(productId);
+            if (cached == null || now - cached.loadedAt >= ttlMillis) {
+                missing.add(productId);
+            }
+        }
+        Map<Integer, Product> fetched = new HashMap<>();
+        if (!missing.isEmpty()) {
+            for (Product product : productMapper.selectProductsByIds(missing)) {
+                fetched.put(product.getId(), product);
+                products.put(product.getId(), new CachedProduct(product, now));
+            }
+            for (int productId : missing) {
+                if (!fetched.containsKey(productId)) {
+                    products.remove(productId); // 商品已被删除
+                }
+            }
+        }
+
+        List<Product> result = new ArrayList<>(productIds.size());
+        for (int productId : productIds) {
+            Product product = fetched.get(productId);
+            if (product == null) {
+                CachedProduct cached = products.get(productId);
+                product = cached != null ? cached.product : null;
+            }
+            if (product != null) {
+                result.add(product);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 用户购买画像：商品 ID -> 累计购买数量
+     */
+    private static class Profile {
+        private final long loadedAt;
+        private final Map<Integer, Long> quantities = new HashMap<>();
+
+        Profile(long loadedAt) {
+            this.loadedAt = loadedAt;
+        }
+
+        synchronized void add(int productId, long quantity) {
+            quantities.merge(productId, quantity, Long::sum);
+        }
+
+        // 按购买数量从高到低排列的商品 ID
+        List<Integer> topProducts() {
+            List<long[]> entries = new ArrayList<>();
+            synchronized (this) {
+                for (Map.Entry<Integer, Long> entry : quantities.entrySet()) {
+                    entries.add(new long[]{entry.getKey(), entry.getValue()});
+                }
+            }
+            entries.sort((a, b) -> Long.compare(b[1], a[1]));
+            List<Integer> ids = new ArrayList<>(entries.size());
+            for (long[] entry : entries) {
+                ids.add((int) entry[0]);
+            }
+            return ids;
+        }
+    }
+
+    private static class CachedProduct {
+        private final Product product;
+        private final long loadedAt;
+
+        CachedProduct(Product product, long loadedAt) {
+            this.product = product;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
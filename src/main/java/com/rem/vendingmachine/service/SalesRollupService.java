@@ -0,0 +1,324 @@
+package com.rem.vendingmachine.service;
+
+import com.rem.vendingmachine.dao.SalesRollupMapper;
+import com.rem.vendingmachine.model.OrderCommittedEvent;
+import com.rem.vendingmachine.model.OrderItem;
+import com.rem.vendingmachine.model.SalesRollup;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 销售汇总
+ * 订单提交后把每个订单项的销量和销售额累加到内存中对应的 (小时, 商品, 售货机) 桶里，
+ * 定时用 INSERT ... ON DUPLICATE KEY UPDATE 批量累加到小时表和天表，销售趋势查询只读汇总表，不扫描订单明细。
+ * 每晚按订单明细重新汇总最近几天，和汇总表不一致的小时桶和天桶整桶重建（兜底写库失败、节点宕机丢失的增量）。
+ * 查询结果比实际订单最多晚一个刷新间隔。
+ */
+@Service
+public class SalesRollupService {
+
+    @Autowired
+    private SalesRollupMapper salesRollupMapper;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    // 增量写库的间隔
+    @Value("${vendingmachine.rollup.flush-interval-ms:5000}")
+    private long flushIntervalMs = 5000;
+
+    // 单条批量 INSERT 最多包含的小时桶数量
+    @Value("${vendingmachine.rollup.flush-batch-size:500}")
+    private int flushBatchSize;
+
+    // 每晚对账最近多少天（不含当天）
+    @Value("${vendingmachine.rollup.reconcile-days:2}")
+    private int reconcileDays;
+
+    private TransactionTemplate transactionTemplate;
+
+    // (小时, 商品, 售货机) -> {件数, 销售额（分）}，数组只在 compute 中修改
+    private final Map<BucketKey, long[]> pending = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * 订单提交后累加到内存中的小时桶
+     */
+    @TransactionalEventListener
+    public void onOrderCommitted(OrderCommittedEvent event) {
+        List<OrderItem> items = event.getOrder().getOrderItems();
+        if (items == null || items.isEmpty()) {
+            return;
+        }
+        // 下单时 createTime 已经截断到秒，和写入 order_table 的值一致，这里分到的小时桶和按 create_time 重算的结果相同
+        LocalDateTime hour = event.getOrder().getCreateTime().truncatedTo(ChronoUnit.HOURS);
+        Integer machineId = event.getOrder().getMachineId();
+        for (OrderItem item : items) {
+            BucketKey key = new BucketKey(hour, item.getProductId(), machineId != null ? machineId : 0);
+            long units = item.getQuantity();
+            long cents = toCents(item.getSubtotal());
+            pending.compute(key, (k, v) -> {
+                if (v == null) {
+                    return new long[]{units, cents};
+                }
+                v[0] += units;
+                v[1] += cents;
+                return v;
+            });
+        }
+    }
+
+    /**
+     * 把内存中的增量批量累加到小时表和天表；每批的小时桶和对应的天桶在同一个事务里写入，失败时增量放回下次再写
+     */
+    @Scheduled(fixedDelayString = "${vendingmachine.rollup.flush-interval-ms:5000}")
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<SalesRollup> hourly = new ArrayList<>();
+        for (BucketKey key : pending.keySet()) {
+            long[] delta = pending.remove(key);
+            if (delta != null) {
+                hourly.add(new SalesRollup(key.bucketStart, key.productId, key.machineId, delta[0], fromCents(delta[1])));
+            }
+        }
+
+        int batchSize = Math.max(1, flushBatchSize);
+        for (int from = 0; from < hourly.size(); from += batchSize) {
+            List<SalesRollup> batch = hourly.subList(from, Math.min(from + batchSize, hourly.size()));
+            List<SalesRollup> daily = toDaily(batch);
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    salesRollupMapper.batchAddRollups(false, batch);
+                    salesRollupMapper.batchAddRollups(true, daily);
+                });
+            } catch (Exception e) {
+                System.err.println("销售汇总写库失败，桶数: " + batch.size() + ", 错误: " + e.getMessage());
+                for (SalesRollup rollup : batch) {
+                    long units = rollup.getUnits();
+                    long cents = toCents(rollup.getRevenue());
+                    pending.merge(new BucketKey(rollup.getBucketStart(), rollup.getProductId(), rollup.getMachineId()),
+                            new long[]{units, cents}, (a, b) -> new long[]{a[0] + b[0], a[1] + b[1]});
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    /**
+     * 每晚对账最近几天的汇总
+     */
+    @Scheduled(cron = "${vendingmachine.rollup.reconcile-cron:0 30 3 * * *}")
+    public void reconcileRecentDays() {
+        LocalDate today = LocalDate.now();
+        try {
+            reconcile(today.minusDays(Math.max(1, reconcileDays)), today);
+        } catch (Exception e) {
+            System.err.println("销售汇总对账失败：" + e.getMessage());
+        }
+    }
+
+    /**
+     * 按订单明细重新汇总 [from, to) 中的每一天，重建不一致的小时桶和天桶；也用于首次部署时回填历史数据。
+     * 范围不能覆盖最近两个刷新间隔：这段时间提交的订单可能还在某个节点的内存增量中，重建后再写库会重复计算。
+     *
+     * @return 重建的桶数
+     */
+    public int reconcile(LocalDate from, LocalDate to) {
+        LocalDateTime settled = LocalDateTime.now().minus(2 * Math.max(0, flushIntervalMs), ChronoUnit.MILLIS);
+        if (to.atStartOfDay().isAfter(settled)) {
+            throw new RuntimeException("对账范围不能包含最近 " + 2 * flushIntervalMs + "ms 内的订单（增量可能还没写库），结束日期最晚为 "
+                    + settled.toLocalDate());
+        }
+        flush();
+        long startNanos = System.nanoTime();
+        int rebuiltHours = 0;
+        int rebuiltDays = 0;
+        for (LocalDate day = from; day.isBefore(to); day = day.plusDays(1)) {
+            LocalDateTime dayStart = day.atStartOfDay();
+            LocalDateTime dayEnd = dayStart.plusDays(1);
+
+            List<SalesRollup> expectedHourly = salesRollupMapper.selectHourlyFromOrders(dayStart, dayEnd);
+            Map<LocalDateTime, Map<BucketKey, SalesRollup>> expected = groupByBucket(expectedHourly);
+            Map<LocalDateTime, Map<BucketKey, SalesRollup>> actual = groupByBucket(salesRollupMapper.selectRollups(false, dayStart, dayEnd));
+            Set<LocalDateTime> driftedHours = new HashSet<>();
+            for (LocalDateTime hour = dayStart; hour.isBefore(dayEnd); hour = hour.plusHours(1)) {
+                if (!sameBucket(expected.get(hour), actual.get(hour))) {
+                    driftedHours.add(hour);
+                }
+            }
+            Map<BucketKey, SalesRollup> expectedDaily = groupByBucket(toDaily(expectedHourly)).get(dayStart);
+            Map<BucketKey, SalesRollup> actualDaily = groupByBucket(salesRollupMapper.selectRollups(true, dayStart, dayEnd)).get(dayStart);
+            boolean dayDrifted = !sameBucket(expectedDaily, actualDaily);
+            if (driftedHours.isEmpty() && !dayDrifted) {
+                continue;
+            }
+
+            transactionTemplate.executeWithoutResult(status -> {
+                for (LocalDateTime hour : driftedHours) {
+                    salesRollupMapper.deleteRollups(false, hour, hour.plusHours(1));
+                    Map<BucketKey, SalesRollup> rows = expected.get(hour);
+                    if (rows != null) {
+                        salesRollupMapper.batchAddRollups(false, new ArrayList<>(rows.values()));
+                    }
+                }
+                salesRollupMapper.deleteRollups(true, dayStart, dayEnd);
+                salesRollupMapper.insertDailyFromHourly(dayStart, dayEnd);
+            });
+            // 写库失败后放回内存的增量，对应的订单已经算进重建结果，不能再写一次
+            pending.keySet().removeIf(key -> !key.bucketStart.isBefore(dayStart) && key.bucketStart.isBefore(dayEnd));
+            rebuiltHours += driftedHours.size();
+            rebuiltDays++;
+        }
+        System.out.println("销售汇总对账完成 - 日期: [" + from + ", " + to + "), 重建小时桶: " + rebuiltHours
+                + ", 重建天桶: " + rebuiltDays + ", 耗时: " + (System.nanoTime() - startNanos) / 1_000_000 + "ms");
+        return rebuiltHours + rebuiltDays;
+    }
+
+    /**
+     * 某个商品每个时间桶的销量和销售额
+     */
+    public List<SalesRollup> getProductSeries(int productId, LocalDateTime from, LocalDateTime to, boolean daily) {
+        return salesRollupMapper.selectProductSeries(daily, productId, from, to);
+    }
+
+    /**
+     * 某台售货机每个时间桶的销量和销售额
+     */
+    public List<SalesRollup> getMachineSeries(int machineId, LocalDateTime from, LocalDateTime to, boolean daily) {
+        return salesRollupMapper.selectMachineSeries(daily, machineId, from, to);
+    }
+
+    /**
+     * 时间范围内每个商品的销量和销售额，machineId 为 null 时统计所有售货机
+     */
+    public List<SalesRollup> getProductTotals(Integer machineId, LocalDateTime from, LocalDateTime to, boolean daily) {
+        return salesRollupMapper.selectProductTotals(daily, machineId, from, to);
+    }
+
+    // 把小时桶合并成天桶
+    private List<SalesRollup> toDaily(List<SalesRollup> hourly) {
+        Map<BucketKey, long[]> daily = new LinkedHashMap<>();
+        for (SalesRollup rollup : hourly) {
+            BucketKey key = new BucketKey(rollup.getBucketStart().truncatedTo(ChronoUnit.DAYS), rollup.getProductId(), rollup.getMachineId());
+            long[] sum = daily.computeIfAbsent(key, k -> new long[2]);
+            sum[0] += rollup.getUnits();
+            sum[1] += toCents(rollup.getRevenue());
+        }
+        List<SalesRollup> result = new ArrayList<>(daily.size());
+        for (Map.Entry<BucketKey, long[]> entry : daily.entrySet()) {
+            BucketKey key = entry.getKey();
+            result.add(new SalesRollup(key.bucketStart, key.productId, key.machineId, entry.getValue()[0], fromCents(entry.getValue()[1])));
+        }
+        return result;
+    }
+
+    private Map<LocalDateTime, Map<BucketKey, SalesRollup>> groupByBucket(List<SalesRollup> rollups) {
+        Map<LocalDateTime, Map<BucketKey, SalesRollup>> grouped = new HashMap<>();
+        for (SalesRollup rollup : rollups) {
+            grouped.computeIfAbsent(rollup.getBucketStart(), k -> new HashMap<>())
+                    .put(new BucketKey(rollup.getBucketStart(), rollup.getProductId(), rollup.getMachineId()), rollup);
+        }
+        return grouped;
+    }
+
+    // 两个桶的每一行件数和金额都相同（件数为 0 的行视为不存在）
+    private boolean sameBucket(Map<BucketKey, SalesRollup> expected, Map<BucketKey, SalesRollup> actual) {
+        Map<BucketKey, long[]> a = totals(expected);
+        Map<BucketKey, long[]> b = totals(actual);
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (Map.Entry<BucketKey, long[]> entry : a.entrySet()) {
+            long[] other = b.get(entry.getKey());
+            if (other == null || other[0] != entry.getValue()[0] || other[1] != entry.getValue()[1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Map<BucketKey, long[]> totals(Map<BucketKey, SalesRollup> rows) {
+        Map<BucketKey, long[]> totals = new HashMap<>();
+        if (rows != null) {
+            for (Map.Entry<BucketKey, SalesRollup> entry : rows.entrySet()) {
+                SalesRollup rollup = entry.getValue();
+                if (rollup.getUnits() != 0 || toCents(rollup.getRevenue()) != 0) {
+                    totals.put(entry.getKey(), new long[]{rollup.getUnits(), toCents(rollup.getRevenue())});
+                }
+            }
+        }
+        return totals;
+    }
+
+    private static long toCents(BigDecimal amount) {
+        return amount == null ? 0 : amount.setScale(2, RoundingMode.HALF_UP).movePointRight(2).longValueExact();
+    }
+
+    private static BigDecimal fromCents(long cents) {
+        return BigDecimal.valueOf(cents, 2);
+    }
+
+    /**
+     * 汇总桶：时间桶起点、商品、售货机（0 表示未记录）
+     */
+    private static class BucketKey {
+        private final LocalDateTime bucketStart;
+        private final int productId;
+        private final int machineId;
+
+        BucketKey(LocalDateTime bucketStart, int productId, int machineId) {
+            this.bucketStart = bucketStart;
+            this.productId = productId;
+            this.machineId = machineId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof BucketKey)) {
+                return false;
+            }
+            BucketKey other = (BucketKey) o;
+            return productId == other.productId && machineId == other.machineId && bucketStart.equals(other.bucketStart);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(bucketStart, productId, machineId);
+        }
+    }
+}
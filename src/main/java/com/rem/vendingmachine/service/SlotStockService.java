@@ -0,0 +1,181 @@
+package com.rem.vendingmachine.service;
+
+import com.rem.vendingmachine.dao.VendingMachineProductMapper;
+import com.rem.vendingmachine.model.OrderLine;
+import com.rem.vendingmachine.model.VendingMachineProduct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 货道库存
+ * 数据库是库存的唯一依据：下单时在订单事务中用一条 SELECT ... FOR UPDATE 锁住涉及的所有货道，
+ * 按锁住时的库存校验，再用一条 UPDATE 扣减，不管订单里有多少件商品都是 2 次往返。
+ * 集群中多个节点同时卖同一货道时由行锁串行化，不会超卖；其他节点的补货、新增的货道在下单时立即可见。
+ * 库存变化在事务提交后同步到 {@link SlotStockSnapshot}。
+ */
+@Service
+public class SlotStockService {
+
+    @Autowired
+    private VendingMachineProductMapper vendingMachineProductMapper;
+
+    @Autowired
+    private SlotStockSnapshot slotStockSnapshot;
+
+    /**
+     * 锁住 lines 涉及的所有货道并读出当前库存，必须在调用方的事务中执行，行锁持有到事务结束。
+     * 货道按 (售货机 ID, 商品 ID) 排序后一次加锁，所有下单路径都按这个顺序加锁，避免交叉加锁死锁。
+     *
+     * @param lines 可以包含多个订单的商品，同一货道可以出现多次
+     */
+    public LockedSlots lock(Collection<OrderLine> lines) {
+        // 键的高 32 位是售货机 ID，TreeMap 的顺序就是 (售货机 ID, 商品 ID) 的顺序
+        Map<Long, VendingMachineProduct> keys = new TreeMap<>();
+        for (OrderLine line : lines) {
+            keys.putIfAbsent(SlotStockSnapshot.key(line.getVendingMachineId(), line.getProductId()),
+                    new VendingMachineProduct(line.getVendingMachineId(), line.getProductId(), null, null, 0));
+        }
+        List<VendingMachineProduct> sorted = new ArrayList<>(keys.values());
+
+        LockedSlots locked = new LockedSlots();
+        if (!sorted.isEmpty()) {
+            for (VendingMachineProduct row : vendingMachineProductMapper.selectSlotsForUpdate(sorted)) {
+                locked.rows.put(SlotStockSnapshot.key(row.getVendingMachineId(), row.getProductId()), row);
+            }
+        }
+        return locked;
+    }
+
+    /**
+     * 用一条 UPDATE 写入 {@link LockedSlots#take} 扣减的库存，和调用方的事务一起提交；提交后更新库存副本
+     */
+    public void write(LockedSlots locked) {
+        if (locked.taken.isEmpty()) {
+            return;
+        }
+        List<VendingMachineProduct> deltas = new ArrayList<>(locked.taken.size());
+        List<VendingMachineProduct> after = new ArrayList<>(locked.taken.size());
+        for (Map.Entry<Long, Integer> entry : locked.taken.entrySet()) {
+            VendingMachineProduct row = locked.rows.get(entry.getKey());
+            deltas.add(new VendingMachineProduct(row.getVendingMachineId(), row.getProductId(), null, null, -entry.getValue()));
+            after.add(new VendingMachineProduct(row.getVendingMachineId(), row.getProductId(), row.getProductName(), row.getPrice(), row.getStock()));
+        }
+        locked.taken.clear();
+        vendingMachineProductMapper.batchAddStock(deltas);
+        afterCommit(() -> slotStockSnapshot.load(after));
+    }
+
+    /**
+     * 按增量调整库存（补货为正数，减少为负数），减少后库存会小于 0 时返回 false
+     */
+    public boolean adjustStock(int vendingMachineId, int productId, int delta) {
+        if (vendingMachineProductMapper.updateVendingMachineProductStock(vendingMachineId, productId, delta, Math.abs(delta)) == 0) {
+            return false;
+        }
+        afterCommit(() -> slotStockSnapshot.refresh(vendingMachineId, productId));
+        return true;
+    }
+
+    /**
+     * 直接设置库存数量（盘点后修正）
+     */
+    public boolean setStock(int vendingMachineId, int productId, int newStock) {
+        if (vendingMachineProductMapper.setVendingMachineProductStock(vendingMachineId, productId, newStock) == 0) {
+            return false;
+        }
+        afterCommit(() -> slotStockSnapshot.refresh(vendingMachineId, productId));
+        return true;
+    }
+
+    // 当前事务提交后执行，不在事务中时立即执行
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    /**
+     * 当前事务锁住的货道：库存是锁住时的值减去本事务中已经扣减的数量，扣减的数量在 {@link #write} 时一次写入
+     */
+    public static class LockedSlots {
+        private final Map<Long, VendingMachineProduct> rows = new LinkedHashMap<>();
+        private final Map<Long, Integer> taken = new LinkedHashMap<>();
+
+        /**
+         * 按剩余库存校验一个订单的商品，任何一个货道不存在或库存不足时抛出异常；只校验，不扣减
+         *
+         * @param lines 一个订单购买的商品，同一货道只能出现一次，货道必须已经锁住
+         */
+        public List<Entry> check(List<OrderLine> lines) {
+            List<Entry> entries = new ArrayList<>(lines.size());
+            for (OrderLine line : lines) {
+                VendingMachineProduct row = rows.get(SlotStockSnapshot.key(line.getVendingMachineId(), line.getProductId()));
+                if (row == null) {
+                    throw new RuntimeException("商品不存在于该售货机，商品ID: " + line.getProductId() + ", 售货机ID: " + line.getVendingMachineId());
+                }
+                if (row.getStock() < line.getQuantity()) {
+                    throw new RuntimeException("库存不足，商品ID: " + line.getProductId() + "，售货机库存：" + row.getStock());
+                }
+                entries.add(new Entry(row, line.getQuantity()));
+            }
+            return entries;
+        }
+
+        /**
+         * 扣减 {@link #check} 通过的商品，之后的订单按扣减后的库存校验
+         */
+        public void take(List<Entry> entries) {
+            for (Entry entry : entries) {
+                VendingMachineProduct row = entry.slot;
+                row.setStock(row.getStock() - entry.quantity);
+                taken.merge(SlotStockSnapshot.key(row.getVendingMachineId(), row.getProductId()), entry.quantity, Integer::sum);
+            }
+        }
+
+        /**
+         * 一个货道的购买数量和锁住时读出的商品信息
+         */
+        public static class Entry {
+            private final VendingMachineProduct slot;
+            private final int quantity;
+
+            Entry(VendingMachineProduct slot, int quantity) {
+                this.slot = slot;
+                this.quantity = quantity;
+            }
+
+            public int getProductId() {
+                return slot.getProductId();
+            }
+
+            public String getProductName() {
+                return slot.getProductName();
+            }
+
+            public BigDecimal getPrice() {
+                return slot.getPrice();
+            }
+
+            public int getQuantity() {
+                return quantity;
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.rem.vendingmachine.service;
+
+import com.rem.vendingmachine.dao.VendingMachineProductMapper;
+import com.rem.vendingmachine.model.VendingMachineProduct;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 货道库存的内存只读副本（名称、价格、库存），供售空预测等统计使用，下单和补货不读它。
+ * 启动时加载，定时从数据库全量刷新；本节点的库存变化由 {@link SlotStockService} 在事务提交后同步过来，
+ * 其他节点的变化最多晚一个刷新间隔。
+ */
+@Service
+public class SlotStockSnapshot {
+
+    @Autowired
+    private VendingMachineProductMapper vendingMachineProductMapper;
+
+    // (售货机 ID, 商品 ID) -> 货道副本
+    private final Map<Long, VendingMachineProduct> slots = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        refresh();
+        System.out.println("货道库存副本已加载货道数: " + slots.size());
+    }
+
+    /**
+     * 写入或覆盖货道副本
+     */
+    public void load(List<VendingMachineProduct> products) {
+        for (VendingMachineProduct product : products) {
+            slots.put(key(product.getVendingMachineId(), product.getProductId()), product);
+        }
+    }
+
+    /**
+     * 移除货道副本（数据库记录已经删除）
+     */
+    public void remove(int vendingMachineId, int productId) {
+        slots.remove(key(vendingMachineId, productId));
+    }
+
+    /**
+     * 货道副本，货道不存在时返回 null；库存可能落后数据库一个刷新间隔
+     */
+    public VendingMachineProduct getSlot(int vendingMachineId, int productId) {
+        VendingMachineProduct slot = slots.get(key(vendingMachineId, productId));
+        return slot != null
+                ? new VendingMachineProduct(slot.getVendingMachineId(), slot.getProductId(), slot.getProductName(), slot.getPrice(), slot.getStock())
+                : null;
+    }
+
+    /**
+     * 从数据库重新加载所有货道：其他节点的库存变化、新增和删除的货道都以数据库为准
+     */
+    @Scheduled(initialDelayString = "${vendingmachine.stock.refresh-interval-ms:30000}",
+            fixedDelayString = "${vendingmachine.stock.refresh-interval-ms:30000}")
+    public void refresh() {
+        Map<Long, VendingMachineProduct> fresh = new HashMap<>();
+        for (VendingMachineProduct product : vendingMachineProductMapper.selectAllVendingMachineProducts()) {
+            fresh.put(key(product.getVendingMachineId(), product.getProductId()), product);
+        }
+        slots.keySet().retainAll(fresh.keySet());
+        slots.putAll(fresh);
+    }
+
+    /**
+     * 从数据库重新加载一个货道，货道已删除时移除副本
+     */
+    public void refresh(int vendingMachineId, int productId) {
+        VendingMachineProduct product = vendingMachineProductMapper.selectVendingMachineProduct(vendingMachineId, productId);
+        if (product != null) {
+            load(List.of(product));
+        } else {
+            remove(vendingMachineId, productId);
+        }
+    }
+
+    static long key(int vendingMachineId, int productId) {
+        return ((long) vendingMachineId << 32) | (productId & 0xFFFFFFFFL);
+    }
+}
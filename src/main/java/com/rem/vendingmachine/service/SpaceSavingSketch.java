@@ -0,0 +1,142 @@
+package com.rem.vendingmachine.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Space-Saving 热门商品草图：最多 capacity 个计数器，统计带权重（件数）的商品流中销量最高的商品。
+ * 每个计数器记录估计值和最大高估量，真实销量在 [估计值 - 高估量, 估计值] 之间；
+ * 不在草图里的商品真实销量不超过最小的计数器。任何商品的高估量都不超过 总件数 / capacity。
+ * 两个草图可以合并（先按对方的最小计数器补齐缺失的商品，再保留最大的 capacity 个），合并后误差上界仍是 总件数 / capacity，
+ * 所以小时草图可以合并成天草图，任意时间窗口可以由若干草图合并得到。
+ * 非线程安全，由调用方加锁。
+ */
+public class SpaceSavingSketch {
+
+    private final int capacity;
+    private final int[] items;
+    private final long[] counts;
+    private final long[] errors;
+    private final Map<Integer, Integer> positions;
+    private int size;
+    private long total;
+
+    public SpaceSavingSketch(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.items = new int[this.capacity];
+        this.counts = new long[this.capacity];
+        this.errors = new long[this.capacity];
+        this.positions = new HashMap<>(this.capacity * 2);
+    }
+
+    /**
+     * 按误差率创建草图：任何商品的高估量不超过 errorRate × 总件数
+     */
+    public static SpaceSavingSketch withErrorRate(double errorRate) {
+        return new SpaceSavingSketch((int) Math.ceil(1 / errorRate));
+    }
+
+    /**
+     * 累加商品的件数；计数器用完时替换最小的计数器，新商品继承它的计数作为高估量
+     */
+    public void add(int item, long weight) {
+        if (weight <= 0) {
+            return;
+        }
+        total += weight;
+        Integer pos = positions.get(item);
+        if (pos != null) {
+            counts[pos] += weight;
+            return;
+        }
+        if (size < capacity) {
+            put(size++, item, weight, 0);
+            return;
+        }
+        int min = minPosition();
+        positions.remove(items[min]);
+        put(min, item, counts[min] + weight, counts[min]);
+    }
+
+    /**
+     * 把另一个草图合并进来，相当于统计两个商品流拼在一起的结果
+     */
+    public void merge(SpaceSavingSketch other) {
+        long thisMin = minCount();
+        long otherMin = other.minCount();
+
+        // 两个草图中出现过的商品：估计值和高估量分别相加，缺失的一边按该草图的最小计数器计
+        Map<Integer, long[]> union = new HashMap<>((size + other.size) * 2);
+        for (int i = 0; i < size; i++) {
+            union.put(items[i], new long[]{counts[i] + otherMin, errors[i] + otherMin});
+        }
+        for (int i = 0; i < other.size; i++) {
+            long[] merged = union.get(other.items[i]);
+            if (merged == null) {
+                union.put(other.items[i], new long[]{thisMin + other.counts[i], thisMin + other.errors[i]});
+            } else {
+                merged[0] += other.counts[i] - otherMin;
+                merged[1] += other.errors[i] - otherMin;
+            }
+        }
+
+        List<Map.Entry<Integer, long[]>> entries = new ArrayList<>(union.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+        positions.clear();
+        size = 0;
+        for (Map.Entry<Integer, long[]> entry : entries) {
+            if (size == capacity) {
+                break;
+            }
+            put(size++, entry.getKey(), entry.getValue()[0], entry.getValue()[1]);
+        }
+        total += other.total;
+    }
+
+    /**
+     * 估计值最高的商品，每项为 {商品 ID, 估计值, 高估量}，最多 limit 个
+     */
+    public List<long[]> top(int limit) {
+        List<long[]> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(new long[]{items[i], counts[i], errors[i]});
+        }
+        result.sort((a, b) -> Long.compare(b[1], a[1]));
+        return result.size() > limit ? new ArrayList<>(result.subList(0, Math.max(0, limit))) : result;
+    }
+
+    /**
+     * 统计的总件数
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    // 计数器用完时返回最小的计数，否则为 0（没有被淘汰过的商品，不在草图里就是没卖过）
+    private long minCount() {
+        return size < capacity ? 0 : counts[minPosition()];
+    }
+
+    private int minPosition() {
+        int min = 0;
+        for (int i = 1; i < size; i++) {
+            if (counts[i] < counts[min]) {
+                min = i;
+            }
+        }
+        return min;
+    }
+
+    private void put(int pos, int item, long count, long error) {
+        items[pos] = item;
+        counts[pos] = count;
+        errors[pos] = error;
+        positions.put(item, pos);
+    }
+}
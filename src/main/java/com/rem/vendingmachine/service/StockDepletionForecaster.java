@@ -0,0 +1,177 @@
+package com.rem.vendingmachine.service;
+
+import com.rem.vendingmachine.dao.SalesRollupMapper;
+import com.rem.vendingmachine.model.Order;
+import com.rem.vendingmachine.model.OrderCommittedEvent;
+import com.rem.vendingmachine.model.OrderItem;
+import com.rem.vendingmachine.model.SalesRollup;
+import com.rem.vendingmachine.model.StockDepletionForecast;
+import com.rem.vendingmachine.model.VendingMachineProduct;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 货道售空预测
+ * 每个 vending_machine_product 货道只保存一个指数衰减的销量和 + 最后更新时间：每卖出 q 件，销量和先按经过的时间衰减再加 q，
+ * 销售速度 = 销量和 / τ（τ = 半衰期 / ln2），越近的销量权重越大，半衰期之前的销量权重减半。
+ * 订单提交后 O(1) 更新对应货道，不回头扫描订单表；启动时从小时销售汇总表加载最近几天作为初始速度。
+ * 预计售空时间 = {@link SlotStockSnapshot} 中货道副本的库存 / 销售速度（副本定时从数据库刷新）。
+ * 只统计能确定售货机的订单（跨售货机的购物车订单没有按货道记录售货机，不计入）；集群模式下每个节点只累加自己提交的订单。
+ */
+@Service
+public class StockDepletionForecaster {
+
+    private static final double MILLIS_PER_HOUR = 3_600_000d;
+
+    @Autowired
+    private SlotStockSnapshot slotStockSnapshot;
+
+    @Autowired
+    private SalesRollupMapper salesRollupMapper;
+
+    // 销量权重减半所需的小时数，越小对最近的销量变化越敏感
+    @Value("${vendingmachine.forecast.half-life-hours:24}")
+    private double halfLifeHours = 24;
+
+    // 启动时从小时汇总表加载最近多少天的销量
+    @Value("${vendingmachine.forecast.seed-days:7}")
+    private int seedDays = 7;
+
+    // (售货机 ID, 商品 ID) -> 销售速度
+    private final Map<Long, Rate> rates = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        LocalDateTime to = LocalDateTime.now();
+        LocalDateTime from = to.truncatedTo(ChronoUnit.HOURS).minusDays(seedDays);
+        List<SalesRollup> rollups = salesRollupMapper.selectRollups(false, from, to);
+        for (SalesRollup rollup : rollups) {
+            if (rollup.getMachineId() == null || rollup.getMachineId() <= 0 || rollup.getProductId() == null) {
+                continue;
+            }
+            // 小时内的销量按发生在桶的中点计算
+            long at = toMillis(rollup.getBucketStart()) + (long) (MILLIS_PER_HOUR / 2);
+            record(rollup.getMachineId(), rollup.getProductId(), rollup.getUnits(), at);
+        }
+        System.out.println("售空预测已加载货道数: " + rates.size() + ", 汇总桶数: " + rollups.size() + ", 半衰期: " + halfLifeHours + " 小时");
+    }
+
+    /**
+     * 订单提交后累加每个订单项所在货道的销量
+     */
+    @TransactionalEventListener
+    public void onOrderCommitted(OrderCommittedEvent event) {
+        Order order = event.getOrder();
+        List<OrderItem> items = order.getOrderItems();
+        if (items == null || items.isEmpty() || order.getMachineId() == null) {
+            return;
+        }
+        long at = order.getCreateTime() != null ? toMillis(order.getCreateTime()) : System.currentTimeMillis();
+        for (OrderItem item : items) {
+            record(order.getMachineId(), item.getProductId(), item.getQuantity(), at);
+        }
+    }
+
+    /**
+     * 预计在 withinHours 小时内售空的货道（包括已经售空的），最快售空的在前
+     *
+     * @param machineId 售货机 ID，为 null 时统计所有售货机
+     */
+    public List<StockDepletionForecast> forecast(double withinHours, Integer machineId) {
+        return forecast(withinHours, machineId, System.currentTimeMillis());
+    }
+
+    List<StockDepletionForecast> forecast(double withinHours, Integer machineId, long nowMillis) {
+        double tauMillis = tauMillis();
+        List<StockDepletionForecast> result = new ArrayList<>();
+        Iterator<Map.Entry<Long, Rate>> iterator = rates.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, Rate> entry = iterator.next();
+            int vendingMachineId = (int) (entry.getKey() >> 32);
+            if (machineId != null && machineId != vendingMachineId) {
+                continue;
+            }
+            VendingMachineProduct slot = slotStockSnapshot.getSlot(vendingMachineId, (int) (long) entry.getKey());
+            if (slot == null) {
+                iterator.remove(); // 货道已被移除
+                continue;
+            }
+            double perHour = entry.getValue().perMillis(nowMillis, tauMillis) * MILLIS_PER_HOUR;
+            if (perHour <= 0) {
+                continue;
+            }
+            double hoursToEmpty = Math.max(0, slot.getStock()) / perHour;
+            if (hoursToEmpty <= withinHours) {
+                result.add(new StockDepletionForecast(slot.getVendingMachineId(), slot.getProductId(), slot.getProductName(),
+                        slot.getStock(), round(perHour), round(hoursToEmpty)));
+            }
+        }
+        result.sort(Comparator.comparingDouble(StockDepletionForecast::getHoursToEmpty)
+                .thenComparing(Comparator.comparingDouble(StockDepletionForecast::getSalesPerHour).reversed()));
+        return result;
+    }
+
+    void record(int vendingMachineId, int productId, long quantity, long atMillis) {
+        if (quantity <= 0) {
+            return;
+        }
+        rates.computeIfAbsent(key(vendingMachineId, productId), k -> new Rate())
+                .add(quantity, atMillis, tauMillis());
+    }
+
+    private double tauMillis() {
+        return halfLifeHours * MILLIS_PER_HOUR / Math.log(2);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 1000) / 1000d;
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static long key(int vendingMachineId, int productId) {
+        return ((long) vendingMachineId << 32) | (productId & 0xFFFFFFFFL);
+    }
+
+    /**
+     * 一个货道的指数衰减销量和，衰减到 lastMillis 时刻
+     */
+    private static class Rate {
+        private double decayedSum;
+        private long lastMillis;
+
+        synchronized void add(long quantity, long atMillis, double tauMillis) {
+            if (lastMillis == 0 || atMillis >= lastMillis) {
+                decayedSum = decayedSum * decay(atMillis - lastMillis, tauMillis) + quantity;
+                lastMillis = atMillis;
+            } else {
+                // 迟到的销量（如设备补发的订单）按它发生的时间折算后累加
+                decayedSum += quantity * decay(lastMillis - atMillis, tauMillis);
+            }
+        }
+
+        // 衰减到 nowMillis 时的销售速度（件/毫秒）
+        synchronized double perMillis(long nowMillis, double tauMillis) {
+            return decayedSum * decay(Math.max(0, nowMillis - lastMillis), tauMillis) / tauMillis;
+        }
+
+        private static double decay(long elapsedMillis, double tauMillis) {
+            return Math.exp(-elapsedMillis / tauMillis);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.rem.vendingmachine.service;
 
 import com.rem.vendingmachine.model.Product;
 import com.rem.vendingmachine.model.User;
+import com.rem.vendingmachine.model.WalletLedgerEntry;
 
 import java.math.BigDecimal;
 import java.util.List;
@@ -24,4 +25,8 @@ public interface UserService {
     List<Product> getRecommendedProducts(int userId);
 
     boolean updateUserBalance(int userId, BigDecimal balance);
+
+    BigDecimal topUp(int userId, BigDecimal amount); //充值，返回充值后的余额
+
+    List<WalletLedgerEntry> getWalletLedger(int userId, int limit);
 }
@@ -1,19 +1,16 @@
 package com.rem.vendingmachine.service;
 
-import com.rem.vendingmachine.dao.OrderItemMapper;
 import com.rem.vendingmachine.dao.OrderMapper;
-import com.rem.vendingmachine.dao.ProductMapper;
 import com.rem.vendingmachine.dao.UserMapper;
 import com.rem.vendingmachine.model.Product;
 import com.rem.vendingmachine.model.User;
+import com.rem.vendingmachine.model.WalletLedgerEntry;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
-import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 @Service
 public class UserServiceImpl implements UserService {
@@ -22,13 +19,13 @@ public class UserServiceImpl implements UserService {
     private UserMapper userMapper;
 
     @Autowired
-    private ProductMapper productMapper;
+    private OrderMapper orderMapper;
 
     @Autowired
-    private OrderItemMapper orderItemMapper;
+    private WalletEngine walletEngine;
 
     @Autowired
-    private OrderMapper orderMapper;
+    private RecommendationService recommendationService;
 
     @Override
     public boolean registerUser(User user) {
@@ -81,49 +78,27 @@ public class UserServiceImpl implements UserService {
 
     @Override
     public List<Product> getRecommendedProducts(int userId) {
-        // 1. 获取用户的历史订单商品，并按购买总量排序
-        List<Integer> userTopProducts = orderItemMapper.getTopPurchasedProductsByUser(userId);
-
-        // 2. 查询全局热销商品
-        List<Integer> globalTopProducts = orderItemMapper.getTopSellingProducts();
-
-        // 3. 构建推荐商品列表
-        List<Product> recommendedProducts = new ArrayList<>();
-        Set<Integer> addedProductIds = new HashSet<>();
-
-        // 3.1 根据用户购买记录优先推荐
-        for (Integer productId : userTopProducts) {
-            if (!addedProductIds.contains(productId)) {
-                Product product = productMapper.selectProductById(productId);
-                if (product != null) {
-                    recommendedProducts.add(product);
-                    addedProductIds.add(productId);
-                }
-            }
-        }
-
-        // 3.2 添加剩余的全局热销商品（排除已经推荐的用户购买商品）
-        for (Integer productId : globalTopProducts) {
-            if (!addedProductIds.contains(productId)) {
-                Product product = productMapper.selectProductById(productId);
-                if (product != null) {
-                    recommendedProducts.add(product);
-                    addedProductIds.add(productId);
-                }
-            }
-        }
+        return recommendationService.recommend(userId);
+    }
 
-        // 3.3 如果系统没有任何销量记录，直接返回商品默认排序
-        if (recommendedProducts.isEmpty()) {
-            recommendedProducts = productMapper.selectAllProduct();
-        }
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public boolean updateUserBalance(int userId, BigDecimal balance) {
+        // 按差值追加一条调整流水，不直接覆盖余额
+        walletEngine.adjustTo(userId, balance);
+        return true;
+    }
 
-        return recommendedProducts;
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public BigDecimal topUp(int userId, BigDecimal amount) {
+        walletEngine.credit(userId, amount, WalletLedgerEntry.TOPUP);
+        return walletEngine.getBalance(userId);
     }
 
     @Override
-    public boolean updateUserBalance(int userId, BigDecimal balance) {
-        return userMapper.updateBalanceByUserId(userId, balance) > 0;
+    public List<WalletLedgerEntry> getWalletLedger(int userId, int limit) {
+        return walletEngine.getLedger(userId, limit);
     }
 
 }
@@ -0,0 +1,92 @@
+package com.rem.vendingmachine.service;
+
+import com.rem.vendingmachine.dao.VendingMachineMapper;
+import com.rem.vendingmachine.model.VendingMachine;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 售货机心跳缓冲
+ * 心跳只记录到内存中的"最后在线时间"表，同一台机器在一个刷新周期内的多次心跳会合并为一条，
+ * 定时用一条多行 UPDATE 批量写回数据库，写库频率只和刷新间隔有关，与设备数量无关。
+ */
+@Service
+public class VendingMachineHeartbeatBuffer {
+
+    @Autowired
+    private VendingMachineMapper vendingMachineMapper;
+
+    // 单条批量 UPDATE 最多包含的售货机数量
+    @Value("${vendingmachine.heartbeat.flush-batch-size:500}")
+    private int flushBatchSize;
+
+    // 售货机ID -> 最后一次心跳时间
+    private final Map<Integer, LocalDateTime> lastSeen = new ConcurrentHashMap<>();
+
+    /**
+     * 记录一次心跳（只写内存）
+     */
+    public void record(int machineId, LocalDateTime heartbeatTime) {
+        lastSeen.merge(machineId, heartbeatTime, (oldTime, newTime) -> newTime.isAfter(oldTime) ? newTime : oldTime);
+    }
+
+    /**
+     * 定时把缓冲的心跳时间批量写回数据库
+     */
+    @Scheduled(fixedDelayString = "${vendingmachine.heartbeat.flush-interval-ms:30000}")
+    public void flush() {
+        if (lastSeen.isEmpty()) {
+            return;
+        }
+
+        // 取出当前缓冲的所有心跳，刷新期间新到的心跳留到下一轮
+        List<VendingMachine> pending = new ArrayList<>();
+        for (Integer machineId : lastSeen.keySet()) {
+            LocalDateTime time = lastSeen.remove(machineId);
+            if (time != null) {
+                VendingMachine machine = new VendingMachine();
+                machine.setId(machineId);
+                machine.setUpdateTime(time);
+                pending.add(machine);
+            }
+        }
+
+        int batchSize = Math.max(1, flushBatchSize);
+        for (int from = 0; from < pending.size(); from += batchSize) {
+            List<VendingMachine> batch = pending.subList(from, Math.min(from + batchSize, pending.size()));
+            try {
+                vendingMachineMapper.batchUpdateLastUpdateTime(batch);
+            } catch (Exception e) {
+                System.err.println("批量写入心跳时间失败，改为逐条写入：" + e.getMessage());
+                flushOneByOne(batch);
+            }
+        }
+        System.out.println("心跳缓冲已刷新 - 售货机数量: " + pending.size());
+    }
+
+    // 批量写失败时的单行回退
+    private void flushOneByOne(List<VendingMachine> batch) {
+        for (VendingMachine machine : batch) {
+            try {
+                vendingMachineMapper.updateLastUpdateTime(machine.getId(), machine.getUpdateTime());
+            } catch (Exception e) {
+                System.err.println("写入心跳时间失败 - 设备ID: " + machine.getId() + ", 错误: " + e.getMessage());
+            }
+        }
+    }
+
+    // 关闭前把剩余的心跳写回
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+}
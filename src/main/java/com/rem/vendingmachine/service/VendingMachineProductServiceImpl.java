@@ -14,30 +14,33 @@ public class VendingMachineProductServiceImpl implements VendingMachineProductSe
     @Autowired
     private VendingMachineProductMapper vendingMachineProductMapper;
 
+    @Autowired
+    private SlotStockService slotStockService; // 库存以数据库为准，变化在提交后同步到货道库存副本
+
+    @Autowired
+    private SlotStockSnapshot slotStockSnapshot;
+
     @Override
     public boolean addProductToMachine(int vendingMachineId, int productId, int stock, String productName, BigDecimal price) {
         // 检查商品是否已经存在于该售货机中
-        VendingMachineProduct existingProduct = vendingMachineProductMapper
-                .selectVendingMachineProduct(vendingMachineId, productId);
-        if (existingProduct != null) {
-            // 如果商品已存在，则计算并设置新的总库存
-            int newStock = existingProduct.getStock() + stock;
-            return vendingMachineProductMapper.setVendingMachineProductStock(vendingMachineId, productId, newStock) > 0;
+        if (vendingMachineProductMapper.selectVendingMachineProduct(vendingMachineId, productId) != null) {
+            // 如果商品已存在，则在原库存上补货
+            return slotStockService.adjustStock(vendingMachineId, productId, stock);
         }
 
         // 如果商品不存在于该售货机中，则插入一条新记录
         VendingMachineProduct newProduct = new VendingMachineProduct(vendingMachineId, productId, productName, price, stock);
-        return vendingMachineProductMapper.insertVendingMachineProduct(newProduct) > 0;
+        if (vendingMachineProductMapper.insertVendingMachineProduct(newProduct) == 0) {
+            return false;
+        }
+        slotStockSnapshot.load(List.of(newProduct));
+        return true;
     }
 
     @Override
     public boolean updateProductStock(int vendingMachineId, int productId, int stock) {
-        // 库存更新 ---
-        int absStock = Math.abs(stock);
-        int rowsAffected = vendingMachineProductMapper.updateVendingMachineProductStock(
-                vendingMachineId, productId, stock, absStock
-        );
-        return rowsAffected > 0;
+        // 库存更新（增量），减少时库存不足会失败 ---
+        return slotStockService.adjustStock(vendingMachineId, productId, stock);
     }
 
     @Override
@@ -47,7 +50,11 @@ public class VendingMachineProductServiceImpl implements VendingMachineProductSe
 
     @Override
     public boolean removeProductFromMachine(int vendingMachineId, int productId) {
-        return vendingMachineProductMapper.deleteVendingMachineProduct(vendingMachineId, productId) > 0;
+        if (vendingMachineProductMapper.deleteVendingMachineProduct(vendingMachineId, productId) == 0) {
+            return false;
+        }
+        slotStockSnapshot.remove(vendingMachineId, productId);
+        return true;
     }
 
     @Override
@@ -57,6 +64,6 @@ public class VendingMachineProductServiceImpl implements VendingMachineProductSe
 
     // 一个公开的设置绝对库存的方法 (供 Controller 调用)
     public boolean setProductStock(int vendingMachineId, int productId, int newStock) {
-        return vendingMachineProductMapper.setVendingMachineProductStock(vendingMachineId, productId, newStock) > 0;
+        return slotStockService.setStock(vendingMachineId, productId, newStock);
     }
 }
@@ -14,6 +14,12 @@ public class VendingMachineServiceImpl implements VendingMachineService {
     @Autowired
     private VendingMachineMapper vendingMachineMapper;
 
+    @Autowired
+    private VendingMachineHeartbeatBuffer heartbeatBuffer;
+
+    @Autowired
+    private VendingMachineStateWriteBehind stateWriteBehind;
+
     @Override
     public boolean addVendingMachine(VendingMachine vendingMachine) {
         return vendingMachineMapper.insertVendingMachine(vendingMachine)>0;
@@ -21,6 +27,7 @@ public class VendingMachineServiceImpl implements VendingMachineService {
 
     @Override
     public boolean updateVendingMachine(VendingMachine vendingMachine) {
+        stateWriteBehind.invalidate(vendingMachine.getId());
         return vendingMachineMapper.updateVendingMachine(vendingMachine)>0;
     }
 
@@ -46,20 +53,13 @@ public class VendingMachineServiceImpl implements VendingMachineService {
 
 
     //for mqtt
+    //心跳只记到内存缓冲，由 VendingMachineHeartbeatBuffer 定时批量写库
     public void updateLastUpdateTime(int machineId, LocalDateTime lastUpdateTime) {
-        VendingMachine machine = vendingMachineMapper.selectVendingMachineById(machineId);
-        if (machine != null) {
-            machine.setUpdateTime(lastUpdateTime);
-            vendingMachineMapper.updateVendingMachine(machine);
-        }
+        heartbeatBuffer.record(machineId, lastUpdateTime);
     }
 
+    //状态只有真正变化时才会写库，由 VendingMachineStateWriteBehind 合并后批量写入
     public void updateVendingMachineStatus(int machineId, double temperature, int status) {
-        VendingMachine machine = vendingMachineMapper.selectVendingMachineById(machineId);
-        if (machine != null) {
-            machine.setTemperature(temperature);
-            machine.setStatus(status);
-            vendingMachineMapper.updateVendingMachine(machine);
-        }
+        stateWriteBehind.record(machineId, temperature, status);
     }
 }
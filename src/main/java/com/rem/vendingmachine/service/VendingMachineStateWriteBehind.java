@@ -0,0 +1,144 @@
+package com.rem.vendingmachine.service;
+
+import com.rem.vendingmachine.dao.VendingMachineMapper;
+import com.rem.vendingmachine.model.VendingMachine;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 售货机状态上报的写后（write-behind）缓冲
+ * 按售货机记住最后一次写入数据库的状态和温度：只有状态变化、或温度变化超过死区时才标记为待写；
+ * 同一台机器的待写记录会合并为最新的一条，定时（以及关闭时）批量写回数据库。
+ * 稳定运行时绝大多数状态上报不会产生任何写库操作。
+ */
+@Service
+public class VendingMachineStateWriteBehind {
+
+    @Autowired
+    private VendingMachineMapper vendingMachineMapper;
+
+    // 温度死区（℃），变化不超过该值视为未变化
+    @Value("${vendingmachine.state.temperature-deadband:0.5}")
+    private double temperatureDeadband;
+
+    // 单条批量 UPDATE 最多包含的售货机数量
+    @Value("${vendingmachine.state.flush-batch-size:500}")
+    private int flushBatchSize;
+
+    // 售货机ID -> 数据库中已保存的状态
+    private final Map<Integer, PersistedState> persisted = new ConcurrentHashMap<>();
+
+    // 售货机ID -> 待写入的最新状态
+    private final Map<Integer, VendingMachine> pending = new ConcurrentHashMap<>();
+
+    private final AtomicLong receivedReports = new AtomicLong();
+    private final AtomicLong writtenRows = new AtomicLong();
+
+    /**
+     * 启动时用数据库中的当前状态初始化，避免重启后第一轮上报全部写库
+     */
+    @PostConstruct
+    public void init() {
+        try {
+            for (VendingMachine machine : vendingMachineMapper.selectAllVendingMachines()) {
+                if (machine.getTemperature() != null) {
+                    persisted.put(machine.getId(), new PersistedState(machine.getTemperature(), machine.getStatus()));
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("加载售货机状态失败，首次上报将直接写库：" + e.getMessage());
+        }
+    }
+
+    /**
+     * 记录一次状态上报（只写内存）
+     */
+    public void record(int machineId, double temperature, int status) {
+        receivedReports.incrementAndGet();
+        PersistedState last = persisted.get(machineId);
+        if (last != null && last.status == status && Math.abs(last.temperature - temperature) <= temperatureDeadband) {
+            // 与数据库一致：如果已经有待写记录，只把它合并成最新值
+            pending.computeIfPresent(machineId, (id, machine) -> toMachine(id, temperature, status));
+            return;
+        }
+        pending.put(machineId, toMachine(machineId, temperature, status));
+    }
+
+    /**
+     * 售货机被其他途径（如管理端）修改后，清除记住的状态，下一次上报会重新写库
+     */
+    public void invalidate(int machineId) {
+        persisted.remove(machineId);
+    }
+
+    /**
+     * 定时把待写的状态批量写回数据库
+     */
+    @Scheduled(fixedDelayString = "${vendingmachine.state.flush-interval-ms:10000}")
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        List<VendingMachine> drained = new ArrayList<>();
+        for (Integer machineId : pending.keySet()) {
+            VendingMachine machine = pending.remove(machineId);
+            if (machine != null) {
+                // 先记为已保存，刷新期间到达的相同上报就不会再次排队
+                persisted.put(machineId, new PersistedState(machine.getTemperature(), machine.getStatus()));
+                drained.add(machine);
+            }
+        }
+
+        int batchSize = Math.max(1, flushBatchSize);
+        for (int from = 0; from < drained.size(); from += batchSize) {
+            List<VendingMachine> batch = drained.subList(from, Math.min(from + batchSize, drained.size()));
+            try {
+                vendingMachineMapper.batchUpdateStatusAndTemperature(batch);
+                writtenRows.addAndGet(batch.size());
+            } catch (Exception e) {
+                System.err.println("批量写入售货机状态失败：" + e.getMessage());
+                // 写失败的机器不算已保存，下一次上报会重新排队
+                for (VendingMachine machine : batch) {
+                    persisted.remove(machine.getId());
+                }
+            }
+        }
+        System.out.println("状态缓冲已刷新 - 售货机数量: " + drained.size()
+                + ", 累计上报: " + receivedReports.get() + ", 累计写库: " + writtenRows.get());
+    }
+
+    // 关闭前把剩余的状态写回
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    private VendingMachine toMachine(int machineId, double temperature, int status) {
+        VendingMachine machine = new VendingMachine();
+        machine.setId(machineId);
+        machine.setTemperature(temperature);
+        machine.setStatus(status);
+        return machine;
+    }
+
+    private static class PersistedState {
+        private final double temperature;
+        private final int status;
+
+        PersistedState(double temperature, int status) {
+            this.temperature = temperature;
+            this.status = status;
+        }
+    }
+}
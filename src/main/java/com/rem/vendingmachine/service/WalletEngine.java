@@ -0,0 +1,121 @@
+package com.rem.vendingmachine.service;
+
+import com.rem.vendingmachine.dao.WalletMapper;
+import com.rem.vendingmachine.model.WalletLedgerEntry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * 钱包引擎
+ * 余额不再直接覆盖 user.balance：wallet_balance 表中每个用户一行，是余额的唯一依据；
+ * 每笔变动另外追加一条只追加的 wallet_ledger 流水，用于对账和查询明细。
+ * 扣款是一条条件 UPDATE（余额不小于扣款金额才扣），和订单在同一个事务中执行，余额不足时没有任何写入；
+ * 集群中多个节点并发扣同一个用户时由行锁串行化，不会透支，其他节点的充值也立即可见。
+ * 没有余额行的用户（迁移之后注册的用户）在第一次使用钱包时按流水之和补建。
+ */
+@Service
+public class WalletEngine {
+
+    @Autowired
+    private WalletMapper walletMapper;
+
+    /**
+     * 查询用户当前余额，用户不存在时抛出异常
+     */
+    public BigDecimal getBalance(int userId) {
+        BigDecimal balance = walletMapper.selectBalance(userId);
+        if (balance == null) {
+            walletMapper.initBalance(userId);
+            balance = walletMapper.selectBalance(userId);
+            if (balance == null) {
+                throw new RuntimeException("用户不存在，用户ID: " + userId);
+            }
+        }
+        return balance;
+    }
+
+    /**
+     * 按用户 ID 顺序锁住多个用户的余额行，持有到调用方的事务结束；之后的扣款不会再等待其他事务。
+     * 还没有余额行的用户不加锁，第一次扣款时补建。
+     */
+    public void lock(Collection<Integer> userIds) {
+        if (!userIds.isEmpty()) {
+            walletMapper.lockBalances(new ArrayList<>(new TreeSet<>(userIds)));
+        }
+    }
+
+    /**
+     * 条件扣款，余额不足或用户不存在时抛出异常；流水由调用方在同一事务中写入，事务回滚时扣款一起回滚
+     */
+    public void debit(int userId, BigDecimal amount) {
+        BigDecimal scaled = scale(amount);
+        if (walletMapper.debit(userId, scaled) > 0) {
+            return;
+        }
+        // 余额不足或还没有余额行（补建后重试一次）
+        BigDecimal balance = getBalance(userId);
+        if (balance.compareTo(scaled) >= 0 && walletMapper.debit(userId, scaled) > 0) {
+            return;
+        }
+        throw new RuntimeException("余额不足，用户ID: " + userId + "，当前余额：" + balance);
+    }
+
+    /**
+     * 扣款并写入一条流水，必须在调用方的事务中执行
+     *
+     * @param entryType 流水类型，见 {@link WalletLedgerEntry}
+     * @param orderId   关联订单 ID，可为 null
+     */
+    public void charge(int userId, BigDecimal amount, String entryType, Long orderId) {
+        debit(userId, amount);
+        walletMapper.insertLedgerEntry(new WalletLedgerEntry(userId, scale(amount).negate(), entryType, orderId));
+    }
+
+    /**
+     * 入账并写入一条流水，必须在调用方的事务中执行
+     */
+    public void credit(int userId, BigDecimal amount, String entryType) {
+        BigDecimal scaled = scale(amount);
+        if (walletMapper.credit(userId, scaled) == 0) {
+            getBalance(userId);
+            walletMapper.credit(userId, scaled);
+        }
+        walletMapper.insertLedgerEntry(new WalletLedgerEntry(userId, scaled, entryType, null));
+    }
+
+    /**
+     * 把余额调整到指定值：锁住余额行后按差值追加一条调整流水，必须在调用方的事务中执行
+     */
+    public void adjustTo(int userId, BigDecimal target) {
+        getBalance(userId);
+        BigDecimal delta = target.subtract(walletMapper.selectBalanceForUpdate(userId));
+        int sign = delta.signum();
+        if (sign > 0) {
+            credit(userId, delta, WalletLedgerEntry.ADJUST);
+        } else if (sign < 0) {
+            charge(userId, delta.negate(), WalletLedgerEntry.ADJUST, null);
+        }
+    }
+
+    /**
+     * 查询用户最近的流水
+     */
+    public List<WalletLedgerEntry> getLedger(int userId, int limit) {
+        return walletMapper.selectLedgerByUserId(userId, limit);
+    }
+
+    // 扣款和入账金额必须为正数，按分取整
+    private static BigDecimal scale(BigDecimal amount) {
+        if (amount == null || amount.signum() <= 0) {
+            throw new RuntimeException("金额必须大于 0: " + amount);
+        }
+        return amount.setScale(2, RoundingMode.HALF_UP);
+    }
+}
@@ -0,0 +1,12 @@
+-- MQTT 订单认领表：集群模式下多个后端节点共享订阅订单主题，
+-- 同一条订单消息被重投或被多个节点收到时，只有先插入成功的节点会真正创建订单
+CREATE TABLE IF NOT EXISTS mqtt_order_claim
+(
+    id                BIGINT AUTO_INCREMENT PRIMARY KEY,
+    machine_id        INT         NOT NULL COMMENT '售货机 ID',
+    original_order_id VARCHAR(64) NOT NULL COMMENT '售货机端生成的订单号',
+    real_order_id     INT         NULL COMMENT '数据库中的真实订单 ID，处理完成前为空',
+    create_time       DATETIME    NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    UNIQUE KEY uk_machine_original_order (machine_id, original_order_id)
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8mb4;
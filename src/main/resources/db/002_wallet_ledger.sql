@@ -0,0 +1,31 @@
+-- 钱包流水表：只追加，不修改。正数为入账（充值、调整），负数为扣款（下单、支付）
+CREATE TABLE IF NOT EXISTS wallet_ledger
+(
+    id          BIGINT AUTO_INCREMENT PRIMARY KEY,
+    user_id     INT            NOT NULL COMMENT '用户 ID',
+    amount      DECIMAL(10, 2) NOT NULL COMMENT '变动金额，入账为正、扣款为负',
+    entry_type  VARCHAR(16)    NOT NULL COMMENT 'OPENING 期初 / TOPUP 充值 / ADJUST 调整 / ORDER 下单 / PAYMENT 支付',
+    order_id    BIGINT         NULL COMMENT '关联订单 ID',
+    create_time DATETIME(3)    NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+    KEY idx_user_id_id (user_id, id),
+    KEY idx_create_time (create_time)
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8mb4;
+
+-- 余额快照：用户余额 = 快照余额 + 快照之后（id > last_ledger_id）的流水之和
+CREATE TABLE IF NOT EXISTS wallet_snapshot
+(
+    user_id        INT            NOT NULL PRIMARY KEY,
+    balance        DECIMAL(10, 2) NOT NULL,
+    last_ledger_id BIGINT         NOT NULL COMMENT '快照已包含的最后一条流水 ID',
+    snapshot_time  DATETIME       NOT NULL
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8mb4;
+
+-- 把 user.balance 中的现有余额转为期初流水（只执行一次），此后 user.balance 不再更新
+INSERT INTO wallet_ledger (user_id, amount, entry_type)
+SELECT u.id, u.balance, 'OPENING'
+FROM user u
+WHERE u.balance IS NOT NULL
+  AND u.balance <> 0
+  AND NOT EXISTS (SELECT 1 FROM wallet_ledger l WHERE l.user_id = u.id AND l.entry_type = 'OPENING');
@@ -0,0 +1,18 @@
+-- 订单 ID 改为应用端分配（见 OrderIdGenerator），写入前就已知，不再依赖自增主键回填。
+-- 订单 ID 扩展为 BIGINT；如果 order_item.order_id 上有外键，需要先删除外键、修改两列后再重建。
+ALTER TABLE order_table MODIFY id BIGINT NOT NULL;
+ALTER TABLE order_item MODIFY order_id BIGINT NOT NULL;
+ALTER TABLE mqtt_order_claim MODIFY real_order_id BIGINT NULL COMMENT '数据库中的真实订单 ID，处理完成前为空';
+
+-- ID 序列表：每个节点一次取一个号段（hi/lo），号段内的 ID 在内存中分配
+CREATE TABLE IF NOT EXISTS id_sequence
+(
+    name       VARCHAR(32) NOT NULL PRIMARY KEY,
+    next_value BIGINT      NOT NULL COMMENT '下一个未分配的值'
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8mb4;
+
+-- 订单 ID 从现有最大 ID 之后开始
+INSERT IGNORE INTO id_sequence (name, next_value)
+SELECT 'order_id', COALESCE(MAX(id), 0) + 1
+FROM order_table;
@@ -0,0 +1,13 @@
+-- MQTT 发件箱：需要发布的消息和业务数据在同一个事务里写入，由 MqttOutboxRelay 批量发布，发布成功后删除（至少一次）
+CREATE TABLE IF NOT EXISTS mqtt_outbox
+(
+    id                BIGINT AUTO_INCREMENT PRIMARY KEY,
+    topic             VARCHAR(255) NOT NULL,
+    payload           TEXT         NOT NULL,
+    qos               TINYINT      NOT NULL DEFAULT 1,
+    attempts          INT          NOT NULL DEFAULT 0 COMMENT '已失败的发布次数',
+    next_attempt_time DATETIME(3)  NOT NULL DEFAULT CURRENT_TIMESTAMP(3) COMMENT '下一次可以发布的时间（失败后退避）',
+    create_time       DATETIME(3)  NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+    KEY idx_next_attempt_time (next_attempt_time, id)
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8mb4;
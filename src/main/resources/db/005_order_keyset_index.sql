@@ -0,0 +1,7 @@
+-- 订单列表按 (create_time, id) 倒序做游标分页，用户订单历史再加上 user_id 前缀；
+-- 翻页只在索引上定位到游标之后的 limit 行，不随订单表变大而变慢
+CREATE INDEX idx_order_create_time_id ON order_table (create_time, id);
+CREATE INDEX idx_order_user_create_time_id ON order_table (user_id, create_time, id);
+
+-- 按订单 ID 批量加载订单项（order_item.order_id 上已有外键索引时可跳过）
+CREATE INDEX idx_order_item_order_id ON order_item (order_id);
@@ -0,0 +1,23 @@
+-- 订单记录下单的售货机和订单状态（0 已下单，1 已支付，2 已完成），支持按售货机统计销售和 /api/order/query 的组合筛选
+ALTER TABLE order_table
+    ADD COLUMN machine_id INT     NULL COMMENT '售货机 ID，商品来自多台售货机时为空' AFTER user_id,
+    ADD COLUMN status     TINYINT NOT NULL DEFAULT 0 COMMENT '0 已下单，1 已支付，2 已完成' AFTER machine_id;
+
+-- 回填状态
+UPDATE order_table
+SET status = CASE
+                 WHEN completion_time IS NOT NULL THEN 2
+                 WHEN payment_time IS NOT NULL THEN 1
+                 ELSE 0 END;
+
+-- 回填售货机：MQTT 订单可以从认领记录得到售货机，其他历史订单无法确定，保持为空
+UPDATE order_table o
+    JOIN mqtt_order_claim c ON c.real_order_id = o.id
+SET o.machine_id = c.machine_id;
+
+-- 按售货机 + 时间范围统计销售（包含 total_price，统计订单数和销售额不用回表），也支撑按售货机筛选
+CREATE INDEX idx_order_machine_time ON order_table (machine_id, create_time, total_price);
+-- 按用户 + 状态筛选
+CREATE INDEX idx_order_user_status_time ON order_table (user_id, status, create_time);
+-- 只按状态筛选
+CREATE INDEX idx_order_status_time ON order_table (status, create_time);
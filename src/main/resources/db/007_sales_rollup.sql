@@ -0,0 +1,28 @@
+-- 销售汇总表：按 (时间桶, 商品, 售货机) 累计销量和销售额，订单提交后由 SalesRollupService 增量累加，
+-- 每晚和订单明细对账，不一致的小时桶整桶重建。machine_id 为 0 表示订单没有记录售货机。
+-- 首次部署后调用 POST /api/order/rollup/rebuild?from=...&to=... 用历史订单回填。
+CREATE TABLE IF NOT EXISTS sales_rollup_hourly
+(
+    bucket_start DATETIME       NOT NULL COMMENT '小时桶起点',
+    product_id   INT            NOT NULL,
+    machine_id   INT            NOT NULL DEFAULT 0,
+    units        BIGINT         NOT NULL DEFAULT 0 COMMENT '售出件数',
+    revenue      DECIMAL(14, 2) NOT NULL DEFAULT 0 COMMENT '销售额',
+    PRIMARY KEY (bucket_start, product_id, machine_id),
+    KEY idx_rollup_hourly_product (product_id, bucket_start),
+    KEY idx_rollup_hourly_machine (machine_id, bucket_start)
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8mb4;
+
+CREATE TABLE IF NOT EXISTS sales_rollup_daily
+(
+    bucket_start DATETIME       NOT NULL COMMENT '天桶起点（当天 00:00）',
+    product_id   INT            NOT NULL,
+    machine_id   INT            NOT NULL DEFAULT 0,
+    units        BIGINT         NOT NULL DEFAULT 0 COMMENT '售出件数',
+    revenue      DECIMAL(14, 2) NOT NULL DEFAULT 0 COMMENT '销售额',
+    PRIMARY KEY (bucket_start, product_id, machine_id),
+    KEY idx_rollup_daily_product (product_id, bucket_start),
+    KEY idx_rollup_daily_machine (machine_id, bucket_start)
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8mb4;
@@ -0,0 +1,10 @@
+-- MQTT 订单认领租约：认领记录带上认领节点和认领时间。
+-- 节点认领后宕机时 real_order_id 一直为空，租约过期后其他节点（或重启后的节点）收到重投的订单可以接管认领，
+-- 提交订单时只有认领仍属于自己才能写入真实订单 ID。
+ALTER TABLE mqtt_order_claim
+    ADD COLUMN owner      VARCHAR(64) NULL COMMENT '认领节点（服务端 MQTT 客户端 ID）' AFTER real_order_id,
+    ADD COLUMN claim_time DATETIME(3) NULL COMMENT '认领（或接管）时间，超过租约且未完成时可以被接管' AFTER owner;
+
+UPDATE mqtt_order_claim
+SET claim_time = create_time
+WHERE claim_time IS NULL;
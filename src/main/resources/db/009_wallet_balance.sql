@@ -0,0 +1,21 @@
+-- 钱包余额表：每个用户一行，是余额的唯一依据，取代 002 中的 wallet_snapshot（快照 + 流水尾部）。扣款在订单事务中执行
+-- UPDATE ... SET balance = balance - ? WHERE user_id = ? AND balance >= ?，影响行数为 0 即余额不足，
+-- 集群中多个节点并发扣同一个用户时由行锁串行化，不会透支。wallet_ledger 继续记录每一笔变动，用于对账和查询明细。
+-- 同一用户的扣款会在这一行上排队：要在多个节点之间保证不透支，总要在某个地方按用户串行化，
+-- 对"快照 + 流水尾部"做条件追加同样需要锁住该用户的流水范围（间隙锁），并发时还会互相死锁。
+CREATE TABLE IF NOT EXISTS wallet_balance
+(
+    user_id     INT            NOT NULL PRIMARY KEY,
+    balance     DECIMAL(10, 2) NOT NULL DEFAULT 0,
+    update_time DATETIME(3)    NOT NULL DEFAULT CURRENT_TIMESTAMP(3) ON UPDATE CURRENT_TIMESTAMP(3)
+) ENGINE = InnoDB
+  DEFAULT CHARSET = utf8mb4;
+
+-- 按现有流水初始化余额（停机后执行一次）；之后新注册的用户在第一次使用钱包时按流水之和补建
+INSERT IGNORE INTO wallet_balance (user_id, balance)
+SELECT l.user_id, SUM(l.amount)
+FROM wallet_ledger l
+GROUP BY l.user_id;
+
+-- 余额改由 wallet_balance 保存，快照表不再使用
+DROP TABLE IF EXISTS wallet_snapshot;
@@ -73,6 +73,9 @@ function sendMqttCommand(topic, payload) {
 // --- 命令处理结束 ---
 
 
+// 已处理订单日志的读取游标，每次只拉取游标之后的新消息
+let processedOrderCursor = 0;
+
 // 修改 startRealtimeUpdates 函数
 function startRealtimeUpdates() {
     const interval = 2000; // 每2秒轮询一次
@@ -80,11 +83,12 @@ function startRealtimeUpdates() {
         // 并行获取设备快照和订单
         Promise.all([
             fetch('/api/mqtt/devices').then(res => res.json()),
-            fetch('/api/mqtt/data?type=order').then(res => res.json()) // 这里会获取所有订单消息
+            fetch(`/api/mqtt/logs?type=processed_order&cursor=${processedOrderCursor}`).then(res => res.json()) // 只获取新的已处理订单消息
         ])
-            .then(([devices, orders]) => {
+            .then(([devices, page]) => {
                 updateDeviceList(devices);
-                updateOrderLogs(orders);
+                processedOrderCursor = page.nextCursor;
+                updateOrderLogs(page.logs);
             })
             .catch(error => {
                 console.error("轮询获取 MQTT 数据失败:", error);
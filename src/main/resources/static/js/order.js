@@ -8,22 +8,52 @@ window.onload = function () {
     loadOrders(); // 加载所有订单
 };
 
-// 加载所有订单
+// 当前列表的接口地址和下一页游标（分页加载，列表只需要订单主信息，商品清单在详情里查）
+let currentListUrl = '/api/order/all';
+let nextCursor = null;
+
+// 加载所有订单（第一页）
 function loadOrders() {
-    fetch('/api/order/all') // 调用后端接口加载所有订单
+    loadOrderPage('/api/order/all');
+}
+
+// 加载某个列表接口的第一页
+function loadOrderPage(url) {
+    currentListUrl = url;
+    nextCursor = null;
+    return fetchOrderPage(false);
+}
+
+// 加载下一页并追加到列表末尾
+function loadMoreOrders() {
+    if (nextCursor) {
+        fetchOrderPage(true);
+    }
+}
+
+function fetchOrderPage(append) {
+    let url = `${currentListUrl}?summary=true`;
+    if (append && nextCursor) {
+        url += `&cursor=${encodeURIComponent(nextCursor)}`;
+    }
+    return fetch(url) // 调用后端分页接口
         .then(response => response.json()) // 解析 JSON 数据
-        .then(orders => {
-            displayOrders(orders);
+        .then(page => {
+            nextCursor = page.hasMore ? page.nextCursor : null;
+            document.getElementById("loadMoreButton").style.display = nextCursor ? 'inline-block' : 'none';
+            displayOrders(page.orders, append);
         })
         .catch(error => console.error('加载订单失败:', error));
 }
 
-// 显示订单列表
-function displayOrders(orders) {
+// 显示订单列表，append 为 true 时追加到已有列表后面
+function displayOrders(orders, append) {
     const orderList = document.getElementById("orderList");
-    orderList.innerHTML = ''; // 清空列表
+    if (!append) {
+        orderList.innerHTML = ''; // 清空列表
+    }
 
-    if (orders.length === 0) {
+    if (orders.length === 0 && !append) {
         const row = document.createElement("tr");
         row.innerHTML = `<td colspan="5">暂无订单数据</td>`; // 没有数据提示
         orderList.appendChild(row);
@@ -37,7 +67,7 @@ function displayOrders(orders) {
             <td>${order.userId}</td>
             <td>${formatPrice(order.totalPrice)}</td>
             <td>${formatDateTime(order.createTime)}</td>
-            <td>${order.isPaid ? '已支付' : '未支付'}</td> <!-- 支付状态 -->
+            <td>${getOrderStatusText(order.status)}</td> <!-- 订单状态 -->
             <td>
                 <button onclick="viewOrderDetails(${order.id})">详情</button>
             </td>
@@ -78,7 +108,11 @@ function filterOrders() {
                 }
                 return response.json();
             })
-            .then(order => displayOrders([order])) // 展示找到的订单
+            .then(order => {
+                nextCursor = null;
+                document.getElementById("loadMoreButton").style.display = 'none';
+                displayOrders([order]); // 展示找到的订单
+            })
             .catch(error => {
                 console.error(error);
                 alert("订单不存在！");
@@ -86,14 +120,7 @@ function filterOrders() {
             });
     } else if (userId) {
         // 按用户 ID 筛选
-        fetch(`/api/order/user/${userId}`)
-            .then(response => response.json())
-            .then(orders => displayOrders(orders))
-            .catch(error => {
-                console.error('按用户筛选订单失败:', error);
-                alert('无此用户订单！');
-                displayOrders([]); // 清空列表
-            });
+        loadOrderPage(`/api/order/user/${userId}`);
     } else {
         // 无筛选条件时恢复所有数据
         loadOrders();
@@ -104,11 +131,11 @@ function filterOrders() {
 function getOrderStatusText(status) {
     switch (status) {
         case 0:
-            return '进行中';
+            return '未支付';
         case 1:
-            return '已完成';
+            return '已支付';
         case 2:
-            return '已取消';
+            return '已完成';
         default:
             return '未知状态';
     }
@@ -123,6 +150,8 @@ function viewOrderDetails(orderId) {
             details.innerHTML = `
                 <p>订单 ID: ${order.id}</p>
                 <p>用户 ID: ${order.userId}</p>
+                <p>售货机 ID: ${order.machineId ?? 'N/A'}</p>
+                <p>订单状态: ${getOrderStatusText(order.status)}</p>
                 <p>总金额: ${formatPrice(order.totalPrice)}</p>
                 <p>下单时间: ${formatDateTime(order.createTime)}</p>
                 <p>支付时间: ${formatDateTime(order.paymentTime)}</p>
@@ -76,11 +76,21 @@ function loadUserInfo() {
         .catch(error => console.error('Error loading user info:', error));
 }
 
+// 按游标逐页取出用户的全部订单（含商品清单）
+function fetchAllUserOrders(userId, cursor, collected = []) {
+    const url = `/api/order/user/${userId}?limit=200` + (cursor ? `&cursor=${encodeURIComponent(cursor)}` : '');
+    return fetch(url)
+        .then(response => response.json())
+        .then(page => {
+            collected.push(...page.orders);
+            return page.hasMore ? fetchAllUserOrders(userId, page.nextCursor, collected) : collected;
+        });
+}
+
 // 加载用户购买统计
 // 完全重写的 loadUserPurchaseStats 函数
 function loadUserPurchaseStats(userId) {
-    fetch(`/api/order/user/${userId}`)
-        .then(response => response.json())
+    fetchAllUserOrders(userId)
         .then(orders => {
             const statsDiv = document.getElementById('userPurchaseStats');
             statsDiv.innerHTML = ''; // 清空内容
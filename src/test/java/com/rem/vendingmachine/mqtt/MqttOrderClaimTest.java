@@ -0,0 +1,351 @@
+package com.rem.vendingmachine.mqtt;
+
+import com.rem.vendingmachine.dao.MqttOrderClaimMapper;
+import com.rem.vendingmachine.model.MqttOrderClaim;
+import com.rem.vendingmachine.model.MqttOutboxMessage;
+import com.rem.vendingmachine.model.Order;
+import com.rem.vendingmachine.service.OrderIdGenerator;
+import com.rem.vendingmachine.service.OrderPlacementEngine;
+import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
+import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 集群中两个节点收到同一条订单消息（共享订阅重投、QoS 1 重投）时，通过 mqtt_order_claim 认领只创建一个订单；
+ * 认领节点宕机留下的过期认领由收到重投的节点接管；整批提交失败时逐个订单重试，只有出问题的订单失败。认领表用内存实现代替数据库。
+ */
+class MqttOrderClaimTest {
+
+    private static final String TOPIC = "vendingmachine/order/12";
+
+    private static final byte[] ORDER = order("ORD-1700000000000");
+
+    private final InMemoryClaimMapper claims = new InMemoryClaimMapper();
+    private final OrderPlacementEngine orderPlacementEngine = mock(OrderPlacementEngine.class);
+    private final AtomicLong orderIds = new AtomicLong(1000);
+    private final List<Node> nodes = new ArrayList<>();
+
+    // 提交线程在校验订单前等待该闸门，用来让第二个节点在第一个节点提交完成前收到订单
+    private volatile CountDownLatch commitGate = new CountDownLatch(0);
+
+    @BeforeEach
+    void setUp() {
+        doAnswer(invocation -> {
+            commitGate.await(5, TimeUnit.SECONDS);
+            invocation.getArgument(0, Order.class).setTotalPrice(new BigDecimal("9.50"));
+            return null;
+        }).when(orderPlacementEngine).applyOrder(any(), anyList(), any());
+    }
+
+    @AfterEach
+    void tearDown() {
+        for (Node node : nodes) {
+            node.committer.shutdown();
+        }
+    }
+
+    @Test
+    void sameOrderOnTwoNodesCreatesOneOrder() throws Exception {
+        Node a = node("VendingMachineApp_Server_a");
+        Node b = node("VendingMachineApp_Server_b");
+
+        commitGate = new CountDownLatch(1);
+        a.deliver(ORDER);
+        b.deliver(ORDER);
+        // 第一个节点还在处理，第二个节点既不创建订单也不发布结果
+        verify(b.outboxRelay, never()).enqueue(anyList());
+        commitGate.countDown();
+
+        long realOrderId = awaitRealOrderId();
+        verify(orderPlacementEngine, times(1)).insertOrders(anyList());
+        assertEquals("VendingMachineApp_Server_a", claims.get(12, "ORD-1700000000000").getOwner());
+
+        // 处理完成后再次重投：不再创建订单，重新发布已有的处理结果
+        b.deliver(ORDER);
+        verify(orderPlacementEngine, times(1)).insertOrders(anyList());
+        verify(b.outboxRelay).enqueue(anyList());
+        assertEquals(realOrderId, b.dedupWindow.peek(12, "ORD-1700000000000"));
+    }
+
+    @Test
+    void staleClaimIsTakenOverAfterLease() throws Exception {
+        // 另一个节点认领后宕机，没有写入真实订单 ID
+        claims.claim(12, "ORD-1700000000000", "VendingMachineApp_Server_crashed");
+        Node a = node("VendingMachineApp_Server_a");
+
+        // 租约未过期：认为订单仍在处理中，不创建订单
+        a.deliver(ORDER);
+        verify(orderPlacementEngine, never()).applyOrder(any(), anyList(), any());
+
+        claims.expire(12, "ORD-1700000000000");
+        a.deliver(ORDER);
+
+        awaitRealOrderId();
+        verify(orderPlacementEngine, times(1)).insertOrders(anyList());
+        assertEquals("VendingMachineApp_Server_a", claims.get(12, "ORD-1700000000000").getOwner());
+    }
+
+    @Test
+    void failedOrderReleasesClaimAndNotifiesMachine() throws Exception {
+        doThrow(new RuntimeException("余额不足")).when(orderPlacementEngine).applyOrder(any(), anyList(), any());
+        Node a = node("VendingMachineApp_Server_a");
+
+        a.deliver(ORDER);
+
+        // Broker 不会重投，失败结果经发件箱告诉售货机；认领被释放，售货机重新上报时可以再次处理
+        ArgumentCaptor<List<MqttOutboxMessage>> messages = ArgumentCaptor.forClass(List.class);
+        verify(a.outboxRelay, timeout(5000)).enqueue(messages.capture());
+        assertEquals("vendingmachine/order/failed/ORD-1700000000000", messages.getValue().get(0).getTopic());
+        assertTrue(messages.getValue().get(0).getPayload().contains("余额不足"));
+        assertNull(claims.get(12, "ORD-1700000000000"));
+        verify(orderPlacementEngine, never()).insertOrders(anyList());
+    }
+
+    @Test
+    void failedBatchIsRetriedOrderByOrder() throws Exception {
+        // 第一次批量写入遇到锁等待超时，整批回滚后逐个重试
+        doThrow(new CannotAcquireLockException("Lock wait timeout exceeded")).doNothing()
+                .when(orderPlacementEngine).insertOrders(anyList());
+        Node a = node("VendingMachineApp_Server_a", 500);
+
+        a.deliver(order("ORD-1"));
+        a.deliver(order("ORD-2"));
+
+        awaitRealOrderId("ORD-1");
+        awaitRealOrderId("ORD-2");
+        verify(orderPlacementEngine, times(3)).insertOrders(anyList());
+        assertEquals(List.of("vendingmachine/order/processed/"), publishedTopics(a, 2));
+    }
+
+    @Test
+    void takenOverClaimFailsOnlyThatOrder() throws Exception {
+        Node a = node("VendingMachineApp_Server_a", 500);
+
+        commitGate = new CountDownLatch(1);
+        a.deliver(order("ORD-1"));
+        a.deliver(order("ORD-2"));
+        // 提交前 ORD-2 的认领租约过期，被另一个节点接管
+        claims.expire(12, "ORD-2");
+        assertEquals(1, claims.takeOver(12, "ORD-2", "VendingMachineApp_Server_b", 120));
+        commitGate.countDown();
+
+        awaitRealOrderId("ORD-1");
+        // 整批一次，逐个重试两次；ORD-2 的重试同样因认领被接管而回滚
+        verify(orderPlacementEngine, timeout(5000).times(3)).insertOrders(anyList());
+        // ORD-2 由接管方创建：本节点不写入，也不发布失败消息
+        assertNull(claims.get(12, "ORD-2").getRealOrderId());
+        assertEquals("VendingMachineApp_Server_b", claims.get(12, "ORD-2").getOwner());
+        assertEquals(List.of("vendingmachine/order/processed/"), publishedTopics(a, 1));
+    }
+
+    // 发件箱收到的消息主题前缀（去掉订单 ID 并去重）
+    private static List<String> publishedTopics(Node node, int enqueues) {
+        ArgumentCaptor<List<MqttOutboxMessage>> messages = ArgumentCaptor.forClass(List.class);
+        verify(node.outboxRelay, timeout(5000).times(enqueues)).enqueue(messages.capture());
+        List<String> topics = new ArrayList<>();
+        for (List<MqttOutboxMessage> enqueued : messages.getAllValues()) {
+            for (MqttOutboxMessage message : enqueued) {
+                String prefix = message.getTopic().substring(0, message.getTopic().lastIndexOf('/') + 1);
+                if (!topics.contains(prefix)) {
+                    topics.add(prefix);
+                }
+            }
+        }
+        return topics;
+    }
+
+    private long awaitRealOrderId() throws InterruptedException {
+        return awaitRealOrderId("ORD-1700000000000");
+    }
+
+    private long awaitRealOrderId(String originalOrderId) throws InterruptedException {
+        verify(orderPlacementEngine, timeout(5000)).insertOrders(anyList());
+        long deadline = System.currentTimeMillis() + 5000;
+        Long realOrderId;
+        while ((realOrderId = claims.selectRealOrderId(12, originalOrderId)) == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNotNull(realOrderId, "订单没有在超时时间内提交");
+        return realOrderId;
+    }
+
+    private static byte[] order(String originalOrderId) {
+        return ("{\"orderId\":\"" + originalOrderId + "\",\"userId\":3,\"machineId\":\"12\",\"totalPrice\":9.50,"
+                + "\"items\":[{\"productId\":1,\"quantity\":2},{\"productId\":7,\"quantity\":1}]}")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private Node node(String clientId) {
+        return node(clientId, 1);
+    }
+
+    // 一个后端节点：自己的订阅服务、组提交器、去重窗口和发件箱，共享认领表和下单引擎；maxWaitMs 为凑批等待时间
+    private Node node(String clientId, long maxWaitMs) {
+        Node node = new Node();
+        MqttClient mqttClient = mock(MqttClient.class);
+        when(mqttClient.getClientId()).thenReturn(clientId);
+        MqttMessageDispatcher dispatcher = mock(MqttMessageDispatcher.class);
+        doAnswer(invocation -> {
+            invocation.getArgument(2, Runnable.class).run();
+            return null;
+        }).when(dispatcher).dispatch(any(), any(), any());
+        OrderIdGenerator orderIdGenerator = mock(OrderIdGenerator.class);
+        when(orderIdGenerator.nextId()).thenAnswer(invocation -> orderIds.incrementAndGet());
+
+        node.outboxRelay = mock(MqttOutboxRelay.class);
+        node.dedupWindow = new MqttOrderDedupWindow(100);
+        ReflectionTestUtils.setField(node.dedupWindow, "mqttOrderClaimMapper", claims);
+
+        node.committer = new MqttOrderCommitter();
+        ReflectionTestUtils.setField(node.committer, "orderPlacementEngine", orderPlacementEngine);
+        ReflectionTestUtils.setField(node.committer, "mqttOrderClaimMapper", claims);
+        ReflectionTestUtils.setField(node.committer, "orderIdGenerator", orderIdGenerator);
+        ReflectionTestUtils.setField(node.committer, "outboxRelay", node.outboxRelay);
+        ReflectionTestUtils.setField(node.committer, "transactionManager", mock(PlatformTransactionManager.class));
+        ReflectionTestUtils.setField(node.committer, "maxWaitMs", maxWaitMs);
+        ReflectionTestUtils.setField(node.committer, "maxBatchSize", 50);
+        ReflectionTestUtils.setField(node.committer, "queueCapacity", 100);
+        node.committer.start();
+
+        MqttSubscriberService subscriber = new MqttSubscriberService();
+        ReflectionTestUtils.setField(subscriber, "mqttClient", mqttClient);
+        ReflectionTestUtils.setField(subscriber, "mqttMessageDispatcher", dispatcher);
+        ReflectionTestUtils.setField(subscriber, "orderCommitter", node.committer);
+        ReflectionTestUtils.setField(subscriber, "mqttOrderClaimMapper", claims);
+        ReflectionTestUtils.setField(subscriber, "orderDedupWindow", node.dedupWindow);
+        ReflectionTestUtils.setField(subscriber, "outboxRelay", node.outboxRelay);
+        ReflectionTestUtils.setField(subscriber, "claimLeaseSeconds", 120);
+        subscriber.init();
+
+        ArgumentCaptor<MqttCallbackExtended> callback = ArgumentCaptor.forClass(MqttCallbackExtended.class);
+        verify(mqttClient).setCallback(callback.capture());
+        node.callback = callback.getValue();
+        nodes.add(node);
+        return node;
+    }
+
+    private static class Node {
+        private MqttCallbackExtended callback;
+        private MqttOrderCommitter committer;
+        private MqttOrderDedupWindow dedupWindow;
+        private MqttOutboxRelay outboxRelay;
+
+        void deliver(byte[] payload) throws Exception {
+            MqttMessage message = new MqttMessage(payload);
+            message.setQos(1);
+            callback.messageArrived(TOPIC, message);
+        }
+    }
+
+    /**
+     * 内存中的 mqtt_order_claim 表，语义和 MqttOrderClaimMapper.xml 中的 SQL 一致
+     */
+    private static class InMemoryClaimMapper implements MqttOrderClaimMapper {
+        private final Map<String, MqttOrderClaim> rows = new HashMap<>();
+        private final Map<String, Long> claimTimes = new HashMap<>();
+
+        synchronized MqttOrderClaim get(int machineId, String originalOrderId) {
+            return rows.get(machineId + ":" + originalOrderId);
+        }
+
+        // 把认领时间往前拨，模拟租约过期
+        synchronized void expire(int machineId, String originalOrderId) {
+            claimTimes.put(machineId + ":" + originalOrderId, 0L);
+        }
+
+        @Override
+        public synchronized int claim(int machineId, String originalOrderId, String owner) {
+            String key = machineId + ":" + originalOrderId;
+            if (rows.containsKey(key)) {
+                return 0;
+            }
+            rows.put(key, new MqttOrderClaim(machineId, originalOrderId, null, owner));
+            claimTimes.put(key, System.currentTimeMillis());
+            return 1;
+        }
+
+        @Override
+        public synchronized int takeOver(int machineId, String originalOrderId, String owner, int leaseSeconds) {
+            String key = machineId + ":" + originalOrderId;
+            MqttOrderClaim row = rows.get(key);
+            if (row == null || row.getRealOrderId() != null
+                    || claimTimes.get(key) >= System.currentTimeMillis() - leaseSeconds * 1000L) {
+                return 0;
+            }
+            row.setOwner(owner);
+            claimTimes.put(key, System.currentTimeMillis());
+            return 1;
+        }
+
+        @Override
+        public synchronized int updateRealOrderId(int machineId, String originalOrderId, long realOrderId) {
+            MqttOrderClaim row = get(machineId, originalOrderId);
+            if (row == null) {
+                return 0;
+            }
+            row.setRealOrderId(realOrderId);
+            return 1;
+        }
+
+        @Override
+        public synchronized int batchUpdateRealOrderId(List<MqttOrderClaim> claims) {
+            int updated = 0;
+            for (MqttOrderClaim claim : claims) {
+                MqttOrderClaim row = get(claim.getMachineId(), claim.getOriginalOrderId());
+                if (row != null && row.getRealOrderId() == null && row.getOwner().equals(claim.getOwner())) {
+                    row.setRealOrderId(claim.getRealOrderId());
+                    updated++;
+                }
+            }
+            return updated;
+        }
+
+        @Override
+        public synchronized Long selectRealOrderId(int machineId, String originalOrderId) {
+            MqttOrderClaim row = get(machineId, originalOrderId);
+            return row != null ? row.getRealOrderId() : null;
+        }
+
+        @Override
+        public synchronized int release(int machineId, String originalOrderId, String owner) {
+            MqttOrderClaim row = get(machineId, originalOrderId);
+            if (row == null || row.getRealOrderId() != null || !row.getOwner().equals(owner)) {
+                return 0;
+            }
+            rows.remove(machineId + ":" + originalOrderId);
+            return 1;
+        }
+    }
+}
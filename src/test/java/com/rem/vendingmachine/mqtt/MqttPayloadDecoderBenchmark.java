@@ -0,0 +1,108 @@
+package com.rem.vendingmachine.mqtt;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rem.vendingmachine.model.MqttOrderPayload;
+import com.rem.vendingmachine.model.MqttStatePayload;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 对比旧的 new String + readTree 解析方式和类型化解码的单条消息内存分配量
+ * 分配量随 JVM 版本和参数变化，不作为单元测试运行（类名不以 Test 结尾，mvn test 不会执行），需要时手动运行 main 方法。
+ * 解码结果的正确性见 {@link MqttPayloadDecoderTest}。
+ */
+public class MqttPayloadDecoderBenchmark {
+
+    private static final int WARMUP = 20_000;
+    private static final int ITERATIONS = 100_000;
+
+    private static final byte[] STATE = "{\"machineId\":\"12\",\"temperature\":24.5,\"status\":1,\"alerts\":\"无\"}"
+            .getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] ORDER = ("{\"orderId\":\"ORD-1700000000000\",\"userId\":3,\"machineId\":\"12\",\"totalPrice\":9.50,"
+            + "\"items\":[{\"productId\":1,\"quantity\":2},{\"productId\":7,\"quantity\":1}]}")
+            .getBytes(StandardCharsets.UTF_8);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final MqttPayloadDecoder decoder = new MqttPayloadDecoder(objectMapper);
+
+    public static void main(String[] args) throws Exception {
+        MqttPayloadDecoderBenchmark benchmark = new MqttPayloadDecoderBenchmark();
+        benchmark.state();
+        benchmark.order();
+    }
+
+    private void state() throws Exception {
+        long legacy = measure(() -> {
+            JsonNode root = objectMapper.readTree(new String(STATE));
+            return root.get("machineId").asText().length() + root.get("status").asInt()
+                    + (int) root.get("temperature").asDouble() + root.get("alerts").asText().length();
+        });
+        long typed = measure(() -> {
+            MqttStatePayload state = decoder.decodeState(STATE);
+            return state.getMachineId().length() + state.getStatus() + (int) state.getTemperature() + state.getAlerts().length();
+        });
+        report("state", legacy, typed);
+    }
+
+    private void order() throws Exception {
+        long legacy = measure(() -> {
+            JsonNode root = objectMapper.readTree(new String(ORDER));
+            List<Map<String, Object>> items = new ArrayList<>();
+            for (JsonNode itemNode : root.get("items")) {
+                Map<String, Object> item = new HashMap<>();
+                item.put("productId", itemNode.get("productId").asInt());
+                item.put("quantity", itemNode.get("quantity").asInt());
+                items.add(item);
+            }
+            int sum = 0;
+            for (Map<String, Object> item : items) {
+                sum += (Integer) item.get("productId") * (Integer) item.get("quantity");
+            }
+            return sum + root.get("orderId").asText().length() + root.get("userId").asInt();
+        });
+        long typed = measure(() -> {
+            MqttOrderPayload order = decoder.decodeOrder(ORDER);
+            int sum = 0;
+            for (MqttOrderPayload.Item item : order.getItems()) {
+                sum += item.getProductId() * item.getQuantity();
+            }
+            return sum + order.getOrderId().length() + order.getUserId();
+        });
+        report("order", legacy, typed);
+    }
+
+    private interface Decode {
+        int run() throws Exception;
+    }
+
+    // 返回单条消息平均分配的字节数
+    private long measure(Decode decode) throws Exception {
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long sink = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            sink += decode.run();
+        }
+        // 直接取当前线程的分配量，不用线程 ID（Thread.getId() 在 JDK 19 起已废弃）
+        long before = threadBean.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += decode.run();
+        }
+        long after = threadBean.getCurrentThreadAllocatedBytes();
+        if (sink == 0) {
+            System.out.println("[解码基准] 结果为 0，解码可能被优化掉");
+        }
+        return (after - before) / ITERATIONS;
+    }
+
+    private void report(String name, long legacy, long typed) {
+        System.out.printf("[解码基准] %s: readTree %d B/条, 类型化 %d B/条, 降低 %.1f 倍%n",
+                name, legacy, typed, (double) legacy / Math.max(1, typed));
+    }
+}
@@ -0,0 +1,46 @@
+package com.rem.vendingmachine.mqtt;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rem.vendingmachine.model.MqttOrderPayload;
+import com.rem.vendingmachine.model.MqttStatePayload;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 直接从 byte[] 解码出的字段和消息内容一致；内存分配量的对比见 {@link MqttPayloadDecoderBenchmark}
+ */
+class MqttPayloadDecoderTest {
+
+    private final MqttPayloadDecoder decoder = new MqttPayloadDecoder(new ObjectMapper());
+
+    @Test
+    void decodesState() throws Exception {
+        MqttStatePayload state = decoder.decodeState(bytes("{\"machineId\":\"12\",\"temperature\":24.5,\"status\":1,\"alerts\":\"温度过高\"}"));
+        assertEquals("12", state.getMachineId());
+        assertEquals(24.5, state.getTemperature());
+        assertEquals(1, state.getStatus());
+        assertEquals("温度过高", state.getAlerts());
+    }
+
+    @Test
+    void decodesOrder() throws Exception {
+        MqttOrderPayload order = decoder.decodeOrder(bytes("{\"orderId\":\"ORD-1700000000000\",\"userId\":3,\"machineId\":\"12\",\"totalPrice\":9.50,"
+                + "\"items\":[{\"productId\":1,\"quantity\":2},{\"productId\":7,\"quantity\":1}]}"));
+        assertEquals("ORD-1700000000000", order.getOrderId());
+        assertEquals(3, order.getUserId());
+        assertEquals("12", order.getMachineId());
+        assertEquals(9.5, order.getTotalPrice());
+        assertEquals(2, order.getItems().size());
+        assertEquals(1, order.getItems().get(0).getProductId());
+        assertEquals(2, order.getItems().get(0).getQuantity());
+        assertEquals(7, order.getItems().get(1).getProductId());
+        assertEquals(1, order.getItems().get(1).getQuantity());
+    }
+
+    private static byte[] bytes(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+}
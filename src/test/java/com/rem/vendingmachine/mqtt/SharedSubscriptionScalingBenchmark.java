@@ -0,0 +1,127 @@
+package com.rem.vendingmachine.mqtt;
+
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
+import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 共享订阅的横向扩展基准：1、2、4 个消费者加入同一个共享订阅组，对比消费吞吐量
+ * 吞吐量受机器和 Broker 负载影响，不作为单元测试运行（类名不以 Test 结尾，mvn test 不会执行），需要时手动运行 main 方法。
+ * 需要本机有支持共享订阅的 Broker（例如 mosquitto 1.6+：mosquitto -p 1883），
+ * 地址可通过 -Dmqtt.test.broker-url 指定。多个节点收到同一订单时的去重见 {@link MqttOrderClaimTest}。
+ */
+public class SharedSubscriptionScalingBenchmark {
+
+    private static final String BROKER_URL = System.getProperty("mqtt.test.broker-url", "tcp://localhost:1883");
+
+    private static final int MESSAGES = 400;
+
+    // 模拟每条消息的处理耗时（写库等）
+    private static final long WORK_MILLIS = 5;
+
+    public static void main(String[] args) throws Exception {
+        if (!brokerAvailable()) {
+            System.err.println("本机没有可用的 MQTT Broker: " + BROKER_URL);
+            return;
+        }
+
+        double single = measure(1);
+        double two = measure(2);
+        double four = measure(4);
+        System.out.printf("[共享订阅扩展] 1 个消费者 %.0f 条/秒, 2 个 %.0f 条/秒, 4 个 %.0f 条/秒%n", single, two, four);
+        System.out.printf("[共享订阅扩展] 2 个消费者为 1 个的 %.2f 倍, 4 个为 %.2f 倍%n", two / single, four / single);
+    }
+
+    // 返回吞吐量（条/秒），同时校验每条消息恰好被组内一个消费者处理
+    private static double measure(int consumers) throws Exception {
+        String run = UUID.randomUUID().toString().substring(0, 8);
+        String topic = "scaletest/" + run;
+        CountDownLatch latch = new CountDownLatch(MESSAGES);
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+        AtomicInteger duplicates = new AtomicInteger();
+
+        List<MqttClient> clients = new ArrayList<>();
+        try {
+            for (int i = 0; i < consumers; i++) {
+                MqttClient consumer = connect("scale-consumer-" + run + "-" + i);
+                clients.add(consumer);
+                consumer.setCallback(new MqttCallback() {
+                    @Override
+                    public void connectionLost(Throwable cause) {
+                    }
+
+                    @Override
+                    public void messageArrived(String receivedTopic, MqttMessage message) throws Exception {
+                        Thread.sleep(WORK_MILLIS);
+                        if (!seen.add(new String(message.getPayload(), StandardCharsets.UTF_8))) {
+                            duplicates.incrementAndGet();
+                        }
+                        latch.countDown();
+                    }
+
+                    @Override
+                    public void deliveryComplete(IMqttDeliveryToken token) {
+                    }
+                });
+                consumer.subscribe("$share/scale-" + run + "/" + topic + "/#", 1);
+            }
+
+            MqttClient publisher = connect("scale-publisher-" + run);
+            clients.add(publisher);
+            long start = System.nanoTime();
+            for (int i = 0; i < MESSAGES; i++) {
+                MqttMessage message = new MqttMessage(String.valueOf(i).getBytes(StandardCharsets.UTF_8));
+                message.setQos(1);
+                publisher.publish(topic + "/" + (i % 16), message);
+            }
+            if (!latch.await(60, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("消息没有在超时时间内处理完，剩余: " + latch.getCount());
+            }
+            long elapsed = System.nanoTime() - start;
+
+            if (duplicates.get() > 0) {
+                throw new IllegalStateException("同一条消息被多个消费者处理，重复条数: " + duplicates.get());
+            }
+            return MESSAGES * 1_000_000_000.0 / elapsed;
+        } finally {
+            for (MqttClient client : clients) {
+                client.disconnect();
+                client.close();
+            }
+        }
+    }
+
+    private static MqttClient connect(String clientId) throws MqttException {
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setCleanSession(true);
+        options.setMaxInflight(1000);
+        MqttClient client = new MqttClient(BROKER_URL, clientId, new MemoryPersistence());
+        client.connect(options);
+        return client;
+    }
+
+    private static boolean brokerAvailable() {
+        try {
+            MqttClient probe = connect("scale-probe-" + UUID.randomUUID().toString().substring(0, 8));
+            probe.disconnect();
+            probe.close();
+            return true;
+        } catch (MqttException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.rem.vendingmachine.service;
+
+import com.rem.vendingmachine.dao.OrderItemMapper;
+import com.rem.vendingmachine.dao.OrderMapper;
+import com.rem.vendingmachine.dao.VendingMachineProductMapper;
+import com.rem.vendingmachine.dao.WalletMapper;
+import com.rem.vendingmachine.model.Order;
+import com.rem.vendingmachine.model.OrderLine;
+import com.rem.vendingmachine.model.VendingMachineProduct;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 统计下单引擎每个订单的数据库往返次数（每次 Mapper 调用对应一次往返），
+ * 并和旧的逐件查询/逐件写入方式（4N + 3 次）对比；库存以锁住的数据库行为准，余额用条件 UPDATE 扣减
+ */
+@ExtendWith(MockitoExtension.class)
+class OrderPlacementEngineTest {
+
+    @Mock
+    private OrderMapper orderMapper;
+
+    @Mock
+    private OrderItemMapper orderItemMapper;
+
+    @Mock
+    private WalletMapper walletMapper;
+
+    @Mock
+    private VendingMachineProductMapper vendingMachineProductMapper;
+
+    @Mock
+    private OrderIdGenerator orderIdGenerator;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @Spy
+    private SlotStockService slotStockService = new SlotStockService();
+
+    private final SlotStockSnapshot slotStockSnapshot = new SlotStockSnapshot();
+
+    @Spy
+    private WalletEngine walletEngine = new WalletEngine();
+
+    @InjectMocks
+    private OrderPlacementEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(slotStockService, "vendingMachineProductMapper", vendingMachineProductMapper);
+        ReflectionTestUtils.setField(slotStockService, "slotStockSnapshot", slotStockSnapshot);
+        ReflectionTestUtils.setField(walletEngine, "walletMapper", walletMapper);
+    }
+
+    @Test
+    void roundTripsPerOrderDoNotGrowWithItems() {
+        for (int itemCount : new int[]{1, 5, 20}) {
+            Mockito.clearInvocations(orderMapper, orderItemMapper, walletMapper, vendingMachineProductMapper);
+            List<OrderLine> lines = cart(itemCount);
+            when(vendingMachineProductMapper.selectSlotsForUpdate(anyList())).thenReturn(slots(itemCount, 10));
+            when(walletMapper.debit(eq(1), any())).thenReturn(1);
+            when(orderIdGenerator.nextId()).thenReturn(1000L + itemCount);
+
+            Order order = new Order();
+            order.setUserId(1);
+            engine.placeOrder(order, lines);
+
+            int roundTrips = roundTrips();
+            int legacyRoundTrips = 4 * itemCount + 3;
+            System.out.printf("[下单往返次数] %d 件商品: 旧流程 %d 次, 下单引擎 %d 次%n", itemCount, legacyRoundTrips, roundTrips);
+            assertEquals(6, roundTrips);
+            assertTrue(roundTrips < legacyRoundTrips);
+            assertEquals(new BigDecimal("2.50").multiply(BigDecimal.valueOf(itemCount * 2L)), order.getTotalPrice());
+            assertEquals(itemCount, order.getOrderItems().size());
+            // 订单 ID 在写库前分配，订单项直接带上
+            assertEquals(1000L + itemCount, order.getId());
+            assertEquals(1000L + itemCount, order.getOrderItems().get(0).getOrderId());
+            // 下单时间截断到 create_time 列的精度（秒），写库的值和订单事件中的值一致
+            assertEquals(0, order.getCreateTime().getNano());
+            // 一条 UPDATE 扣减所有货道，不在事务中时立即更新内存副本
+            verify(vendingMachineProductMapper).batchAddStock(argThat(deltas -> deltas.size() == itemCount && deltas.get(0).getStock() == -2));
+            assertEquals(8, slotStockSnapshot.getSlot(7, 1).getStock());
+        }
+    }
+
+    @Test
+    void failsBeforeWritingWhenStockIsShort() {
+        List<VendingMachineProduct> slots = slots(3, 10);
+        slots.get(2).setStock(1);
+        when(vendingMachineProductMapper.selectSlotsForUpdate(anyList())).thenReturn(slots);
+
+        Order order = new Order();
+        order.setUserId(1);
+        assertThrows(RuntimeException.class, () -> engine.placeOrder(order, cart(3)));
+
+        // 只锁住货道读取库存，没有任何写入
+        assertEquals(1, roundTrips());
+        verify(vendingMachineProductMapper, never()).batchAddStock(any());
+        verify(orderMapper, never()).insertOrder(any());
+    }
+
+    @Test
+    void balanceFailureWritesNoStock() {
+        when(vendingMachineProductMapper.selectSlotsForUpdate(anyList())).thenReturn(slots(3, 10));
+        // 条件 UPDATE 没有扣到（余额不足），再查一次余额用于提示
+        when(walletMapper.debit(eq(1), any())).thenReturn(0);
+        when(walletMapper.selectBalance(1)).thenReturn(new BigDecimal("1.00"));
+
+        Order order = new Order();
+        order.setUserId(1);
+        RuntimeException e = assertThrows(RuntimeException.class, () -> engine.placeOrder(order, cart(3)));
+
+        assertTrue(e.getMessage().contains("余额不足"));
+        verify(walletMapper, times(1)).debit(1, new BigDecimal("15.00"));
+        verify(vendingMachineProductMapper, never()).batchAddStock(any());
+        verify(orderMapper, never()).insertOrder(any());
+        verify(walletMapper, never()).insertLedgerEntry(any());
+    }
+
+    @Test
+    void missingBalanceRowIsCreatedFromLedgerThenDebited() {
+        when(vendingMachineProductMapper.selectSlotsForUpdate(anyList())).thenReturn(slots(1, 10));
+        // 迁移之后注册的用户还没有余额行：第一次扣款影响 0 行，按流水补建后重试
+        when(walletMapper.debit(eq(1), any())).thenReturn(0, 1);
+        when(walletMapper.selectBalance(1)).thenReturn(null, new BigDecimal("20.00"));
+
+        Order order = new Order();
+        order.setUserId(1);
+        engine.placeOrder(order, cart(1));
+
+        verify(walletMapper).initBalance(1);
+        verify(walletMapper, times(2)).debit(1, new BigDecimal("5.00"));
+        verify(orderMapper).insertOrder(order);
+    }
+
+    @Test
+    void stockIsCheckedAgainstLockedRowsNotTheCachedCopy() {
+        // 内存副本过期：其他节点已经补货
+        slotStockSnapshot.load(slots(1, 0));
+        when(vendingMachineProductMapper.selectSlotsForUpdate(anyList())).thenReturn(slots(1, 10));
+        when(walletMapper.debit(eq(1), any())).thenReturn(1);
+
+        Order restocked = new Order();
+        restocked.setUserId(1);
+        engine.placeOrder(restocked, cart(1));
+        assertEquals(8, slotStockSnapshot.getSlot(7, 1).getStock());
+
+        // 内存副本过期：其他节点已经卖完
+        when(vendingMachineProductMapper.selectSlotsForUpdate(anyList())).thenReturn(slots(1, 1));
+        Order soldOut = new Order();
+        soldOut.setUserId(1);
+        assertThrows(RuntimeException.class, () -> engine.placeOrder(soldOut, cart(1)));
+        verify(vendingMachineProductMapper, times(1)).batchAddStock(any());
+    }
+
+    // 每件商品买 2 个
+    private List<OrderLine> cart(int itemCount) {
+        List<OrderLine> lines = new ArrayList<>();
+        for (int i = 1; i <= itemCount; i++) {
+            lines.add(new OrderLine(7, i, 2));
+        }
+        return lines;
+    }
+
+    private List<VendingMachineProduct> slots(int itemCount, int stock) {
+        List<VendingMachineProduct> slots = new ArrayList<>();
+        for (int i = 1; i <= itemCount; i++) {
+            slots.add(new VendingMachineProduct(7, i, "商品" + i, new BigDecimal("2.50"), stock));
+        }
+        return slots;
+    }
+
+    private int roundTrips() {
+        return Mockito.mockingDetails(vendingMachineProductMapper).getInvocations().size()
+                + Mockito.mockingDetails(orderMapper).getInvocations().size()
+                + Mockito.mockingDetails(orderItemMapper).getInvocations().size()
+                + Mockito.mockingDetails(walletMapper).getInvocations().size();
+    }
+}
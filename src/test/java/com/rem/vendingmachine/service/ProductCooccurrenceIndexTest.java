@@ -0,0 +1,67 @@
+package com.rem.vendingmachine.service;
+
+import com.rem.vendingmachine.model.Order;
+import com.rem.vendingmachine.model.OrderCommittedEvent;
+import com.rem.vendingmachine.model.OrderItem;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 购物车的互补商品按共现次数之和排序，不包括购物车中的商品；同一订单中重复的商品只算一次；
+ * 索引加载完成之前返回空列表
+ */
+class ProductCooccurrenceIndexTest {
+
+    @Test
+    void complementsRankedByCooccurrence() {
+        ProductCooccurrenceIndex index = new ProductCooccurrenceIndex();
+        ReflectionTestUtils.setField(index, "ready", true);
+        // 1 和 2 一起买 5 次，1 和 3 一起买 3 次，2 和 4 一起买 4 次，5 只单独购买
+        for (int i = 0; i < 5; i++) {
+            commit(index, 1, 2);
+        }
+        for (int i = 0; i < 3; i++) {
+            commit(index, 1, 3, 3);
+        }
+        for (int i = 0; i < 4; i++) {
+            commit(index, 2, 4);
+        }
+        commit(index, 5);
+
+        assertEquals(List.of(2, 3), index.complements(List.of(1), 10));
+        assertEquals(List.of(1, 4), index.complements(List.of(2), 10));
+        // 购物车 {1, 2}：4 得 4 分，3 得 3 分
+        assertEquals(List.of(4, 3), index.complements(List.of(1, 2), 10));
+        assertEquals(List.of(4), index.complements(List.of(1, 2), 1));
+        assertEquals(List.of(), index.complements(List.of(5), 10));
+    }
+
+    @Test
+    void emptyUntilLoaded() {
+        ProductCooccurrenceIndex index = new ProductCooccurrenceIndex();
+        // 加载期间提交的订单照常累加，加载完成后可以查到
+        commit(index, 1, 2);
+        assertEquals(List.of(), index.complements(List.of(1), 10));
+
+        ReflectionTestUtils.setField(index, "ready", true);
+        assertEquals(List.of(2), index.complements(List.of(1), 10));
+    }
+
+    private static void commit(ProductCooccurrenceIndex index, int... productIds) {
+        List<OrderItem> items = new ArrayList<>();
+        for (int productId : productIds) {
+            OrderItem item = new OrderItem();
+            item.setProductId(productId);
+            item.setQuantity(1);
+            items.add(item);
+        }
+        Order order = new Order();
+        order.setOrderItems(items);
+        index.onOrderCommitted(new OrderCommittedEvent(order));
+    }
+}
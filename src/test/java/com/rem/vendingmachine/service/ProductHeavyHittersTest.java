@@ -0,0 +1,73 @@
+package com.rem.vendingmachine.service;
+
+import com.rem.vendingmachine.dao.SalesRollupMapper;
+import com.rem.vendingmachine.dao.VendingMachineMapper;
+import com.rem.vendingmachine.model.HeavyHitterReport;
+import com.rem.vendingmachine.model.SalesRollup;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.when;
+
+/**
+ * 启动时从销售汇总加载：小时草图保留范围起点所在的天只有一部分小时在保留范围内，这一天的销量必须完整地来自天汇总
+ */
+@ExtendWith(MockitoExtension.class)
+class ProductHeavyHittersTest {
+
+    @Mock
+    private SalesRollupMapper salesRollupMapper;
+
+    @Mock
+    private VendingMachineMapper vendingMachineMapper;
+
+    @InjectMocks
+    private ProductHeavyHitters heavyHitters;
+
+    @Test
+    void seedingAcrossHourlyCutoffKeepsWholeDay() {
+        // 和 ProductHeavyHitters 默认的 48 小时保留范围一致
+        LocalDateTime cutoff = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS).minusHours(47);
+        LocalDateTime cutoffDay = cutoff.truncatedTo(ChronoUnit.DAYS);
+
+        // 保留范围起点所在的天：零点卖出 10 件（早于保留范围），保留范围起点卖出 5 件
+        List<SalesRollup> hourly = List.of(rollup(cutoffDay, 1, 10), rollup(cutoff, 1, 5));
+        List<SalesRollup> daily = List.of(rollup(cutoffDay, 1, 15));
+        when(salesRollupMapper.selectRollups(anyBoolean(), any(), any())).thenAnswer(invocation -> {
+            boolean isDaily = invocation.getArgument(0);
+            LocalDateTime from = invocation.getArgument(1);
+            LocalDateTime to = invocation.getArgument(2);
+            List<SalesRollup> result = new ArrayList<>();
+            for (SalesRollup rollup : isDaily ? daily : hourly) {
+                if (!rollup.getBucketStart().isBefore(from) && rollup.getBucketStart().isBefore(to)) {
+                    result.add(rollup);
+                }
+            }
+            return result;
+        });
+
+        heavyHitters.init();
+
+        // 窗口早于小时草图保留范围，按整天计算，保留范围起点所在的天用天草图
+        HeavyHitterReport report = heavyHitters.top("fleet", null, 72, 10);
+        assertEquals(15, report.getTotalUnits());
+        assertEquals(1, report.getItems().get(0).getProductId());
+        assertEquals(15, report.getItems().get(0).getEstimate());
+    }
+
+    private static SalesRollup rollup(LocalDateTime bucketStart, int productId, long units) {
+        return new SalesRollup(bucketStart, productId, 0, units, BigDecimal.ZERO);
+    }
+}
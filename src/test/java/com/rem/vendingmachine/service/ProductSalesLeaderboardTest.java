@@ -0,0 +1,58 @@
+package com.rem.vendingmachine.service;
+
+import com.rem.vendingmachine.model.Order;
+import com.rem.vendingmachine.model.OrderCommittedEvent;
+import com.rem.vendingmachine.model.OrderItem;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 随机生成大量订单，逐个累加进排行榜，和直接对全部订单项求和排序的结果对比
+ */
+class ProductSalesLeaderboardTest {
+
+    @Test
+    void topKMatchesFullAggregation() {
+        ProductSalesLeaderboard leaderboard = new ProductSalesLeaderboard();
+        Map<Integer, Long> expected = new HashMap<>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 20000; i++) {
+            List<OrderItem> items = new ArrayList<>();
+            for (int j = 0, n = 1 + random.nextInt(3); j < n; j++) {
+                // 长尾分布：少数商品卖得多，大部分商品只偶尔卖出
+                int productId = 1 + (int) Math.abs(random.nextGaussian() * 200);
+                int quantity = 1 + random.nextInt(3);
+                OrderItem item = new OrderItem();
+                item.setProductId(productId);
+                item.setQuantity(quantity);
+                items.add(item);
+                expected.merge(productId, (long) quantity, Long::sum);
+            }
+            Order order = new Order();
+            order.setOrderItems(items);
+            leaderboard.onOrderCommitted(new OrderCommittedEvent(order));
+        }
+
+        List<Long> expectedTop = expected.values().stream()
+                .sorted(Comparator.reverseOrder())
+                .limit(50)
+                .toList();
+        List<Long> actualTop = leaderboard.getTopProducts(Integer.MAX_VALUE).stream()
+                .map(row -> (Long) row.get("quantity"))
+                .toList();
+        assertEquals(expectedTop, actualTop);
+
+        for (Map.Entry<Integer, Long> entry : expected.entrySet()) {
+            assertEquals(entry.getValue().longValue(), leaderboard.getQuantity(entry.getKey()));
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.rem.vendingmachine.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 随机生成 24 个小时的长尾销量，每小时一个草图再合并成天草图，和精确计数对比：
+ * 每个商品的真实销量都在 [估计值 - 高估量, 估计值] 之间，高估量不超过 总件数 / 计数器数，真正的热销商品都在草图里
+ */
+class SpaceSavingSketchTest {
+
+    @Test
+    void mergedHourlySketchesStayWithinErrorBound() {
+        Random random = new Random(7);
+        Map<Integer, Long> exact = new HashMap<>();
+        SpaceSavingSketch day = SpaceSavingSketch.withErrorRate(0.01);
+
+        for (int hour = 0; hour < 24; hour++) {
+            SpaceSavingSketch sketch = SpaceSavingSketch.withErrorRate(0.01);
+            for (int i = 0; i < 5000; i++) {
+                int productId = 1 + (int) Math.abs(random.nextGaussian() * 300);
+                int quantity = 1 + random.nextInt(3);
+                sketch.add(productId, quantity);
+                exact.merge(productId, (long) quantity, Long::sum);
+            }
+            day.merge(sketch);
+        }
+
+        long total = exact.values().stream().mapToLong(Long::longValue).sum();
+        assertEquals(total, day.getTotal());
+        long bound = total / day.getCapacity();
+
+        List<long[]> top = day.top(Integer.MAX_VALUE);
+        for (long[] entry : top) {
+            long actual = exact.getOrDefault((int) entry[0], 0L);
+            assertTrue(entry[1] >= actual, "估计值不应低于真实销量");
+            assertTrue(entry[1] - entry[2] <= actual, "下限不应高于真实销量");
+            assertTrue(entry[2] <= bound, "高估量不应超过误差上界");
+        }
+        // 真实销量超过误差上界的商品一定在草图里
+        for (Map.Entry<Integer, Long> entry : exact.entrySet()) {
+            if (entry.getValue() > bound) {
+                assertTrue(top.stream().anyMatch(e -> e[0] == entry.getKey()), "热销商品 " + entry.getKey() + " 不在草图里");
+            }
+        }
+    }
+}
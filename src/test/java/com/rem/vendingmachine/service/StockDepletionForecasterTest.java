@@ -0,0 +1,62 @@
+package com.rem.vendingmachine.service;
+
+import com.rem.vendingmachine.dao.SalesRollupMapper;
+import com.rem.vendingmachine.model.StockDepletionForecast;
+import com.rem.vendingmachine.model.VendingMachineProduct;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 按固定速度持续卖出时，指数加权速度应收敛到该速度，售空时间 = 可售数量 / 速度
+ */
+@ExtendWith(MockitoExtension.class)
+class StockDepletionForecasterTest {
+
+    private static final long HOUR = 3_600_000L;
+
+    @Mock
+    private SalesRollupMapper salesRollupMapper;
+
+    @Spy
+    private SlotStockSnapshot slotStockSnapshot = new SlotStockSnapshot();
+
+    @InjectMocks
+    private StockDepletionForecaster forecaster;
+
+    @Test
+    void slotsSortedByTimeToEmpty() {
+        slotStockSnapshot.load(List.of(
+                new VendingMachineProduct(1, 1, "可乐", BigDecimal.ONE, 60),
+                new VendingMachineProduct(1, 2, "矿泉水", BigDecimal.ONE, 10),
+                new VendingMachineProduct(2, 1, "可乐", BigDecimal.ONE, 0),
+                new VendingMachineProduct(2, 3, "薯片", BigDecimal.ONE, 500)));
+
+        // 30 天里每小时卖出：(1,1) 3 件，(1,2) 1 件，(2,1) 1 件，(2,3) 1 件
+        long now = 1_700_000_000_000L;
+        for (long t = now - 30 * 24 * HOUR; t <= now; t += HOUR) {
+            forecaster.record(1, 1, 3, t);
+            forecaster.record(1, 2, 1, t);
+            forecaster.record(2, 1, 1, t);
+            forecaster.record(2, 3, 1, t);
+        }
+
+        List<StockDepletionForecast> result = forecaster.forecast(24, null, now);
+        assertEquals(3, result.size()); // 薯片 500 小时后才售空
+        assertEquals(2, result.get(0).getVendingMachineId()); // 已售空
+        assertEquals(0, result.get(0).getHoursToEmpty());
+        assertEquals(2, result.get(1).getProductId()); // 10 / 1 = 10 小时
+        assertEquals(10, result.get(1).getHoursToEmpty(), 0.5);
+        assertEquals(1, result.get(2).getProductId()); // 60 / 3 = 20 小时
+        assertEquals(20, result.get(2).getHoursToEmpty(), 0.5);
+        assertEquals(3, result.get(2).getSalesPerHour(), 0.1);
+    }
+}